@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.picture.PictureListener;
+import com.pavelfatin.fractal.picture.Update;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Measures the heap allocation per frame while panning (in the steady state, after the image and update pools
+ * are filled), the updates are applied to an image the way the canvas does. Fails (with the exit code 1)
+ * when an image is allocated or a frame allocates more than the limits.
+ * <p/>
+ * Run with: java -cp target/benchmarks.jar com.pavelfatin.fractal.AllocationBenchmark
+ */
+public class AllocationBenchmark {
+    private static final Dimension SIZE = new Dimension(800, 600);
+
+    private static final String PICTURE_THREAD = "Picture renderer";
+
+    private static final int MODEL = 0;
+    private static final int PICTURE = 1;
+    private static final int OTHER = 2;
+
+    private static final int WARMUP_FRAMES = 500;
+    private static final int MEASURED_FRAMES = 1000;
+
+    /**
+     * The limits of the allocation per frame, by thread. Neither pixel memory nor updates are allocated,
+     * what remains is (about 2.7 KB, 8.3 KB and 1.1 KB now):
+     * <ul>
+     * <li>on the model thread, the arbitrary-precision center of the moved view (BigDecimal) and the view snapshot;</li>
+     * <li>on the picture thread, the arbitrary-precision offsets of the uncovered blocks and their conversion
+     * to double (which BigDecimal does through a string), the keys of the tile cache lookups (with BigInteger
+     * tile coordinates), and the state of the Java2D drawing of the updates;</li>
+     * <li>on the other threads, the fork/join tasks of the renderer (one per tile and per split).</li>
+     * </ul>
+     */
+    private static final long[] MAX_BYTES_PER_FRAME = {4L * 1024L, 10L * 1024L, 2L * 1024L};
+
+    public static void main(final String[] args) throws InterruptedException {
+        final PictureModel model = new PictureModel();
+        model.setViewSize(SIZE);
+
+        final RenderedPicture picture = new RenderedPicture(model, SIZE);
+        picture.setDynamicResolution(false);
+        picture.setAdaptiveIterations(false);
+        picture.setRenderer(new RendererFactory().createRenderer(RendererType.Multithreaded, SIZE.width, SIZE.height, true));
+
+        final BufferedImage screen = new BufferedImage(SIZE.width, SIZE.height, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = screen.getGraphics();
+        final Semaphore frames = new Semaphore(0);
+
+        picture.addPictureListener(new PictureListener() {
+            @Override
+            public void onUpdate(final Update update, final long elapsedTime) {
+                update.apply(graphics);
+                frames.release();
+            }
+        });
+
+        // there must be room for the moves in every direction
+        model.zoomIn();
+        model.zoomIn();
+        frames.acquire(4);
+
+        pan(model, frames, WARMUP_FRAMES);
+
+        final int images = picture.getImageAllocationCount();
+        final long collections = getCollectionCount();
+        final long[] bytes = getAllocatedBytes();
+
+        pan(model, frames, MEASURED_FRAMES);
+
+        final long[] allocatedBytes = getAllocatedBytes();
+        for (int i = 0; i < bytes.length; i++) {
+            allocatedBytes[i] = (allocatedBytes[i] - bytes[i]) / MEASURED_FRAMES;
+        }
+
+        final int allocatedImages = picture.getImageAllocationCount() - images;
+
+        System.out.println(String.format("Frame size: %dx%d (%d KB of pixels)",
+                SIZE.width, SIZE.height, SIZE.width * SIZE.height * 4 / 1024));
+        System.out.println(String.format("Images allocated: %d", allocatedImages));
+        System.out.println(String.format("Garbage collections: %d", getCollectionCount() - collections));
+        System.out.println(String.format("Heap allocated per frame: %d bytes on the model thread, " +
+                "%d bytes on the picture thread, %d bytes on the other threads",
+                allocatedBytes[MODEL], allocatedBytes[PICTURE], allocatedBytes[OTHER]));
+
+        picture.dispose();
+
+        boolean exceeded = allocatedImages > 0;
+        for (int i = 0; i < allocatedBytes.length; i++) {
+            exceeded |= allocatedBytes[i] > MAX_BYTES_PER_FRAME[i];
+        }
+
+        if (exceeded) {
+            System.err.println(String.format("The allocation exceeds the limits of no images and %d, %d and %d bytes per frame",
+                    MAX_BYTES_PER_FRAME[MODEL], MAX_BYTES_PER_FRAME[PICTURE], MAX_BYTES_PER_FRAME[OTHER]));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Moves the view by a few pixels per frame (along a square, so that the view stays in place).
+     */
+    private static void pan(final PictureModel model, final Semaphore frames, final int count) throws InterruptedException {
+        final int[][] steps = {{4, 0}, {0, 4}, {-4, 0}, {0, -4}};
+
+        for (int i = 0; i < count; i++) {
+            final int[] step = steps[i / 25 % steps.length];
+            model.move(step[0], step[1]);
+            frames.acquire();
+        }
+    }
+
+    private static long getCollectionCount() {
+        long count = 0L;
+        for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0L);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the model (i.e. this) thread, by the picture thread,
+     * and by the other live threads (the pools of the renderer and of the colorizer).
+     */
+    private static long[] getAllocatedBytes() {
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long modelThread = Thread.currentThread().getId();
+
+        final long[] bytes = new long[3];
+        for (final long id : bean.getAllThreadIds()) {
+            final ThreadInfo info = bean.getThreadInfo(id);
+            if (info == null) continue;
+            final int category = id == modelThread ? MODEL : PICTURE_THREAD.equals(info.getThreadName()) ? PICTURE : OTHER;
+            bytes[category] += Math.max(bean.getThreadAllocatedBytes(id), 0L);
+        }
+        return bytes;
+    }
+}
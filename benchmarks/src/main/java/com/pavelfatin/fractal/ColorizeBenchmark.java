@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.picture.ImagePool;
+import com.pavelfatin.fractal.renderer.Renderer;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the colorizing of the counts of a reference view, alone and into an image
+ * that is drawn onto the screen image (the way the picture updates are made and applied).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class ColorizeBenchmark {
+    @Param({"Whole", "Boundary"})
+    public ReferenceView view;
+
+    @Param({"800x600", "1920x1080"})
+    public String size;
+
+    @Param({"Green", "Rainbow"})
+    public Palette palette;
+
+    private int myWidth;
+    private int myHeight;
+    private int myMaxIterations;
+    private int[] myCounts;
+    private int[] myColors;
+    private Colorizer myColorizer;
+    private BufferedImage myImage;
+    private BufferedImage myScreen;
+    private Graphics myGraphics;
+
+    @Setup
+    public void setUp() {
+        final String[] parts = size.split("x");
+        myWidth = Integer.parseInt(parts[0]);
+        myHeight = Integer.parseInt(parts[1]);
+        myMaxIterations = view.getMaxIterations(myWidth);
+
+        myCounts = new int[myWidth * myHeight];
+
+        final Renderer renderer = new RendererFactory().createRenderer(RendererType.Multithreaded, myWidth, myHeight, true);
+        renderer.render(myCounts, myWidth, myHeight, view.getRealOffset(myWidth), view.getImaginaryOffset(myWidth, myHeight),
+                view.getResolution(myWidth), myMaxIterations);
+        renderer.dispose();
+
+        myColors = new int[myCounts.length];
+        myColorizer = new Colorizer(Runtime.getRuntime().availableProcessors());
+        myImage = new ImagePool(new Dimension(myWidth, myHeight), 1).acquire();
+        myScreen = new BufferedImage(myWidth, myHeight, BufferedImage.TYPE_INT_RGB);
+        myGraphics = myScreen.getGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        myGraphics.dispose();
+        myColorizer.dispose();
+    }
+
+    @Benchmark
+    public int[] colorize(final PixelCounter pixels) {
+        myColorizer.colorize(myCounts, myWidth, myHeight, myColors, myWidth, palette, 0, myMaxIterations);
+        pixels.pixels += myCounts.length;
+        return myColors;
+    }
+
+    @Benchmark
+    public BufferedImage colorizeAndDraw(final PixelCounter pixels) {
+        myColorizer.colorize(myCounts, myWidth, myHeight, ImagePool.getData(myImage), myWidth, palette, 0, myMaxIterations);
+        myGraphics.drawImage(myImage, 0, 0, null);
+        pixels.pixels += myCounts.length;
+        return myScreen;
+    }
+}
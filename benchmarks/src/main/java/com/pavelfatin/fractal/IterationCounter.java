@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the iterations per second (along with the operations per second).
+ * <p/>
+ * The iterations are counted as a plain escape-time loop would perform them (an interior point
+ * takes the whole limit), so that the renderers that skip the work are credited for that.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class IterationCounter {
+    public long iterations;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        iterations = 0L;
+    }
+}
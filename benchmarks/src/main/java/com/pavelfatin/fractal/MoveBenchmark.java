@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.picture.PictureListener;
+import com.pavelfatin.fractal.picture.Update;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the moves of the picture, from a move of the model to the update that is applied
+ * to the screen image: the copying of the picture, the rendering of the uncovered strip and
+ * its colorizing. The tile cache is disabled, so that every strip is rendered.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class MoveBenchmark {
+    /** The side of the square path, in pixels (which must be within the scroll range). */
+    private static final int PATH_SIDE = 256;
+    private static final int ZOOM_COUNT = 4;
+    private static final long IDLE_TIME = 500L;
+
+    @Param({"Multithreaded", "Tiered"})
+    public RendererType type;
+
+    @Param({"800x600", "1920x1080"})
+    public String size;
+
+    /** The distance of a move, in pixels (a divisor of the path side). */
+    @Param({"4", "64"})
+    public int step;
+
+    private PictureModel myModel;
+    private RenderedPicture myPicture;
+    private Graphics myGraphics;
+    private final Semaphore myUpdates = new Semaphore(0);
+    private int myMoveCount;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        final String[] parts = size.split("x");
+        final Dimension dimension = new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+
+        myModel = new PictureModel();
+        myModel.setViewSize(dimension);
+
+        myPicture = new RenderedPicture(myModel, dimension);
+        myPicture.setDynamicResolution(false);
+        myPicture.setAdaptiveIterations(false);
+        myPicture.setTileCacheBudget(0);
+        myPicture.setRenderer(new RendererFactory().createRenderer(type, dimension.width, dimension.height, true));
+
+        final BufferedImage screen = new BufferedImage(dimension.width, dimension.height, BufferedImage.TYPE_INT_RGB);
+        myGraphics = screen.getGraphics();
+
+        myPicture.addPictureListener(new PictureListener() {
+            @Override
+            public void onUpdate(final Update update, final long elapsedTime) {
+                update.apply(myGraphics);
+                myUpdates.release();
+            }
+        });
+
+        // there must be room for the moves in every direction
+        for (int i = 0; i < ZOOM_COUNT; i++) {
+            myModel.zoomIn();
+        }
+
+        // the zooms may be rendered at once, so the updates are counted until the picture is idle
+        myUpdates.acquire();
+        while (myUpdates.tryAcquire(IDLE_TIME, TimeUnit.MILLISECONDS)) {
+            myUpdates.drainPermits();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        myPicture.dispose();
+        myGraphics.dispose();
+    }
+
+    /**
+     * Moves the view by the step (along a square, so that the view stays in place) and waits for the update.
+     */
+    @Benchmark
+    public void move(final PixelCounter pixels) throws InterruptedException {
+        final int side = myMoveCount++ / (PATH_SIDE / step) % 4;
+        final int dx = side == 0 ? step : side == 2 ? -step : 0;
+        final int dy = side == 1 ? step : side == 3 ? -step : 0;
+
+        myModel.move(dx, dy);
+        myUpdates.acquire();
+
+        final Dimension dimension = myModel.getViewSize();
+        pixels.pixels += dx != 0 ? (long) step * dimension.height : (long) step * dimension.width;
+    }
+}
@@ -15,23 +15,25 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package com.pavelfatin.fractal.picture;
 
-import java.awt.*;
+package com.pavelfatin.fractal;
 
-public class CopyUpdate implements Update {
-    private final Rectangle mySource;
-    private final Point myDestination;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 
-    public CopyUpdate(final Rectangle source, final Point destination) {
-        mySource = source;
-        myDestination = destination;
-    }
-
-    public void apply(final Graphics graphics) {
-        final int dx = myDestination.x - mySource.x;
-        final int dy = myDestination.y - mySource.y;
+/**
+ * Reports the pixels per second (along with the operations per second).
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PixelCounter {
+    public long pixels;
 
-        graphics.copyArea(mySource.x, mySource.y, mySource.width, mySource.height, dx, dy);
+    @Setup(Level.Iteration)
+    public void reset() {
+        pixels = 0L;
     }
 }
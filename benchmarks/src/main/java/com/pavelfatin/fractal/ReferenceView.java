@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The views that the benchmarks are measured on (scaled to the size of the image).
+ */
+public enum ReferenceView {
+    /** The whole set, where most of the points escape early. */
+    Whole("-0.75", "0", 3.5D),
+    /** A minibrot, where most of the points are interior, so they reach the limit. */
+    Interior("-1.7548776662", "0", 0.025D),
+    /** The seahorse valley, where the points escape late. */
+    Boundary("-0.7454", "0.113", 0.001D),
+    /** A zoom beyond double precision. */
+    Deep("0", "1", 8.0E-22D);
+
+    private final BigDecimal myRealCenter;
+    private final BigDecimal myImaginaryCenter;
+    private final double mySpan;
+
+    ReferenceView(final String realCenter, final String imaginaryCenter, final double span) {
+        myRealCenter = new BigDecimal(realCenter);
+        myImaginaryCenter = new BigDecimal(imaginaryCenter);
+        mySpan = span;
+    }
+
+    public double getResolution(final int width) {
+        return mySpan / width;
+    }
+
+    /**
+     * Returns the iteration limit that the application uses for the view.
+     */
+    public int getMaxIterations(final int width) {
+        return PictureModel.getMaxIterations(getResolution(width), width);
+    }
+
+    public BigDecimal getRealOffset(final int width) {
+        final double resolution = getResolution(width);
+        return myRealCenter.subtract(new BigDecimal(resolution * width / 2.0D), PictureModel.getMathContext(resolution));
+    }
+
+    public BigDecimal getImaginaryOffset(final int width, final int height) {
+        final double resolution = getResolution(width);
+        return myImaginaryCenter.subtract(new BigDecimal(resolution * height / 2.0D), PictureModel.getMathContext(resolution));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import com.pavelfatin.fractal.IterationCounter;
+import com.pavelfatin.fractal.PixelCounter;
+import com.pavelfatin.fractal.ReferenceView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the renderers on the reference views, at several sizes. A renderer that cannot tell apart
+ * the pixels of a view (e.g. a double one beyond double precision) fails in the setup, so the combination
+ * is left out of the results. The OpenCL renderer is measured on request (-p type=OpenCL),
+ * as it is not always supported.
+ * <p/>
+ * Every invocation renders a new frame, so the renderers that cache the reference orbits
+ * compute them anew (as on a zoom), rather than reuse the ones of the previous invocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    @Param({"Singlethreaded", "Multithreaded", "Vectorized", "MarianiSilver", "DoubleDouble", "FixedPoint", "Perturbation", "Tiered"})
+    public RendererType type;
+
+    @Param({"Whole", "Interior", "Boundary", "Deep"})
+    public ReferenceView view;
+
+    @Param({"320x240", "800x600", "1920x1080"})
+    public String size;
+
+    private RenderFixture myFixture;
+
+    @Setup
+    public void setUp() {
+        myFixture = new RenderFixture(type, view, size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        myFixture.dispose();
+    }
+
+    @Benchmark
+    public int[] render(final PixelCounter pixels, final IterationCounter iterations) {
+        return myFixture.render(pixels, iterations);
+    }
+}
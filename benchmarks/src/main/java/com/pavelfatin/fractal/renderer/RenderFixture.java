@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import com.pavelfatin.fractal.IterationCounter;
+import com.pavelfatin.fractal.PixelCounter;
+import com.pavelfatin.fractal.ReferenceView;
+
+import java.math.BigDecimal;
+
+/**
+ * A renderer with a reference view of a given size, which is rendered as a whole
+ * (with no reference orbits cached, see {@link OrbitCachingRenderer}).
+ */
+class RenderFixture {
+    private final Renderer myRenderer;
+    private final int myWidth;
+    private final int myHeight;
+    private final BigDecimal myRealOffset;
+    private final BigDecimal myImaginaryOffset;
+    private final double myResolution;
+    private final int myMaxIterations;
+    private final int[] myBuffer;
+    private final long myIterations;
+
+    /**
+     * @param size the size of the image, as in 800x600
+     */
+    RenderFixture(final RendererType type, final ReferenceView view, final String size) {
+        final String[] parts = size.split("x");
+        myWidth = Integer.parseInt(parts[0]);
+        myHeight = Integer.parseInt(parts[1]);
+
+        myRenderer = new RendererFactory().createRenderer(type, myWidth, myHeight, true);
+
+        if (view.getResolution(myWidth) < myRenderer.getMinResolution()) {
+            myRenderer.dispose();
+            throw new IllegalArgumentException("The " + type + " renderer does not support the " + view + " view");
+        }
+
+        myRealOffset = view.getRealOffset(myWidth);
+        myImaginaryOffset = view.getImaginaryOffset(myWidth, myHeight);
+        myResolution = view.getResolution(myWidth);
+        myMaxIterations = view.getMaxIterations(myWidth);
+        myBuffer = new int[myWidth * myHeight];
+
+        render();
+        myIterations = iterationsOf(myBuffer, myMaxIterations);
+    }
+
+    public int[] render(final PixelCounter pixels, final IterationCounter iterations) {
+        render();
+        pixels.pixels += myBuffer.length;
+        iterations.iterations += myIterations;
+        return myBuffer;
+    }
+
+    private void render() {
+        if (myRenderer instanceof OrbitCachingRenderer) {
+            ((OrbitCachingRenderer) myRenderer).clearOrbits();
+        }
+
+        myRenderer.render(myBuffer, myWidth, myHeight, myRealOffset, myImaginaryOffset, myResolution, myMaxIterations);
+    }
+
+    /**
+     * Returns the iterations of a plain escape-time loop (an interior point takes the whole limit).
+     */
+    private static long iterationsOf(final int[] counts, final int maxIterations) {
+        long sum = 0L;
+        for (final int count : counts) {
+            sum += count == 0 ? maxIterations : count;
+        }
+        return sum;
+    }
+
+    public void dispose() {
+        myRenderer.dispose();
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.renderer.Renderer;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+import com.pavelfatin.fractal.renderer.TieredRenderer;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Renders a zoom animation, given by keyframes, into numbered PNG frames or a raw RGB stream.
+ * <p/>
+ * Between two keyframes the view zooms about a fixed point (or pans, if the spans are equal).
+ * The frames are resampled from key images, one per twofold zoom, which have twice the size of a frame
+ * and are aligned so that the fixed point lies on a sample, so a key reuses a quarter of the samples
+ * of the previous key. The frames are resampled and encoded in parallel, while the next key is rendered.
+ * <p/>
+ * Run with: java -cp target/classes com.pavelfatin.fractal.Animation
+ * -keyframe 0:-0.75,0,3.5 -keyframe 600:-0.743643887037,0.131825904206,1e-9 -raw - | ffmpeg
+ * -f rawvideo -pixel_format rgb24 -video_size 1280x720 -framerate 30 -i - zoom.mp4
+ */
+public class Animation {
+    private static final String USAGE = "Usage: Animation [options] -keyframe <frame>:<real>,<imaginary>,<span> ...\n" +
+            "  -keyframe <frame>:<real>,<imaginary>,<span>  a keyframe (at least two, in order)\n" +
+            "  -size <width>x<height>  the frame size (default: 1280x720)\n" +
+            "  -iterations <count>     the iteration limit (default: by the zoom depth)\n" +
+            "  -renderer <type>        the renderer type (default: Multithreaded)\n" +
+            "  -palette <name>         the palette (default: Green)\n" +
+            "  -threads <count>        the encoding threads (default: the number of cores)\n" +
+            "  -frames <directory>     write the frames as numbered PNG files\n" +
+            "  -raw <file>             write the frames as a raw RGB stream (- for the standard output)";
+
+    private final Dimension mySize;
+    private final int myMaxIterations;
+    private final Palette myPalette;
+    private final File myDirectory;
+    private final OutputStream myOutput;
+
+    private final Renderer myRenderer;
+    private final Colorizer myColorizer;
+    private final ExecutorService myExecutor;
+    private final int myMaxPendingFrames;
+    private final Deque<Future<byte[]>> myPendingFrames = new ArrayDeque<Future<byte[]>>();
+
+    private final int[] myBuffer;
+
+    private int myFrameCount;
+    private int myKeyCount;
+    private long myRenderedPixelCount;
+
+    private Animation(final Dimension size,
+                      final int maxIterations,
+                      final RendererType rendererType,
+                      final Palette palette,
+                      final int threadCount,
+                      final File directory,
+                      final OutputStream output) {
+        mySize = size;
+        myMaxIterations = maxIterations;
+        myPalette = palette;
+        myDirectory = directory;
+        myOutput = output;
+
+        myRenderer = new RendererFactory().createRenderer(rendererType, 2 * size.width, 2 * size.height, true);
+        myColorizer = new Colorizer(Runtime.getRuntime().availableProcessors());
+        myExecutor = Executors.newFixedThreadPool(threadCount);
+        myMaxPendingFrames = 2 * threadCount;
+
+        myBuffer = new int[4 * size.width * size.height];
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final List<Keyframe> keyframes = new ArrayList<Keyframe>();
+        Dimension size = new Dimension(1280, 720);
+        int maxIterations = 0;
+        RendererType rendererType = RendererType.Multithreaded;
+        Palette palette = Palette.Green;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String directory = null;
+        String raw = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if (arg.equals("-keyframe")) {
+                    final String[] parts = args[++i].split("[:,]");
+                    if (parts.length != 4) {
+                        throw new IllegalArgumentException("Invalid keyframe: " + args[i]);
+                    }
+                    keyframes.add(new Keyframe(Integer.parseInt(parts[0]), new BigDecimal(parts[1]),
+                            new BigDecimal(parts[2]), Double.parseDouble(parts[3])));
+                } else if (arg.equals("-size")) {
+                    final String[] parts = args[++i].split("x");
+                    size = new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                } else if (arg.equals("-iterations")) {
+                    maxIterations = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-renderer")) {
+                    rendererType = RendererType.valueOf(args[++i]);
+                } else if (arg.equals("-palette")) {
+                    palette = Palette.valueOf(args[++i]);
+                } else if (arg.equals("-threads")) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-frames")) {
+                    directory = args[++i];
+                } else if (arg.equals("-raw")) {
+                    raw = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (keyframes.size() < 2) {
+                throw new IllegalArgumentException("At least two keyframes are required");
+            }
+            for (int i = 1; i < keyframes.size(); i++) {
+                if (keyframes.get(i).myFrame <= keyframes.get(i - 1).myFrame) {
+                    throw new IllegalArgumentException("The keyframes are not in order");
+                }
+            }
+            for (final Keyframe keyframe : keyframes) {
+                if (keyframe.mySpan <= 0.0D) {
+                    throw new IllegalArgumentException("Invalid span: " + keyframe.mySpan);
+                }
+            }
+            if ((directory == null) == (raw == null)) {
+                throw new IllegalArgumentException("Either -frames or -raw is required");
+            }
+            if (size.width <= 0 || size.height <= 0 || maxIterations < 0 || threadCount <= 0) {
+                throw new IllegalArgumentException("Invalid value");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        if (directory != null && !new File(directory).isDirectory() && !new File(directory).mkdirs()) {
+            throw new IOException("Cannot create directory: " + directory);
+        }
+
+        final OutputStream output = raw == null ? null
+                : new BufferedOutputStream(raw.equals("-") ? System.out : new FileOutputStream(raw));
+
+        final long start = System.nanoTime();
+
+        final Animation animation = new Animation(size, maxIterations, rendererType, palette, threadCount,
+                directory == null ? null : new File(directory), output);
+
+        try {
+            for (int i = 1; i < keyframes.size(); i++) {
+                animation.render(keyframes.get(i - 1), keyframes.get(i), i == keyframes.size() - 1);
+            }
+            animation.finish();
+        } finally {
+            animation.dispose();
+        }
+
+        // the standard output may hold the frames
+        System.err.println(String.format("%d frames, %d keys, %.1f frames rendered, %.1f s",
+                animation.myFrameCount, animation.myKeyCount,
+                (double) animation.myRenderedPixelCount / size.width / size.height,
+                (System.nanoTime() - start) / 1.0E9D));
+    }
+
+    /**
+     * Renders the frames from the first keyframe up to the second one (inclusive, if it is the last one).
+     */
+    private void render(final Keyframe first, final Keyframe second, final boolean last) throws IOException {
+        final int frameCount = second.myFrame - first.myFrame + (last ? 1 : 0);
+        final double height = mySize.height / (double) mySize.width;
+
+        final double minSpan = Math.min(first.mySpan, second.mySpan);
+        final MathContext context = PictureModel.getMathContext(minSpan / mySize.width / 2.0D);
+
+        // the point that keeps its position in the frame: (p - c0) / s0 == (p - c1) / s1
+        final BigDecimal realPoint;
+        final BigDecimal imaginaryPoint;
+        final double pointX;
+        final double pointY;
+
+        if (first.mySpan == second.mySpan) {
+            realPoint = null;
+            imaginaryPoint = null;
+            pointX = -1.0D;
+            pointY = -1.0D;
+        } else {
+            final BigDecimal s0 = new BigDecimal(first.mySpan);
+            final BigDecimal s1 = new BigDecimal(second.mySpan);
+            final BigDecimal denominator = s0.subtract(s1);
+            realPoint = second.myRealCenter.multiply(s0).subtract(first.myRealCenter.multiply(s1)).divide(denominator, context);
+            imaginaryPoint = second.myImaginaryCenter.multiply(s0).subtract(first.myImaginaryCenter.multiply(s1)).divide(denominator, context);
+            pointX = realPoint.subtract(first.myRealCenter).doubleValue() / first.mySpan + 0.5D;
+            pointY = imaginaryPoint.subtract(first.myImaginaryCenter).doubleValue() / first.mySpan / height + 0.5D;
+        }
+
+        // the keys cover the frames only when the fixed point is within the frame
+        final boolean zoom = pointX >= 0.0D && pointX <= 1.0D && pointY >= 0.0D && pointY <= 1.0D;
+
+        final double topSpan = Math.max(first.mySpan, second.mySpan);
+        final int keyX = (int) Math.round(pointX * 2 * mySize.width);
+        final int keyY = (int) Math.round(pointY * 2 * mySize.height);
+
+        int level = -1;
+        View key = null;
+        int[] keyCounts = null;
+        int[] keyColors = null;
+
+        for (int i = 0; i < frameCount; i++) {
+            final double t = (double) i / (second.myFrame - first.myFrame);
+            final double span = first.mySpan * Math.pow(second.mySpan / first.mySpan, t);
+            final double resolution = span / mySize.width;
+            final MathContext frameContext = PictureModel.getMathContext(resolution);
+
+            final BigDecimal realCenter;
+            final BigDecimal imaginaryCenter;
+            if (realPoint == null) {
+                final BigDecimal fraction = new BigDecimal(t);
+                realCenter = first.myRealCenter.add(second.myRealCenter.subtract(first.myRealCenter).multiply(fraction), frameContext);
+                imaginaryCenter = first.myImaginaryCenter.add(second.myImaginaryCenter.subtract(first.myImaginaryCenter).multiply(fraction), frameContext);
+            } else {
+                final BigDecimal scale = new BigDecimal(span / first.mySpan);
+                realCenter = realPoint.add(first.myRealCenter.subtract(realPoint).multiply(scale), frameContext);
+                imaginaryCenter = imaginaryPoint.add(first.myImaginaryCenter.subtract(imaginaryPoint).multiply(scale), frameContext);
+            }
+
+            final View frame = new View(mySize, realCenter, imaginaryCenter, resolution,
+                    maxIterationsFor(span), frameContext);
+
+            if (!zoom) {
+                renderFrame(frame, first.myFrame + i);
+                continue;
+            }
+
+            // the key of the level covers the spans from a half of its span up to its span
+            int frameLevel = 0;
+            while (topSpan / Math.pow(2.0D, frameLevel + 1) >= span * (1.0D - 1.0E-9D)) {
+                frameLevel++;
+            }
+
+            if (frameLevel != level) {
+                // the limit of the deepest frame of the key
+                final double keySpan = topSpan / Math.pow(2.0D, frameLevel);
+                final double keyResolution = keySpan / mySize.width / 2.0D;
+                final MathContext keyContext = PictureModel.getMathContext(keyResolution);
+
+                final View previous = key;
+                key = new View(new Dimension(2 * mySize.width, 2 * mySize.height),
+                        realPoint.subtract(new BigDecimal(keyResolution * (keyX - mySize.width)), keyContext),
+                        imaginaryPoint.subtract(new BigDecimal(keyResolution * (keyY - mySize.height)), keyContext),
+                        keyResolution, maxIterationsFor(keySpan / 2.0D), keyContext);
+
+                keyCounts = renderKey(key, previous, keyCounts);
+                myKeyCount++;
+
+                // the frames in flight keep the colors of the previous key
+                keyColors = new int[keyCounts.length];
+                myColorizer.colorize(keyCounts, 2 * mySize.width, 2 * mySize.height, keyColors, 2 * mySize.width,
+                        myPalette, 0, key.getMaxIterations());
+
+                level = frameLevel;
+            }
+
+            submit(new ResampleTask(keyColors, 2 * mySize.width, 2 * mySize.height,
+                    key.getRealOffset(0.0D), key.getImaginaryOffset(0.0D), key.getResolution(), frame),
+                    first.myFrame + i);
+        }
+    }
+
+    private int maxIterationsFor(final double span) {
+        return myMaxIterations == 0 ? PictureModel.getMaxIterations(span / mySize.width, mySize.width) : myMaxIterations;
+    }
+
+    private void renderFrame(final View frame, final int number) throws IOException {
+        final int[] counts = new int[mySize.width * mySize.height];
+        startFrame(frame);
+        myRenderer.render(counts, mySize.width, mySize.height, frame.getRealOffset(0.0D), frame.getImaginaryOffset(0.0D),
+                frame.getResolution(), frame.getMaxIterations());
+        myRenderedPixelCount += counts.length;
+
+        final int[] colors = new int[counts.length];
+        myColorizer.colorize(counts, mySize.width, mySize.height, colors, mySize.width,
+                myPalette, 0, frame.getMaxIterations());
+
+        submit(new Callable<int[]>() {
+            @Override
+            public int[] call() {
+                return colors;
+            }
+        }, number);
+    }
+
+    /**
+     * Renders the key, taking the common samples from the previous key (when the samples line up).
+     */
+    private int[] renderKey(final View key, final View previous, final int[] previousCounts) {
+        final Dimension size = key.getSize();
+        final int[] counts = new int[size.width * size.height];
+
+        // the samples of another precision are not reused
+        final boolean precisionChanged = startFrame(key);
+
+        final ZoomMapping mapping = previous == null ? null : ZoomMapping.between(previous, key);
+
+        if (mapping == null || mapping.getStep() == 0 || precisionChanged) {
+            renderSamples(key, counts, 0, 0, 1, size.width, size.height);
+            return counts;
+        }
+
+        mapping.reuse(previousCounts, previous.getMaxIterations(), counts, key.getMaxIterations(), new ZoomMapping.Samples() {
+            @Override
+            public void render(final int x0, final int y0, final int step, final int x1, final int y1) {
+                renderSamples(key, counts, x0, y0, step, x1, y1);
+            }
+        });
+
+        return counts;
+    }
+
+    /**
+     * Lets a tiered renderer pick one precision for the whole view, returns whether the precision has changed.
+     */
+    private boolean startFrame(final View view) {
+        if (!(myRenderer instanceof TieredRenderer)) return false;
+
+        final Dimension size = view.getSize();
+        return ((TieredRenderer) myRenderer).startFrame(view.getRealOffset(0.0D), view.getImaginaryOffset(0.0D),
+                size.width, size.height, view.getResolution());
+    }
+
+    /**
+     * Renders the samples at (x0 + i * step, y0 + j * step) that lie above and to the left of (x1, y1).
+     */
+    private void renderSamples(final View view, final int[] counts,
+                               final int x0, final int y0, final int step, final int x1, final int y1) {
+        if (x0 >= x1 || y0 >= y1) return;
+
+        final int width = view.getSize().width;
+        final int columns = (x1 - x0 + step - 1) / step;
+        final int rows = (y1 - y0 + step - 1) / step;
+
+        myRenderer.render(myBuffer, columns, rows, view.getRealOffset(x0), view.getImaginaryOffset(y0),
+                view.getResolution() * step, view.getMaxIterations());
+
+        for (int j = 0; j < rows; j++) {
+            final int offset = (y0 + j * step) * width + x0;
+            for (int i = 0; i < columns; i++) {
+                counts[offset + i * step] = myBuffer[j * columns + i];
+            }
+        }
+
+        myRenderedPixelCount += (long) columns * rows;
+    }
+
+    private void submit(final Callable<int[]> colors, final int number) throws IOException {
+        myPendingFrames.addLast(myExecutor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return encode(colors.call(), number);
+            }
+        }));
+
+        while (myPendingFrames.size() > myMaxPendingFrames) {
+            write(myPendingFrames.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the frame into its file, or returns its RGB bytes (which are written in order).
+     */
+    private byte[] encode(final int[] colors, final int number) throws IOException {
+        if (myOutput == null) {
+            final File file = new File(myDirectory, String.format("frame-%05d.png", number));
+            final PngWriter writer = new PngWriter(new BufferedOutputStream(new FileOutputStream(file)),
+                    mySize.width, mySize.height, 1);
+            try {
+                writer.write(colors, mySize.height);
+                writer.close();
+            } finally {
+                writer.dispose();
+            }
+            return null;
+        }
+
+        final byte[] bytes = new byte[colors.length * 3];
+        for (int i = 0; i < colors.length; i++) {
+            bytes[3 * i] = (byte) (colors[i] >> 16);
+            bytes[3 * i + 1] = (byte) (colors[i] >> 8);
+            bytes[3 * i + 2] = (byte) colors[i];
+        }
+        return bytes;
+    }
+
+    private void write(final Future<byte[]> frame) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = frame.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        if (bytes != null) {
+            myOutput.write(bytes);
+        }
+
+        myFrameCount++;
+    }
+
+    private void finish() throws IOException {
+        while (!myPendingFrames.isEmpty()) {
+            write(myPendingFrames.removeFirst());
+        }
+        if (myOutput != null) {
+            myOutput.flush();
+        }
+    }
+
+    private void dispose() throws IOException {
+        myExecutor.shutdownNow();
+        myColorizer.dispose();
+        myRenderer.dispose();
+        if (myOutput != null) {
+            myOutput.close();
+        }
+    }
+
+    /**
+     * Resamples a frame from the colors of a key (bilinearly, as a key has up to twice the resolution of a frame).
+     */
+    private static class ResampleTask implements Callable<int[]> {
+        private final int[] myColors;
+        private final int myWidth;
+        private final int myHeight;
+        private final BigDecimal myRealOffset;
+        private final BigDecimal myImaginaryOffset;
+        private final double myResolution;
+        private final View myFrame;
+
+        ResampleTask(final int[] colors,
+                     final int width,
+                     final int height,
+                     final BigDecimal realOffset,
+                     final BigDecimal imaginaryOffset,
+                     final double resolution,
+                     final View frame) {
+            myColors = colors;
+            myWidth = width;
+            myHeight = height;
+            myRealOffset = realOffset;
+            myImaginaryOffset = imaginaryOffset;
+            myResolution = resolution;
+            myFrame = frame;
+        }
+
+        @Override
+        public int[] call() {
+            final Dimension size = myFrame.getSize();
+            final int[] colors = new int[size.width * size.height];
+
+            final double u0 = myFrame.getRealOffset(0.0D).subtract(myRealOffset).doubleValue() / myResolution;
+            final double v0 = myFrame.getImaginaryOffset(0.0D).subtract(myImaginaryOffset).doubleValue() / myResolution;
+            final double ratio = myFrame.getResolution() / myResolution;
+
+            for (int y = 0; y < size.height; y++) {
+                final double v = clamp(v0 + y * ratio, myHeight);
+                final int y1 = (int) v;
+                final int y2 = Math.min(y1 + 1, myHeight - 1);
+                final double fy = v - y1;
+
+                for (int x = 0; x < size.width; x++) {
+                    final double u = clamp(u0 + x * ratio, myWidth);
+                    final int x1 = (int) u;
+                    final int x2 = Math.min(x1 + 1, myWidth - 1);
+                    final double fx = u - x1;
+
+                    colors[y * size.width + x] = mix(
+                            mix(myColors[y1 * myWidth + x1], myColors[y1 * myWidth + x2], fx),
+                            mix(myColors[y2 * myWidth + x1], myColors[y2 * myWidth + x2], fx), fy);
+                }
+            }
+
+            return colors;
+        }
+
+        private static double clamp(final double value, final int length) {
+            return Math.min(Math.max(value, 0.0D), length - 1.0D);
+        }
+
+        private static int mix(final int a, final int b, final double f) {
+            final int red = (int) Math.round(((a >> 16) & 0xFF) * (1.0D - f) + ((b >> 16) & 0xFF) * f);
+            final int green = (int) Math.round(((a >> 8) & 0xFF) * (1.0D - f) + ((b >> 8) & 0xFF) * f);
+            final int blue = (int) Math.round((a & 0xFF) * (1.0D - f) + (b & 0xFF) * f);
+            return 0xFF << 24 | red << 16 | green << 8 | blue;
+        }
+    }
+
+    private static class Keyframe {
+        private final int myFrame;
+        private final BigDecimal myRealCenter;
+        private final BigDecimal myImaginaryCenter;
+        private final double mySpan;
+
+        Keyframe(final int frame, final BigDecimal realCenter, final BigDecimal imaginaryCenter, final double span) {
+            myFrame = frame;
+            myRealCenter = realCenter;
+            myImaginaryCenter = imaginaryCenter;
+            mySpan = span;
+        }
+    }
+}
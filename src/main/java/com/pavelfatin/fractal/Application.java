@@ -17,9 +17,8 @@
 
 package com.pavelfatin.fractal;
 
-import com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel;
-
 import javax.swing.*;
+import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 import java.awt.*;
 
 public class Application {
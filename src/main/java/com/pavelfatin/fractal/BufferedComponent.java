@@ -41,14 +41,31 @@ abstract class BufferedComponent extends JComponent {
 
         bufferGraphics.dispose();
 
+        final long before = System.nanoTime();
+
         g.drawImage(myBuffer,
                 r.x, r.y, r.x + r.width, r.y + r.height,
                 r.x, r.y, r.x + r.width, r.y + r.height,
                 null);
+
+        presented(System.nanoTime() - before);
     }
 
     protected abstract void paintComponent(final Graphics g, final Rectangle r, final boolean complete);
 
+    /**
+     * Called after the buffer is drawn on the screen, with the time of drawing.
+     */
+    protected void presented(final long nanos) {
+    }
+
+    /**
+     * Returns the image that holds the last painted content.
+     */
+    protected Image getBuffer() {
+        return myBuffer;
+    }
+
     private void createOrValidateBuffer() {
         if (myBuffer == null) {
             myBuffer = createVolatileImage(getWidth(), getHeight());
@@ -19,40 +19,136 @@ package com.pavelfatin.fractal;
 
 import com.pavelfatin.fractal.picture.Picture;
 import com.pavelfatin.fractal.picture.PictureListener;
+import com.pavelfatin.fractal.picture.RingBuffer;
 import com.pavelfatin.fractal.picture.Update;
 
 import java.awt.*;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Applies the picture updates (which arrive from the rendering thread) straight to the buffer of the component,
+ * when the buffer is lost, the picture is asked for a complete update (which needs no render).
+ * <p/>
+ * With wrapping, the updates go to a wrap-around image instead, so that a scroll only moves its origin
+ * instead of copying (almost) the whole image.
+ */
 class Canvas extends BufferedComponent {
-    private final Collection<Update> myUpdates = new LinkedList<Update>();
+    private final Queue<Update> myUpdates = new ConcurrentLinkedQueue<Update>();
     private final Picture myPicture;
+    private final RenderMetrics myMetrics;
+    private RingBuffer myRingBuffer;
+    private boolean myWrapping;
+    private long myPresentTime;
 
-    Canvas(final Picture picture) {
+    /**
+     * @param metrics the metrics that receive the time of applying the updates and of drawing the image
+     */
+    Canvas(final Picture picture, final RenderMetrics metrics) {
         myPicture = picture;
+        myMetrics = metrics;
 
         setOpaque(true);
 
         picture.addPictureListener(new PictureListener() {
             @Override
             public void onUpdate(final Update update, final long elapsedTime) {
+                // the updates that are not painted yet are superseded by a complete one
+                if (update.covers(getWidth(), getHeight())) {
+                    Update superseded;
+                    while ((superseded = myUpdates.poll()) != null) {
+                        superseded.discard();
+                    }
+                }
+
                 myUpdates.add(update);
                 repaint();
             }
         });
     }
 
+    public boolean isWrapping() {
+        return myWrapping;
+    }
+
+    public void setWrapping(final boolean wrapping) {
+        myWrapping = wrapping;
+        repaint();
+    }
+
     @Override
     protected void paintComponent(final Graphics g, final Rectangle r, final boolean complete) {
-        if (myUpdates.isEmpty() || complete) {
-            final Update update = myPicture.update(r);
-            update.apply(g);
+        if (getWidth() == 0 || getHeight() == 0) return;
+
+        if (myWrapping) {
+            applyUpdatesToRingBuffer(complete);
+
+            // a lost buffer is restored completely (only the clip is shown, but the rest is kept)
+            final long before = System.nanoTime();
+            myRingBuffer.present(g, complete ? new Rectangle(getSize()) : r);
+            myPresentTime = System.nanoTime() - before;
         } else {
-            for (final Update update : myUpdates) {
-                update.apply(g);
+            myRingBuffer = null;
+            myPresentTime = 0L;
+
+            if (complete) {
+                myPicture.refresh();
             }
-            myUpdates.clear();
+
+            applyUpdates(g, r);
+        }
+    }
+
+    /**
+     * Records the blit, which, with wrapping, includes presenting the wrap-around image to the buffer.
+     */
+    @Override
+    protected void presented(final long nanos) {
+        myMetrics.recordBlit(myPresentTime + nanos);
+        myPresentTime = 0L;
+    }
+
+    private void applyUpdates(final Graphics g, final Rectangle r) {
+        boolean applied = false;
+
+        Update update;
+        while ((update = myUpdates.poll()) != null) {
+            final long before = System.nanoTime();
+            update.apply(g);
+            myMetrics.recordConversion(System.nanoTime() - before);
+            applied = true;
+        }
+
+        // only the clip is shown, while the updates may lie elsewhere
+        if (applied && !r.contains(0, 0, getWidth(), getHeight())) {
+            repaint();
+        }
+    }
+
+    private void applyUpdatesToRingBuffer(final boolean complete) {
+        if (myRingBuffer == null || myRingBuffer.getWidth() != getWidth() || myRingBuffer.getHeight() != getHeight()) {
+            final RingBuffer buffer = new RingBuffer(getWidth(), getHeight());
+
+            if (complete) {
+                myPicture.refresh();
+            } else {
+                final Image image = getBuffer();
+                buffer.draw(new Rectangle(getSize()), new RingBuffer.Painter() {
+                    @Override
+                    public void paint(final Graphics graphics) {
+                        graphics.drawImage(image, 0, 0, null);
+                    }
+                });
+            }
+
+            myRingBuffer = buffer;
+        }
+
+        Update update;
+        while ((update = myUpdates.poll()) != null) {
+            final long before = System.nanoTime();
+            update.apply(myRingBuffer);
+            myMetrics.recordConversion(System.nanoTime() - before);
         }
     }
 }
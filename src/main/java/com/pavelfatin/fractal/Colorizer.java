@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Maps the iteration counts to colors through a lookup table (which combines the palette,
+ * its rotation and the iteration limit), so that recoloring costs a single load per pixel.
+ * The rows are colorized in parallel.
+ * <p/>
+ * The counts are mapped onto the 1..255 range of the palette, so that any limit gives
+ * the same colors as the limit of 256.
+ * <p/>
+ * Not thread-safe.
+ */
+class Colorizer {
+    /** The number of pixels below which a band of rows is colorized without splitting. */
+    private static final int CHUNK_SIZE = 16384;
+
+    private final ForkJoinPool myPool;
+
+    private int[] myTable = new int[0];
+    private Palette myPalette;
+    private int myOffset;
+    private int myMaxIterations;
+
+    Colorizer(final int threadCount) {
+        myPool = new ForkJoinPool(threadCount);
+    }
+
+    /**
+     * Colorizes the width x height counts (stored row by row) into the colors array with the given row stride.
+     *
+     * @param offset the rotation of the escape colors (for palette cycling)
+     */
+    public void colorize(final int[] counts,
+                         final int width,
+                         final int height,
+                         final int[] colors,
+                         final int stride,
+                         final Palette palette,
+                         final int offset,
+                         final int maxIterations) {
+        if (palette != myPalette || offset != myOffset || maxIterations != myMaxIterations) {
+            myTable = createTable(palette, offset, maxIterations);
+            myPalette = palette;
+            myOffset = offset;
+            myMaxIterations = maxIterations;
+        }
+
+        if (width * height <= CHUNK_SIZE) {
+            colorize(counts, width, colors, stride, 0, height, myTable);
+        } else {
+            myPool.invoke(new BandTask(counts, width, colors, stride, 0, height, myTable));
+        }
+    }
+
+    public void dispose() {
+        myPool.shutdown();
+    }
+
+    private static int[] createTable(final Palette palette, final int offset, final int maxIterations) {
+        final int[] colors = palette.getColors();
+        final int[] table = new int[maxIterations + 1];
+
+        table[0] = colors[0];
+
+        for (int v = 1; v <= maxIterations; v++) {
+            final int n = (int) Math.min(Math.max(256L * v / maxIterations, 1L), 255L);
+            table[v] = colors[1 + Math.floorMod(n - 1 + offset, Palette.SIZE - 1)];
+        }
+
+        return table;
+    }
+
+    private static void colorize(final int[] counts,
+                                 final int width,
+                                 final int[] colors,
+                                 final int stride,
+                                 final int y0,
+                                 final int y1,
+                                 final int[] table) {
+        final int last = table.length - 1;
+
+        for (int y = y0; y < y1; y++) {
+            final int source = y * width;
+            final int destination = y * stride;
+            for (int x = 0; x < width; x++) {
+                colors[destination + x] = table[Math.min(counts[source + x], last)];
+            }
+        }
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private final int[] myCounts;
+        private final int myWidth;
+        private final int[] myColors;
+        private final int myStride;
+        private final int myY0;
+        private final int myY1;
+        private final int[] myTable;
+
+        BandTask(final int[] counts,
+                 final int width,
+                 final int[] colors,
+                 final int stride,
+                 final int y0,
+                 final int y1,
+                 final int[] table) {
+            myCounts = counts;
+            myWidth = width;
+            myColors = colors;
+            myStride = stride;
+            myY0 = y0;
+            myY1 = y1;
+            myTable = table;
+        }
+
+        @Override
+        protected void compute() {
+            if (myY1 - myY0 <= 1 || (myY1 - myY0) * myWidth <= CHUNK_SIZE) {
+                colorize(myCounts, myWidth, myColors, myStride, myY0, myY1, myTable);
+            } else {
+                final int middle = (myY0 + myY1) >>> 1;
+                invokeAll(new BandTask(myCounts, myWidth, myColors, myStride, myY0, middle, myTable),
+                        new BandTask(myCounts, myWidth, myColors, myStride, middle, myY1, myTable));
+            }
+        }
+    }
+}
@@ -91,9 +91,17 @@ class Controller {
         @Override
         public void mouseWheelMoved(final MouseWheelEvent e) {
             if (e.getWheelRotation() > 0) {
-                myModel.zoomOut();
+                if (e.isShiftDown()) {
+                    myModel.zoomOutTwofold();
+                } else {
+                    myModel.zoomOut();
+                }
             } else {
-                myModel.zoomIn();
+                if (e.isShiftDown()) {
+                    myModel.zoomInTwofold();
+                } else {
+                    myModel.zoomIn();
+                }
             }
         }
     }
@@ -111,12 +119,20 @@ class Controller {
                 case KeyEvent.VK_PLUS:
                 case KeyEvent.VK_SUBTRACT:
                 case KeyEvent.VK_SPACE:
-                    myModel.zoomOut();
+                    if (e.isShiftDown()) {
+                        myModel.zoomOutTwofold();
+                    } else {
+                        myModel.zoomOut();
+                    }
                     break;
                 case KeyEvent.VK_MINUS:
                 case KeyEvent.VK_ADD:
                 case KeyEvent.VK_ENTER:
-                    myModel.zoomIn();
+                    if (e.isShiftDown()) {
+                        myModel.zoomInTwofold();
+                    } else {
+                        myModel.zoomIn();
+                    }
                     break;
                 case KeyEvent.VK_A:
                 case KeyEvent.VK_LEFT:
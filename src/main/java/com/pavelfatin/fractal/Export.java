@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.renderer.Renderer;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+import com.pavelfatin.fractal.renderer.TieredRenderer;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Renders an image of any size headlessly into a PNG file. The image is rendered in bands of rows,
+ * which are colorized and streamed to the PNG writer, so the memory use depends on the width only.
+ * <p/>
+ * With a journal, the rendered bands are kept on disk (and the image is written when all the bands are rendered),
+ * so that an interrupted job is resumed by running the same command again, and several processes
+ * that run the same command render different bands.
+ * <p/>
+ * Run with: java -cp target/classes com.pavelfatin.fractal.Export -size 32768x32768 fractal.png
+ */
+public class Export {
+    private static final String USAGE = "Usage: Export [options] <file.png>\n" +
+            "  -size <width>x<height>      the image size (default: 1920x1080)\n" +
+            "  -center <real>,<imaginary>  the image center (default: -0.75,0)\n" +
+            "  -span <real>                the real span of the image (default: 3.5)\n" +
+            "  -iterations <count>         the iteration limit (default: by the zoom depth)\n" +
+            "  -renderer <type>            the renderer type (default: Multithreaded)\n" +
+            "  -palette <name>             the palette (default: Green)\n" +
+            "  -rows <count>               the rows per band (default: about a megapixel per band)\n" +
+            "  -threads <count>            the compression threads (default: the number of cores)\n" +
+            "  -journal <file>             the journal of the rendered bands, to resume the job after a crash\n" +
+            "                              or to share it between several processes (default: none)";
+
+    private static final int BAND_PIXELS = 1 << 20;
+    private static final boolean INTERIOR_CHECKING = true;
+
+    public static void main(final String[] args) throws IOException {
+        Dimension size = new Dimension(1920, 1080);
+        BigDecimal realCenter = new BigDecimal("-0.75");
+        BigDecimal imaginaryCenter = BigDecimal.ZERO;
+        double span = 3.5D;
+        int maxIterations = 0;
+        RendererType rendererType = RendererType.Multithreaded;
+        Palette palette = Palette.Green;
+        int rows = 0;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String journal = null;
+        String file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                if (i == args.length - 1) {
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("No output file");
+                    }
+                    file = arg;
+                } else if (arg.equals("-size")) {
+                    final String[] parts = args[++i].split("x");
+                    size = new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                } else if (arg.equals("-center")) {
+                    final String[] parts = args[++i].split(",");
+                    realCenter = new BigDecimal(parts[0]);
+                    imaginaryCenter = new BigDecimal(parts[1]);
+                } else if (arg.equals("-span")) {
+                    span = Double.parseDouble(args[++i]);
+                } else if (arg.equals("-iterations")) {
+                    maxIterations = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-renderer")) {
+                    rendererType = RendererType.valueOf(args[++i]);
+                } else if (arg.equals("-palette")) {
+                    palette = Palette.valueOf(args[++i]);
+                } else if (arg.equals("-rows")) {
+                    rows = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-threads")) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-journal")) {
+                    journal = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("No output file");
+            }
+            if (size.width <= 0 || size.height <= 0 || span <= 0.0D || rows < 0 || threadCount <= 0) {
+                throw new IllegalArgumentException("Invalid value");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        final double resolution = span / size.width;
+
+        if (maxIterations == 0) {
+            maxIterations = PictureModel.getMaxIterations(resolution, size.width);
+        }
+
+        if (rows == 0) {
+            rows = Math.max(BAND_PIXELS / size.width, 1);
+        }
+        rows = Math.min(rows, size.height);
+
+        final View view = new View(size, realCenter, imaginaryCenter,
+                resolution, maxIterations, PictureModel.getMathContext(resolution));
+
+        final long start = System.nanoTime();
+
+        if (journal == null) {
+            export(view, rendererType, palette, rows, threadCount, file);
+        } else if (!export(view, rendererType, palette, rows, threadCount, new File(journal), new File(file))) {
+            return;
+        }
+
+        System.out.println(String.format("%dx%d, %d iterations, %.1f s",
+                size.width, size.height, maxIterations, (System.nanoTime() - start) / 1.0E9D));
+    }
+
+    /**
+     * Renders the bands on the calling thread (the renderers parallelize a band themselves),
+     * while the previous bands are compressed in the background.
+     */
+    private static void export(final View view,
+                               final RendererType rendererType,
+                               final Palette palette,
+                               final int rows,
+                               final int threadCount,
+                               final String file) throws IOException {
+        final Dimension size = view.getSize();
+
+        final Renderer renderer = new RendererFactory().createRenderer(rendererType, size.width, rows, INTERIOR_CHECKING);
+        final Colorizer colorizer = new Colorizer(Runtime.getRuntime().availableProcessors());
+        final PngWriter writer = new PngWriter(new BufferedOutputStream(new FileOutputStream(file)),
+                size.width, size.height, threadCount);
+
+        final int[] counts = new int[size.width * rows];
+
+        startFrame(renderer, view);
+
+        try {
+            for (int y = 0; y < size.height; y += rows) {
+                final int height = Math.min(rows, size.height - y);
+
+                renderer.render(counts, size.width, height, view.getRealOffset(0), view.getImaginaryOffset(y),
+                        view.getResolution(), view.getMaxIterations());
+
+                // the writer keeps the colors until the band is compressed
+                final int[] colors = new int[size.width * height];
+                colorizer.colorize(counts, size.width, height, colors, size.width,
+                        palette, 0, view.getMaxIterations());
+
+                writer.write(colors, height);
+            }
+
+            writer.close();
+        } finally {
+            writer.dispose();
+            colorizer.dispose();
+            renderer.dispose();
+        }
+    }
+
+    /**
+     * Lets a tiered renderer pick one precision for all the bands (the same in every process that shares the job).
+     */
+    private static void startFrame(final Renderer renderer, final View view) {
+        if (renderer instanceof TieredRenderer) {
+            final Dimension size = view.getSize();
+            ((TieredRenderer) renderer).startFrame(view.getRealOffset(0), view.getImaginaryOffset(0),
+                    size.width, size.height, view.getResolution());
+        }
+    }
+
+    /**
+     * Renders the bands that are neither in the journal nor claimed by another process, the process that
+     * completes the job writes the image. Returns whether the image is written.
+     */
+    private static boolean export(final View view,
+                                  final RendererType rendererType,
+                                  final Palette palette,
+                                  final int rows,
+                                  final int threadCount,
+                                  final File journalFile,
+                                  final File file) throws IOException {
+        final Dimension size = view.getSize();
+
+        // the counts depend on the renderer (e.g. its precision) and on the interior checking
+        final String job = String.format("%dx%d %s %s %s %d %d %s %s", size.width, size.height,
+                view.getRealOffset(size.width / 2.0D), view.getImaginaryOffset(size.height / 2.0D),
+                Double.toString(view.getResolution()), view.getMaxIterations(), rows,
+                rendererType, INTERIOR_CHECKING ? "interior" : "exterior");
+
+        final RenderJournal journal = RenderJournal.open(journalFile, job, (size.height + rows - 1) / rows);
+
+        try {
+            final Renderer renderer = new RendererFactory().createRenderer(rendererType, size.width, rows, INTERIOR_CHECKING);
+            final int[] counts = new int[size.width * rows];
+
+            startFrame(renderer, view);
+
+            int renderedBandCount = 0;
+            boolean completed = false;
+
+            try {
+                int band;
+                while ((band = journal.claim()) >= 0) {
+                    final int height = Math.min(rows, size.height - band * rows);
+
+                    renderer.render(counts, size.width, height, view.getRealOffset(0), view.getImaginaryOffset(band * rows),
+                            view.getResolution(), view.getMaxIterations());
+
+                    completed = journal.complete(band, counts, size.width * height);
+                    renderedBandCount++;
+                }
+            } finally {
+                renderer.dispose();
+            }
+
+            System.out.println(String.format("Rendered %d bands, %d of %d are complete",
+                    renderedBandCount, journal.getCompletedBandCount(), journal.getBandCount()));
+
+            // the other processes are still rendering, or another process has completed the job
+            if (!completed && (renderedBandCount > 0 || !journal.isComplete())) return false;
+
+            write(view, palette, rows, threadCount, journal, file);
+
+            return true;
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Writes the image from the journal, the image is replaced atomically, so that it is never incomplete.
+     */
+    private static void write(final View view,
+                              final Palette palette,
+                              final int rows,
+                              final int threadCount,
+                              final RenderJournal journal,
+                              final File file) throws IOException {
+        final Dimension size = view.getSize();
+
+        final File temporaryFile = new File(file.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+
+        final Colorizer colorizer = new Colorizer(Runtime.getRuntime().availableProcessors());
+        final PngWriter writer = new PngWriter(new BufferedOutputStream(new FileOutputStream(temporaryFile)),
+                size.width, size.height, threadCount);
+
+        final int[] counts = new int[size.width * rows];
+
+        try {
+            for (int band = 0; band < journal.getBandCount(); band++) {
+                final int height = Math.min(rows, size.height - band * rows);
+
+                journal.read(band, counts);
+
+                final int[] colors = new int[size.width * height];
+                colorizer.colorize(counts, size.width, height, colors, size.width,
+                        palette, 0, view.getMaxIterations());
+
+                writer.write(colors, height);
+            }
+
+            writer.close();
+
+            Files.move(temporaryFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writer.dispose();
+            colorizer.dispose();
+            temporaryFile.delete();
+        }
+    }
+}
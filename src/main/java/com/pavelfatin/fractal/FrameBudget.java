@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+/**
+ * Estimates the render time per sample from the recent renders, and picks the render scale
+ * (the distance between the samples) that fits the frame into the time budget.
+ */
+class FrameBudget {
+    private static final int MAX_SCALE = 8;
+
+    /** The weight of the latest measurement in the moving average. */
+    private static final double SMOOTHING = 0.3D;
+
+    private final long myBudget;
+
+    private double myTimePerSample;
+
+    /**
+     * @param budget the frame time budget in milliseconds
+     */
+    FrameBudget(final int budget) {
+        myBudget = budget * 1000000L;
+    }
+
+    public void record(final int samples, final long elapsedNanos) {
+        if (samples == 0) return;
+
+        final double timePerSample = (double) elapsedNanos / samples;
+
+        myTimePerSample = myTimePerSample == 0.0D
+                ? timePerSample
+                : SMOOTHING * timePerSample + (1.0D - SMOOTHING) * myTimePerSample;
+    }
+
+    /**
+     * Returns the smallest scale at which the given number of pixels is expected to render within the budget.
+     */
+    public int scaleFor(final int pixels) {
+        for (int scale = 1; scale < MAX_SCALE; scale++) {
+            if (myTimePerSample * pixels / (scale * scale) <= myBudget) return scale;
+        }
+        return MAX_SCALE;
+    }
+}
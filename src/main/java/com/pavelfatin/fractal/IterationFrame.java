@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.awt.*;
+
+/**
+ * The iteration counts of the displayed picture, kept in step with the published updates,
+ * so that the picture can be recolored without a render.
+ */
+class IterationFrame {
+    private final int[] myCounts;
+    private int myWidth;
+    private int myHeight;
+
+    IterationFrame(final Dimension maxSize) {
+        myCounts = new int[maxSize.width * maxSize.height];
+    }
+
+    public int[] getCounts() {
+        return myCounts;
+    }
+
+    public Dimension getSize() {
+        return new Dimension(myWidth, myHeight);
+    }
+
+    public boolean isEmpty() {
+        return myWidth == 0 || myHeight == 0;
+    }
+
+    /**
+     * Changes the size of the frame, the content becomes undefined.
+     */
+    public void setSize(final Dimension size) {
+        myWidth = size.width;
+        myHeight = size.height;
+    }
+
+    /**
+     * Stores the counts of the rectangle, with one count per scale x scale block.
+     */
+    public void draw(final int[] counts, final Rectangle r, final int scale) {
+        final int columns = (r.width + scale - 1) / scale;
+
+        for (int y = 0; y < r.height; y++) {
+            final int offset = (r.y + y) * myWidth + r.x;
+            final int source = y / scale * columns;
+            for (int x = 0; x < r.width; x++) {
+                myCounts[offset + x] = counts[source + x / scale];
+            }
+        }
+    }
+
+    public void copy(final Rectangle source, final int dx, final int dy) {
+        // the rows are copied in the direction that never overwrites the rows yet to be copied
+        final boolean down = dy > 0;
+
+        for (int i = 0; i < source.height; i++) {
+            final int y = down ? source.height - 1 - i : i;
+            System.arraycopy(myCounts, (source.y + y) * myWidth + source.x,
+                    myCounts, (source.y + dy + y) * myWidth + source.x + dx, source.width);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the durations in power-of-two buckets of microseconds, so that the percentiles
+ * are estimated within a factor of two in a fixed space and without locking.
+ * <p/>
+ * Thread-safe (a snapshot taken while the durations are recorded is not exactly consistent).
+ */
+class LatencyHistogram {
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray myBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder myTotal = new LongAdder();
+    private final AtomicLong myMax = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long micros = Math.max(nanos / 1000L, 0L);
+
+        myBuckets.incrementAndGet(bucketOf(micros));
+        myTotal.add(micros);
+
+        long max;
+        while ((max = myMax.get()) < micros && !myMax.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * The bucket b > 0 holds the durations from 2^(b-1) to 2^b - 1 microseconds.
+     */
+    private static int bucketOf(final long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    public LatencySnapshot getSnapshot() {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = myBuckets.get(i);
+            count += buckets[i];
+        }
+
+        final long max = myMax.get();
+
+        return new LatencySnapshot(count, myTotal.sum() / 1000L,
+                percentile(buckets, count, max, 0.5D),
+                percentile(buckets, count, max, 0.9D),
+                percentile(buckets, count, max, 0.99D),
+                max);
+    }
+
+    /**
+     * Returns the upper bound of the bucket that holds the percentile (but not more than the maximum).
+     */
+    private static long percentile(final long[] buckets, final long count, final long max, final double fraction) {
+        final long rank = (long) Math.ceil(fraction * count);
+
+        long sum = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            sum += buckets[i];
+            if (sum >= rank && sum > 0L) {
+                return Math.min((1L << i) - 1L, max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            myBuckets.set(i, 0L);
+        }
+        myTotal.reset();
+        myMax.set(0L);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The number, total time and distribution of the durations of an operation
+ * (the percentiles are the upper bounds of the histogram buckets).
+ */
+public class LatencySnapshot {
+    private final long myCount;
+    private final long myTotalMillis;
+    private final long myMedianMicros;
+    private final long myPercentile90Micros;
+    private final long myPercentile99Micros;
+    private final long myMaxMicros;
+
+    @ConstructorProperties({"count", "totalMillis", "medianMicros", "percentile90Micros", "percentile99Micros", "maxMicros"})
+    public LatencySnapshot(final long count,
+                           final long totalMillis,
+                           final long medianMicros,
+                           final long percentile90Micros,
+                           final long percentile99Micros,
+                           final long maxMicros) {
+        myCount = count;
+        myTotalMillis = totalMillis;
+        myMedianMicros = medianMicros;
+        myPercentile90Micros = percentile90Micros;
+        myPercentile99Micros = percentile99Micros;
+        myMaxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return myCount;
+    }
+
+    public long getTotalMillis() {
+        return myTotalMillis;
+    }
+
+    public long getMedianMicros() {
+        return myMedianMicros;
+    }
+
+    public long getPercentile90Micros() {
+        return myPercentile90Micros;
+    }
+
+    public long getPercentile99Micros() {
+        return myPercentile99Micros;
+    }
+
+    public long getMaxMicros() {
+        return myMaxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d, %d ms (median %d us, 90%% %d us, 99%% %d us, max %d us)",
+                myCount, myTotalMillis, myMedianMicros, myPercentile90Micros, myPercentile99Micros, myMaxMicros);
+    }
+}
@@ -19,30 +19,64 @@ package com.pavelfatin.fractal;
 
 import com.pavelfatin.fractal.picture.PictureListener;
 import com.pavelfatin.fractal.picture.Update;
+import com.pavelfatin.fractal.renderer.ParallelRenderer;
+import com.pavelfatin.fractal.renderer.Precision;
 import com.pavelfatin.fractal.renderer.Renderer;
 import com.pavelfatin.fractal.renderer.RendererFactory;
 import com.pavelfatin.fractal.renderer.RendererType;
+import com.pavelfatin.fractal.renderer.TieredRenderer;
 
+import javax.management.JMException;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 class MainFrame extends JFrame {
     private static final Dimension SCREEN_SIZE = Toolkit.getDefaultToolkit().getScreenSize();
+
+    /** The frame time budget for dynamic resolution, in milliseconds. */
+    private static final String FRAME_BUDGET_PROPERTY = "fractal.frameBudget";
+
+    /** The memory budget of the tile cache, in megabytes. */
+    private static final String TILE_CACHE_SIZE_PROPERTY = "fractal.tileCacheSize";
+
+    /** The directory of the persistent tile store. */
+    private static final String TILE_STORE_PROPERTY = "fractal.tileStore";
+
+    /** The size of the persistent tile store, in megabytes (0 disables the store). */
+    private static final String TILE_STORE_SIZE_PROPERTY = "fractal.tileStoreSize";
+    private static final int DEFAULT_TILE_STORE_SIZE = 256;
+
+    /** The delay between the palette cycling steps, in milliseconds. */
+    private static final int CYCLING_DELAY = 1000 / 60;
     public static final String CONTROLS_FILE_NAME = "controls.html";
 
     private final PictureModel myModel = new PictureModel();
     private final RendererFactory myRendererFactory = new RendererFactory();
     private final RenderedPicture myPicture = new RenderedPicture(myModel, SCREEN_SIZE);
+    private final Canvas myCanvas = new Canvas(myPicture, myPicture.getMetrics());
 
     private final JComboBox myRendererComboBox = new JComboBox();
+    private final JComboBox myPaletteComboBox = new JComboBox(Palette.values());
+    private final JCheckBox myCyclingCheckBox = new JCheckBox("Cycle colors");
+    private final Timer myCyclingTimer = new Timer(CYCLING_DELAY, new MyCyclingTimerListener());
     private final JCheckBox myIncrementalCheckBox = new JCheckBox("Incremental");
+    private final JCheckBox myProgressiveCheckBox = new JCheckBox("Progressive");
+    private final JCheckBox myDynamicResolutionCheckBox = new JCheckBox("Dynamic resolution");
+    private final JCheckBox myRingBufferCheckBox = new JCheckBox("Ring buffer");
+    private final JCheckBox myInteriorCheckingCheckBox = new JCheckBox("Interior checking");
     private final JLabel myPositionLabel = new JLabel();
     private final JLabel myTimeLabel = new JLabel();
     private final JScrollBar myHorizontalBar = new JScrollBar(Adjustable.HORIZONTAL);
     private final JScrollBar myVerticalBar = new JScrollBar(Adjustable.VERTICAL);
     private final Controller myController;
+    private String myTileStoreError;
 
     MainFrame() {
         final JRootPane root = getRootPane();
@@ -51,15 +85,30 @@ class MainFrame extends JFrame {
 
         final DefaultComboBoxModel comboBoxModel = new DefaultComboBoxModel(myRendererFactory.getAvailableRendererTypes());
         myRendererComboBox.setModel(comboBoxModel);
-        myRendererComboBox.setSelectedItem(myRendererComboBox.getItemAt(myRendererComboBox.getItemCount() - 1));
+        myRendererComboBox.setSelectedItem(myRendererFactory.getDefaultRendererType());
         myRendererComboBox.setFocusable(false);
         myRendererComboBox.addActionListener(new MyRendererListener());
 
+        myPaletteComboBox.setSelectedItem(myPicture.getPalette());
+        myPaletteComboBox.setFocusable(false);
+        myPaletteComboBox.addActionListener(new MyPaletteListener());
+
+        myCyclingCheckBox.setFocusable(false);
+        myCyclingCheckBox.setMnemonic('Y');
+        myCyclingCheckBox.addActionListener(new MyCyclingCheckBoxListener());
+
         final JLabel infoLabel = new JLabel();
         infoLabel.setForeground(Color.GRAY);
 
-        if (comboBoxModel.getIndexOf(RendererType.OpenCL) == -1) {
+        final boolean openCLSupported = comboBoxModel.getIndexOf(RendererType.OpenCL) != -1;
+        final boolean vectorApiSupported = RendererFactory.isVectorApiSupported();
+
+        if (!openCLSupported && !vectorApiSupported) {
+            infoLabel.setText("(OpenCL and Vector API are not available)");
+        } else if (!openCLSupported) {
             infoLabel.setText("(OpenCL is not available)");
+        } else if (!vectorApiSupported) {
+            infoLabel.setText("(Vector API is not available)");
         }
 
         myIncrementalCheckBox.setFocusable(false);
@@ -67,6 +116,39 @@ class MainFrame extends JFrame {
         myIncrementalCheckBox.setSelected(myPicture.isIncremental());
         myIncrementalCheckBox.addActionListener(new MyIncrementalCheckBoxListener());
 
+        myProgressiveCheckBox.setFocusable(false);
+        myProgressiveCheckBox.setMnemonic('P');
+        myProgressiveCheckBox.setSelected(myPicture.isProgressive());
+        myProgressiveCheckBox.addActionListener(new MyProgressiveCheckBoxListener());
+
+        myDynamicResolutionCheckBox.setFocusable(false);
+        myDynamicResolutionCheckBox.setMnemonic('D');
+        myDynamicResolutionCheckBox.setSelected(myPicture.isDynamicResolution());
+        myDynamicResolutionCheckBox.addActionListener(new MyDynamicResolutionCheckBoxListener());
+
+        myRingBufferCheckBox.setFocusable(false);
+        myRingBufferCheckBox.setMnemonic('B');
+        myRingBufferCheckBox.setSelected(myCanvas.isWrapping());
+        myRingBufferCheckBox.addActionListener(new MyRingBufferCheckBoxListener());
+
+        final Integer frameBudget = Integer.getInteger(FRAME_BUDGET_PROPERTY);
+        if (frameBudget != null) {
+            myPicture.setFrameBudget(frameBudget);
+        }
+
+        final Integer tileCacheSize = Integer.getInteger(TILE_CACHE_SIZE_PROPERTY);
+        if (tileCacheSize != null) {
+            myPicture.setTileCacheBudget(tileCacheSize);
+        }
+
+        openTileStore();
+        registerMetrics();
+
+        myInteriorCheckingCheckBox.setFocusable(false);
+        myInteriorCheckingCheckBox.setMnemonic('C');
+        myInteriorCheckingCheckBox.setSelected(true);
+        myInteriorCheckingCheckBox.addActionListener(new MyRendererListener());
+
         final JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEADING));
         final JLabel label = new JLabel("Renderer:");
         label.setLabelFor(myRendererComboBox);
@@ -74,15 +156,27 @@ class MainFrame extends JFrame {
         toolbar.add(label);
         toolbar.add(myRendererComboBox);
         toolbar.add(infoLabel);
+        final JLabel paletteLabel = new JLabel("Palette:");
+        paletteLabel.setLabelFor(myPaletteComboBox);
+        paletteLabel.setDisplayedMnemonic('A');
+        toolbar.add(paletteLabel);
+        toolbar.add(myPaletteComboBox);
+        toolbar.add(myCyclingCheckBox);
 
         final JPanel header = new JPanel(new BorderLayout());
         header.setBorder(new EmptyBorder(0, 0, 0, 3));
         header.add(toolbar, BorderLayout.WEST);
-        header.add(myIncrementalCheckBox, BorderLayout.EAST);
+        final JPanel options = new JPanel(new FlowLayout(FlowLayout.TRAILING, 0, 0));
+        options.add(myInteriorCheckingCheckBox);
+        options.add(myIncrementalCheckBox);
+        options.add(myProgressiveCheckBox);
+        options.add(myDynamicResolutionCheckBox);
+        options.add(myRingBufferCheckBox);
+
+        header.add(options, BorderLayout.EAST);
 
-        final Canvas canvas = new Canvas(myPicture);
-        canvas.setFocusable(true);
-        canvas.setPreferredSize(myModel.getViewSize());
+        myCanvas.setFocusable(true);
+        myCanvas.setPreferredSize(myModel.getViewSize());
 
         final JPanel footer = new JPanel(new BorderLayout());
         footer.setBorder(new EmptyBorder(3, 3, 3, 3));
@@ -91,12 +185,12 @@ class MainFrame extends JFrame {
 
         final Container content = getContentPane();
         content.add(header, BorderLayout.NORTH);
-        content.add(createScrollPane(canvas, myHorizontalBar, myVerticalBar), BorderLayout.CENTER);
+        content.add(createScrollPane(myCanvas, myHorizontalBar, myVerticalBar), BorderLayout.CENTER);
         content.add(footer, BorderLayout.SOUTH);
 
         addWindowListener(new MyWindowListener());
 
-        myController = new Controller(myModel, canvas, myHorizontalBar, myVerticalBar);
+        myController = new Controller(myModel, myCanvas, myHorizontalBar, myVerticalBar);
 
         myModel.addModelListener(new MyModelListener());
         myPicture.addPictureListener(new MyPictureListener());
@@ -109,6 +203,37 @@ class MainFrame extends JFrame {
         myModel.refresh();
     }
 
+    private void openTileStore() {
+        final int size = Integer.getInteger(TILE_STORE_SIZE_PROPERTY, DEFAULT_TILE_STORE_SIZE);
+
+        if (size == 0) return;
+
+        final String directory = System.getProperty(TILE_STORE_PROPERTY,
+                new File(System.getProperty("user.home"), ".fractal" + File.separator + "tiles").getPath());
+
+        try {
+            myPicture.setTileStore(TileStore.open(new File(directory), size));
+        } catch (IOException e) {
+            myTileStoreError = e.getMessage();
+        }
+    }
+
+    private void registerMetrics() {
+        try {
+            myPicture.getMetrics().register();
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void unregisterMetrics() {
+        try {
+            myPicture.getMetrics().unregister();
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static JPanel createScrollPane(final JComponent view, final JScrollBar horizontalBar, final JScrollBar verticalBar) {
         final JPanel panel = new JPanel(new GridBagLayout());
         panel.setBorder(new JScrollPane().getBorder());
@@ -136,16 +261,19 @@ class MainFrame extends JFrame {
     }
 
     private void updateRenderer() {
-        final Renderer oldRenderer = myPicture.getRenderer();
-        if (oldRenderer != null) {
-            oldRenderer.dispose();
-        }
         final RendererType type = (RendererType) myRendererComboBox.getSelectedItem();
-        myPicture.setRenderer(myRendererFactory.createRenderer(type, SCREEN_SIZE.width, SCREEN_SIZE.height));
+        final boolean interiorChecking = myInteriorCheckingCheckBox.isSelected();
+        final Renderer renderer = myRendererFactory.createRenderer(type, SCREEN_SIZE.width, SCREEN_SIZE.height, interiorChecking);
+        myPicture.setRenderer(renderer);
+        myModel.setMinResolution(renderer.getMinResolution());
     }
 
     private void updatePosition() {
-        myPositionLabel.setText(String.format("(%f, %f)", myModel.getRealPartCenter(), myModel.getImaginaryPartCenter()));
+        // enough digits to tell the neighbouring pixels apart
+        final int digits = Math.max((int) Math.ceil(-Math.log10(myModel.getResolution())), 6);
+        final String format = String.format("(%%.%1$df, %%.%1$df), %%d iterations", digits);
+        myPositionLabel.setText(String.format(format,
+                myModel.getRealPartCenter(), myModel.getImaginaryPartCenter(), myModel.getMaxIterations()));
     }
 
     private void updateTitle() {
@@ -173,6 +301,65 @@ class MainFrame extends JFrame {
         myController.setProcessScrollEvents(true);
     }
 
+    private String statisticsText(final Renderer renderer) {
+        final List<String> lines = new ArrayList<String>();
+        final TileCache cache = myPicture.getTileCache();
+
+        for (final String line : new String[]{utilizationText(renderer), usageText(renderer),
+                cacheText(cache), storeText(cache.getStore(), myTileStoreError)}) {
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+
+        return String.format("<html>%s</html>", String.join("<br>", lines));
+    }
+
+    private static String cacheText(final TileCache cache) {
+        final long hits = cache.getHitCount();
+        final long lookups = hits + cache.getMissCount();
+
+        return String.format("Tile cache: %d%% hits, %d evictions, %d tiles (%d of %d MB)",
+                lookups == 0L ? 0L : Math.round(100.0D * hits / lookups),
+                cache.getEvictionCount(),
+                cache.getTileCount(),
+                cache.getSize() / (1024L * 1024L),
+                cache.getBudget() / (1024L * 1024L));
+    }
+
+    private static String usageText(final Renderer renderer) {
+        if (!(renderer instanceof TieredRenderer)) return null;
+
+        final StringBuilder builder = new StringBuilder("Frames per precision:");
+        for (final Map.Entry<Precision, Integer> entry : ((TieredRenderer) renderer).getPrecisionUsage().entrySet()) {
+            builder.append(String.format(" %s %d", entry.getKey(), entry.getValue()));
+        }
+        return builder.toString();
+    }
+
+    private static String storeText(final TileStore store, final String error) {
+        if (error != null) return "Tile store is not available: " + error;
+
+        if (store == null) return null;
+
+        return String.format("Tile store: %d loads, %d rejected, %d evictions, %d of %d tiles",
+                store.getLoadCount(),
+                store.getRejectionCount(),
+                store.getEvictionCount(),
+                store.getTileCount(),
+                store.getCapacity());
+    }
+
+    private static String utilizationText(final Renderer renderer) {
+        if (!(renderer instanceof ParallelRenderer)) return null;
+
+        final StringBuilder builder = new StringBuilder("Worker utilization:");
+        for (final double utilization : ((ParallelRenderer) renderer).getWorkerUtilization()) {
+            builder.append(String.format(" %d%%", Math.round(utilization * 100.0D)));
+        }
+        return builder.toString();
+    }
+
     private void showControls() {
         final String html = Utilities.load(getClass(), CONTROLS_FILE_NAME);
         JOptionPane.showMessageDialog(MainFrame.this, new JLabel(html), "Controls", JOptionPane.PLAIN_MESSAGE);
@@ -181,7 +368,9 @@ class MainFrame extends JFrame {
     private class MyWindowListener extends WindowAdapter {
         @Override
         public void windowClosed(final WindowEvent e) {
-            myPicture.getRenderer().dispose();
+            myCyclingTimer.stop();
+            myPicture.dispose();
+            unregisterMetrics();
         }
 
         @Override
@@ -198,6 +387,31 @@ class MainFrame extends JFrame {
         }
     }
 
+    private class MyPaletteListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            myPicture.setPalette((Palette) myPaletteComboBox.getSelectedItem());
+        }
+    }
+
+    private class MyCyclingCheckBoxListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            if (myCyclingCheckBox.isSelected()) {
+                myCyclingTimer.start();
+            } else {
+                myCyclingTimer.stop();
+            }
+        }
+    }
+
+    private class MyCyclingTimerListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            myPicture.setPaletteOffset(myPicture.getPaletteOffset() + 1);
+        }
+    }
+
     private class MyIncrementalCheckBoxListener implements ActionListener {
         @Override
         public void actionPerformed(final ActionEvent e) {
@@ -205,6 +419,27 @@ class MainFrame extends JFrame {
         }
     }
 
+    private class MyProgressiveCheckBoxListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            myPicture.setProgressive(myProgressiveCheckBox.isSelected());
+        }
+    }
+
+    private class MyRingBufferCheckBoxListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            myCanvas.setWrapping(myRingBufferCheckBox.isSelected());
+        }
+    }
+
+    private class MyDynamicResolutionCheckBoxListener implements ActionListener {
+        @Override
+        public void actionPerformed(final ActionEvent e) {
+            myPicture.setDynamicResolution(myDynamicResolutionCheckBox.isSelected());
+        }
+    }
+
     private class MyModelListener implements ModelListener {
         @Override
         public void onMove(final int dx, final int dy) {
@@ -221,13 +456,24 @@ class MainFrame extends JFrame {
         @Override
         public void onResize(final Dimension oldSize, final Dimension newSize) {
             updateTitle();
+            updatePosition();
         }
     }
 
     private class MyPictureListener implements PictureListener {
         @Override
         public void onUpdate(final Update update, final long elapsedTime) {
-            myTimeLabel.setText(String.format("%d ms", elapsedTime));
+            // called on the rendering thread
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    final Renderer renderer = myPicture.getRenderer();
+                    myTimeLabel.setText(renderer instanceof TieredRenderer
+                            ? String.format("%d ms (%s)", elapsedTime, ((TieredRenderer) renderer).getPrecision())
+                            : String.format("%d ms", elapsedTime));
+                    myTimeLabel.setToolTipText(statisticsText(renderer));
+                }
+            });
         }
     }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.awt.*;
+
+/**
+ * The colors of the escape times. Color 0 is for the interior, the colors 1..255 are for the escaped points
+ * (from the fastest to the slowest ones).
+ */
+public enum Palette {
+    Green,
+    Fire,
+    Ice,
+    Grayscale,
+    Rainbow;
+
+    public static final int SIZE = 256;
+
+    public int[] getColors() {
+        final int[] colors = new int[SIZE];
+
+        for (int n = 1; n < SIZE; n++) {
+            colors[n] = colorOf(n) | 0xFF << 24;
+        }
+
+        colors[0] = 0xFF << 24;
+
+        return colors;
+    }
+
+    private int colorOf(final int n) {
+        final double t = (double) n / (SIZE - 1);
+
+        switch (this) {
+            case Green:
+                return (128 - 2 * n) << 8;
+            case Fire:
+                return rgb(3.0D * t, 3.0D * t - 1.0D, 3.0D * t - 2.0D);
+            case Ice:
+                return rgb(3.0D * t - 2.0D, 3.0D * t - 1.0D, 3.0D * t);
+            case Grayscale:
+                return rgb(1.0D - t, 1.0D - t, 1.0D - t);
+            case Rainbow:
+                return Color.HSBtoRGB((float) t, 0.8F, 1.0F);
+            default:
+                throw new RuntimeException("Unknown palette: " + this);
+        }
+    }
+
+    private static int rgb(final double r, final double g, final double b) {
+        return component(r) << 16 | component(g) << 8 | component(b);
+    }
+
+    private static int component(final double value) {
+        return (int) Math.round(Math.min(Math.max(value, 0.0D), 1.0D) * 255.0D);
+    }
+}
@@ -18,6 +18,8 @@
 package com.pavelfatin.fractal;
 
 import java.awt.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
 
 import static java.lang.Math.*;
 
@@ -29,25 +31,52 @@ class PictureModel extends AbstractPictureModel {
     private static final double BOTTOM = 1.7D;
 
     private static final double SCALE_FACTOR = 1.2D;
+    private static final double TWOFOLD_SCALE_FACTOR = 2.0D;
     private static final double SHIFT_FACTOR = 0.1D;
 
+    private static final int BASE_ITERATIONS = 256;
+    private static final int ITERATIONS_PER_ZOOM_DOUBLING = 64;
+    private static final int MIN_ITERATIONS = 64;
+
+    /** The limit of the zoom depth is doubled or halved (within these powers of two) to fit the rendered frames. */
+    private static final int MIN_ITERATION_SHIFT = -2;
+    private static final int MAX_ITERATION_SHIFT = 4;
+
+    /** Deep enough for any practical iteration limit, while the pixel size still fits a normal double. */
+    private static final double MIN_RESOLUTION = 1.0E-100D;
+
+    /** The full size in scroll units is kept within this range, so that it fits an int at any zoom. */
+    private static final int SCROLL_RANGE = 1 << 30;
+
     private Dimension myViewSize = new Dimension(800, 700);
 
-    private double myRealPartCenter;
-    private double myImaginaryPartCenter;
+    private BigDecimal myRealPartCenter;
+    private BigDecimal myImaginaryPartCenter;
     private double myResolution;
+    private double myMinResolution = MIN_RESOLUTION;
+    private int myIterationShift;
 
     PictureModel() {
         reset();
     }
 
+    /**
+     * Returns the full size in scroll units, which are pixels unless the full size in pixels
+     * exceeds the int range (then a unit spans several pixels).
+     */
     public Dimension getFullSize() {
-        final double width = (RIGHT - LEFT) / myResolution;
-        final double height = (BOTTOM - TOP) / myResolution;
+        final double scale = getScrollScale();
+
+        final double width = (RIGHT - LEFT) / myResolution / scale;
+        final double height = (BOTTOM - TOP) / myResolution / scale;
 
         return new Dimension((int) round(width), (int) round(height));
     }
 
+    private double getScrollScale() {
+        return max(ceil((BOTTOM - TOP) / myResolution / SCROLL_RANGE), 1.0D);
+    }
+
     public Dimension getViewSize() {
         return myViewSize;
     }
@@ -61,27 +90,57 @@ class PictureModel extends AbstractPictureModel {
         fireResized(oldSize, getViewSize());
     }
 
+    /**
+     * Returns the view location in scroll units (see {@link #getFullSize()}).
+     */
     public Point getViewLocation() {
-        final double x = (myRealPartCenter - LEFT) / myResolution - myViewSize.width / 2.0D;
-        final double y = (myImaginaryPartCenter - TOP) / myResolution - myViewSize.height / 2.0D;
+        final double scale = getScrollScale();
+
+        return new Point((int) round(getViewX() / scale), (int) round(getViewY() / scale));
+    }
 
-        return new Point((int) round(x), (int) round(y));
+    private double getViewX() {
+        return (myRealPartCenter.doubleValue() - LEFT) / myResolution - myViewSize.width / 2.0D;
     }
 
+    private double getViewY() {
+        return (myImaginaryPartCenter.doubleValue() - TOP) / myResolution - myViewSize.height / 2.0D;
+    }
+
+    /**
+     * Returns the view bounds in scroll units (see {@link #getFullSize()}).
+     */
     public Rectangle getViewBounds() {
-        return new Rectangle(getViewLocation(), getViewSize());
+        final double scale = getScrollScale();
+
+        final int width = max((int) round(myViewSize.width / scale), 1);
+        final int height = max((int) round(myViewSize.height / scale), 1);
+
+        return new Rectangle(getViewLocation(), new Dimension(width, height));
     }
 
     public void setViewLocation(final int x, final int y) {
         final Point location = getViewLocation();
-        move(location.x - x, location.y - y);
+
+        if (getScrollScale() == 1.0D) {
+            move(location.x - x, location.y - y);
+        } else if (x != location.x || y != location.y) {
+            // a scroll unit is coarser than a pixel, so the position is approximate anyway
+            final double scale = getScrollScale();
+            final MathContext context = getMathContext();
+
+            myRealPartCenter = new BigDecimal(LEFT + (x * scale + myViewSize.width / 2.0D) * myResolution, context);
+            myImaginaryPartCenter = new BigDecimal(TOP + (y * scale + myViewSize.height / 2.0D) * myResolution, context);
+
+            fireChanged();
+        }
     }
 
-    public double getRealPartCenter() {
+    public BigDecimal getRealPartCenter() {
         return myRealPartCenter;
     }
 
-    public double getImaginaryPartCenter() {
+    public BigDecimal getImaginaryPartCenter() {
         return myImaginaryPartCenter;
     }
 
@@ -89,20 +148,73 @@ class PictureModel extends AbstractPictureModel {
         return myResolution;
     }
 
-    public double getRealOffset(final int x) {
-        return myRealPartCenter - myResolution * (myViewSize.width / 2.0D - x);
+    /**
+     * Returns the iteration limit for the current zoom depth (see {@link #getMaxIterations(double, int)}),
+     * as adjusted to the rendered frames.
+     */
+    public int getMaxIterations() {
+        return getMaxIterations(myResolution, myViewSize.width, myIterationShift);
     }
 
-    public double getImaginaryOffset(final int y) {
-        return myImaginaryPartCenter - myResolution * (myViewSize.height / 2.0D - y);
+    private static int getMaxIterations(final double resolution, final int width, final int shift) {
+        final int limit = getMaxIterations(resolution, width);
+
+        return max(shift < 0 ? limit >> -shift : limit << shift, MIN_ITERATIONS);
+    }
+
+    /**
+     * Doubles (or halves) the iteration limit of the following frames, unless the limit
+     * has changed since the frame that calls for that was rendered.
+     */
+    public void adjustMaxIterations(final int frameMaxIterations, final boolean raise) {
+        final int shift = myIterationShift + (raise ? 1 : -1);
+
+        if (frameMaxIterations != getMaxIterations() || shift < MIN_ITERATION_SHIFT || shift > MAX_ITERATION_SHIFT
+                || getMaxIterations(myResolution, myViewSize.width, shift) == frameMaxIterations) return;
+
+        myIterationShift = shift;
+
+        fireChanged();
+    }
+
+    /**
+     * Returns the iteration limit for the zoom depth: 256 for the whole set,
+     * plus 64 for each doubling of the magnification.
+     */
+    static int getMaxIterations(final double resolution, final int width) {
+        final double maxResolution = (RIGHT - LEFT) / width;
+        final double doublings = max(log(maxResolution / resolution) / log(2.0D), 0.0D);
+
+        return BASE_ITERATIONS + (int) round(ITERATIONS_PER_ZOOM_DOUBLING * doublings);
+    }
+
+    private MathContext getMathContext() {
+        return getMathContext(myResolution);
+    }
+
+    /**
+     * Returns the precision that keeps the coordinates exact to a small fraction of a pixel.
+     */
+    static MathContext getMathContext(final double resolution) {
+        return new MathContext(max((int) ceil(-log10(resolution)) + 6, 17));
+    }
+
+    public View getView() {
+        return new View(myViewSize, myRealPartCenter, myImaginaryPartCenter, myResolution, getMaxIterations(), getMathContext());
+    }
+
+    private BigDecimal shift(final BigDecimal value, final double delta) {
+        return value.add(new BigDecimal(delta), getMathContext());
     }
 
     public void move(final int dx, final int dy) {
-        final Dimension size = getFullSize();
-        final Rectangle r = getViewBounds();
+        final double width = (RIGHT - LEFT) / myResolution;
+        final double height = (BOTTOM - TOP) / myResolution;
+        final double x = getViewX();
+        final double y = getViewY();
 
-        final int xShift = dx > 0 ? Math.min(r.x, dx) : Math.max(r.width + r.x - size.width, dx);
-        final int yShift = dy > 0 ? Math.min(r.y, dy) : Math.max(r.height + r.y - size.height, dy);
+        final int xShift = (int) round(dx > 0 ? min(x, dx) : max(myViewSize.width + x - width, dx));
+        final int yShift = (int) round(dy > 0 ? min(y, dy) : max(myViewSize.height + y - height, dy));
 
         doMove(xShift, yShift);
     }
@@ -110,8 +222,8 @@ class PictureModel extends AbstractPictureModel {
     private void doMove(final int dx, final int dy) {
         if (dx == 0 && dy == 0) return;
 
-        myRealPartCenter -= myResolution * dx;
-        myImaginaryPartCenter -= myResolution * dy;
+        myRealPartCenter = shift(myRealPartCenter, -myResolution * dx);
+        myImaginaryPartCenter = shift(myImaginaryPartCenter, -myResolution * dy);
 
         fireMoved(dx, dy);
     }
@@ -121,39 +233,73 @@ class PictureModel extends AbstractPictureModel {
     }
 
     public void zoomOut() {
+        zoomOut(SCALE_FACTOR);
+    }
+
+    /**
+     * Zooms out by a factor of two, so that every old sample lands exactly on a new one.
+     */
+    public void zoomOutTwofold() {
+        zoomOut(TWOFOLD_SCALE_FACTOR);
+    }
+
+    private void zoomOut(final double factor) {
         final double maxResolution = (RIGHT - LEFT) / getViewSize().width;
 
         if (myResolution < maxResolution) {
-            myResolution = min(myResolution * SCALE_FACTOR, maxResolution);
+            myResolution = min(myResolution * factor, maxResolution);
 
-            final Dimension size = getFullSize();
-            final Rectangle r = getViewBounds();
+            final double width = (RIGHT - LEFT) / myResolution;
+            final double height = (BOTTOM - TOP) / myResolution;
 
-            myRealPartCenter -= myResolution * excess(r.x, 0, size.width - r.width);
-            myImaginaryPartCenter -= myResolution * excess(r.y, 0, size.height - r.height);
+            myRealPartCenter = shift(myRealPartCenter, -myResolution * excess(getViewX(), 0.0D, width - myViewSize.width));
+            myImaginaryPartCenter = shift(myImaginaryPartCenter, -myResolution * excess(getViewY(), 0.0D, height - myViewSize.height));
 
             fireChanged();
         }
     }
 
-    private static int excess(final int value, final int lowerBound, final int upperBound) {
+    private static double excess(final double value, final double lowerBound, final double upperBound) {
         return value - Math.min(Math.max(value, lowerBound), upperBound);
     }
 
     public void zoomIn() {
-        final double minResolution = (RIGHT - LEFT) / Integer.MAX_VALUE;
+        zoomIn(SCALE_FACTOR);
+    }
+
+    /**
+     * Zooms in by a factor of two, so that every other new sample is an old one.
+     */
+    public void zoomInTwofold() {
+        zoomIn(TWOFOLD_SCALE_FACTOR);
+    }
+
+    private void zoomIn(final double factor) {
+        if (myResolution > myMinResolution) {
+            myResolution = max(myResolution / factor, myMinResolution);
+
+            fireChanged();
+        }
+    }
+
+    /**
+     * Limits the zoom to the finest resolution of the renderer (a deeper view is zoomed out).
+     */
+    public void setMinResolution(final double resolution) {
+        myMinResolution = max(resolution, MIN_RESOLUTION);
 
-        if (myResolution > minResolution) {
-            myResolution = max(myResolution / SCALE_FACTOR, minResolution);
+        if (myResolution < myMinResolution) {
+            myResolution = myMinResolution;
 
             fireChanged();
         }
     }
 
     public void reset() {
-        myRealPartCenter = (RIGHT + LEFT) / 2.0D;
-        myImaginaryPartCenter = (BOTTOM + TOP) / 2.0D;
+        myRealPartCenter = new BigDecimal((RIGHT + LEFT) / 2.0D);
+        myImaginaryPartCenter = new BigDecimal((BOTTOM + TOP) / 2.0D);
         myResolution = (RIGHT - LEFT) / myViewSize.getWidth();
+        myIterationShift = 0;
 
         fireChanged();
     }
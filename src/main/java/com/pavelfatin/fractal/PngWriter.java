@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an 8-bit RGB PNG image band by band, so that only the bands in flight are kept in memory.
+ * <p/>
+ * The bands are filtered and deflated in parallel: each band is compressed separately
+ * and flushed to a byte boundary, so that the compressed bands concatenate into a single zlib stream,
+ * whose checksum is combined from the checksums of the bands. Every band is stored in its own IDAT chunk.
+ * <p/>
+ * Not thread-safe.
+ */
+class PngWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int BIT_DEPTH = 8;
+    private static final int TRUECOLOR = 2;
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final int SUB_FILTER = 1;
+
+    /** The zlib header for the 32K window and the default compression level. */
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9C};
+
+    private static final int ADLER_BASE = 65521;
+
+    private final DataOutputStream myOutput;
+    private final int myWidth;
+    private final int myHeight;
+    private final ExecutorService myExecutor;
+    private final int myMaxPendingBands;
+    private final Deque<Future<Band>> myPendingBands = new ArrayDeque<Future<Band>>();
+
+    private int myRowsAdded;
+    private long myChecksum = 1L;
+
+    PngWriter(final OutputStream output, final int width, final int height, final int threadCount) throws IOException {
+        myOutput = new DataOutputStream(output);
+        myWidth = width;
+        myHeight = height;
+        myExecutor = Executors.newFixedThreadPool(threadCount);
+        myMaxPendingBands = 2 * threadCount;
+
+        myOutput.write(SIGNATURE);
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(BIT_DEPTH);
+        data.writeByte(TRUECOLOR);
+        data.writeByte(0); // deflate
+        data.writeByte(0); // adaptive filtering
+        data.writeByte(0); // no interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+    }
+
+    /**
+     * Adds the next rows of the image, the colors (0xRRGGBB, row by row) must not be changed afterwards.
+     * Blocks while too many bands are in flight.
+     */
+    public void write(final int[] colors, final int rows) throws IOException {
+        if (myRowsAdded + rows > myHeight) {
+            throw new IllegalArgumentException("Too many rows: " + (myRowsAdded + rows) + " > " + myHeight);
+        }
+
+        final boolean first = myRowsAdded == 0;
+        myRowsAdded += rows;
+        final boolean last = myRowsAdded == myHeight;
+
+        myPendingBands.addLast(myExecutor.submit(new Callable<Band>() {
+            @Override
+            public Band call() {
+                return compress(colors, myWidth, rows, first, last);
+            }
+        }));
+
+        while (myPendingBands.size() > myMaxPendingBands) {
+            writeBand(myPendingBands.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the pending bands and the end of the image, and closes the output.
+     */
+    public void close() throws IOException {
+        try {
+            if (myRowsAdded != myHeight) {
+                throw new IllegalStateException("Missing rows: " + myRowsAdded + " < " + myHeight);
+            }
+
+            while (!myPendingBands.isEmpty()) {
+                writeBand(myPendingBands.removeFirst());
+            }
+
+            writeChunk("IEND", new byte[0], 0);
+        } finally {
+            dispose();
+        }
+    }
+
+    /**
+     * Discards the pending bands and closes the output (the image remains incomplete unless it is closed).
+     */
+    public void dispose() throws IOException {
+        myExecutor.shutdownNow();
+        myOutput.close();
+    }
+
+    private void writeBand(final Future<Band> future) throws IOException {
+        final Band band;
+        try {
+            band = future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        myChecksum = combine(myChecksum, band.getChecksum(), band.getLength());
+
+        if (band.isLast()) {
+            final byte[] data = band.getData();
+            final int size = band.getSize();
+            data[size] = (byte) (myChecksum >>> 24);
+            data[size + 1] = (byte) (myChecksum >>> 16);
+            data[size + 2] = (byte) (myChecksum >>> 8);
+            data[size + 3] = (byte) myChecksum;
+            writeChunk("IDAT", data, size + 4);
+        } else {
+            writeChunk("IDAT", band.getData(), band.getSize());
+        }
+    }
+
+    private void writeChunk(final String type, final byte[] data, final int length) throws IOException {
+        final byte[] name = type.getBytes("US-ASCII");
+
+        final CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+
+        myOutput.writeInt(length);
+        myOutput.write(name);
+        myOutput.write(data, 0, length);
+        myOutput.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Filters the rows (with the Sub filter, which turns the runs of a color into runs of zeros)
+     * and deflates them, leaving the space for the zlib trailer in the last band.
+     */
+    private static Band compress(final int[] colors,
+                                 final int width,
+                                 final int rows,
+                                 final boolean first,
+                                 final boolean last) {
+        final int stride = 1 + width * BYTES_PER_PIXEL;
+        final byte[] filtered = new byte[stride * rows];
+
+        for (int y = 0; y < rows; y++) {
+            int i = y * stride;
+            filtered[i++] = SUB_FILTER;
+
+            int previous = 0;
+            for (int x = 0; x < width; x++) {
+                final int color = colors[y * width + x];
+                filtered[i++] = (byte) ((color >> 16) - (previous >> 16));
+                filtered[i++] = (byte) ((color >> 8) - (previous >> 8));
+                filtered[i++] = (byte) (color - previous);
+                previous = color;
+            }
+        }
+
+        final Adler32 adler = new Adler32();
+        adler.update(filtered);
+
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(filtered);
+        if (last) {
+            deflater.finish();
+        }
+
+        byte[] data = new byte[filtered.length / 4 + 64];
+        int size = 0;
+        if (first) {
+            System.arraycopy(ZLIB_HEADER, 0, data, 0, ZLIB_HEADER.length);
+            size = ZLIB_HEADER.length;
+        }
+
+        // the output is complete when the deflater stops short of the available space
+        while (true) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            final int count = deflater.deflate(data, size, data.length - size,
+                    last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            size += count;
+            if (last ? deflater.finished() : size < data.length) {
+                break;
+            }
+        }
+        deflater.end();
+
+        if (last) {
+            data = Arrays.copyOf(data, size + 4);
+        }
+
+        return new Band(data, size, adler.getValue(), filtered.length, last);
+    }
+
+    /**
+     * Returns the Adler-32 of the concatenation of two sequences (as adler32_combine in zlib).
+     */
+    private static long combine(final long checksum1, final long checksum2, final long length2) {
+        final long remainder = length2 % ADLER_BASE;
+
+        long sum1 = checksum1 & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+
+        sum1 += (checksum2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((checksum1 >> 16) & 0xFFFF) + ((checksum2 >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+
+        return sum1 | (sum2 << 16);
+    }
+
+    private static class Band {
+        private final byte[] myData;
+        private final int mySize;
+        private final long myChecksum;
+        private final long myLength;
+        private final boolean myLast;
+
+        Band(final byte[] data, final int size, final long checksum, final long length, final boolean last) {
+            myData = data;
+            mySize = size;
+            myChecksum = checksum;
+            myLength = length;
+            myLast = last;
+        }
+
+        public byte[] getData() {
+            return myData;
+        }
+
+        public int getSize() {
+            return mySize;
+        }
+
+        public long getChecksum() {
+            return myChecksum;
+        }
+
+        public long getLength() {
+            return myLength;
+        }
+
+        public boolean isLast() {
+            return myLast;
+        }
+    }
+}
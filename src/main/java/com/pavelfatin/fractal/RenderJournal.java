@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An append-only journal of the rendered bands of a job, so that a job can be resumed after a crash
+ * and shared by several processes on the same host.
+ * <p/>
+ * Every record holds its type, length, payload and a checksum of all three. The first record describes
+ * the job, a claim record reserves a band for a process and a band record holds the (deflated) counts.
+ * The records are appended (and synced) under a file lock, and the journal is read up to the last
+ * consistent record, so that a partially written record, left by a crash, is truncated.
+ * A band claimed by a process that is no longer running can be claimed again.
+ * <p/>
+ * Not thread-safe.
+ */
+class RenderJournal {
+    private static final int JOB = 1;
+    private static final int CLAIM = 2;
+    private static final int BAND = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int CHECKSUM_SIZE = 8;
+
+    private final RandomAccessFile myFile;
+    private final FileChannel myChannel;
+    private final String myJob;
+    private final int myBandCount;
+
+    private final Map<Integer, Long> myBands = new HashMap<Integer, Long>();
+    private final Map<Integer, Claim> myClaims = new HashMap<Integer, Claim>();
+    private final Claim myProcess;
+
+    private long myPosition;
+
+    private RenderJournal(final RandomAccessFile file, final String job, final int bandCount) {
+        myFile = file;
+        myChannel = file.getChannel();
+        myJob = job;
+        myBandCount = bandCount;
+
+        final ProcessHandle process = ProcessHandle.current();
+        myProcess = new Claim(process.pid(), startTimeOf(process));
+    }
+
+    /**
+     * Opens (or creates) the journal of the job.
+     *
+     * @param job the description of the job, a journal of a different job is not opened
+     */
+    public static RenderJournal open(final File file, final String job, final int bandCount) throws IOException {
+        final RenderJournal journal = new RenderJournal(new RandomAccessFile(file, "rw"), job, bandCount);
+
+        try {
+            final FileLock lock = journal.myChannel.lock();
+            try {
+                journal.refresh();
+            } finally {
+                lock.release();
+            }
+            return journal;
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    public int getBandCount() {
+        return myBandCount;
+    }
+
+    /**
+     * Returns the number of the completed bands (as of the last access).
+     */
+    public int getCompletedBandCount() {
+        return myBands.size();
+    }
+
+    public boolean isComplete() throws IOException {
+        final FileLock lock = myChannel.lock();
+        try {
+            refresh();
+        } finally {
+            lock.release();
+        }
+        return myBands.size() == myBandCount;
+    }
+
+    /**
+     * Reserves a band that is neither completed nor claimed by a running process,
+     * returns -1 if there is no such band.
+     */
+    public int claim() throws IOException {
+        final FileLock lock = myChannel.lock();
+        try {
+            refresh();
+
+            for (int band = 0; band < myBandCount; band++) {
+                if (myBands.containsKey(band)) continue;
+
+                final Claim claim = myClaims.get(band);
+
+                if (claim == null || claim.equals(myProcess) || !claim.isRunning()) {
+                    final ByteBuffer payload = ByteBuffer.allocate(20);
+                    payload.putInt(band);
+                    payload.putLong(myProcess.myPid);
+                    payload.putLong(myProcess.myStartTime);
+                    append(CLAIM, payload.array());
+                    return band;
+                }
+            }
+
+            return -1;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Stores the counts of the band, returns whether the job is complete after that.
+     */
+    public boolean complete(final int band, final int[] counts, final int length) throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(length * 4);
+        data.asIntBuffer().put(counts, 0, length);
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(band);
+        output.writeInt(length);
+
+        deflater.setInput(data.array());
+        deflater.finish();
+        final byte[] buffer = new byte[65536];
+        while (!deflater.finished()) {
+            bytes.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        final FileLock lock = myChannel.lock();
+        try {
+            refresh();
+            append(BAND, bytes.toByteArray());
+            return myBands.size() == myBandCount;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Loads the counts of a completed band.
+     */
+    public void read(final int band, final int[] counts) throws IOException {
+        final Long position = myBands.get(band);
+
+        if (position == null) {
+            throw new IllegalArgumentException("The band is not completed: " + band);
+        }
+
+        final ByteBuffer header = readFully(position, HEADER_SIZE);
+        header.getInt();
+        final ByteBuffer payload = readFully(position + HEADER_SIZE, header.getInt());
+        final int length = payload.getInt(4);
+
+        if (checksumOf(BAND, payload.array()) != readFully(position + HEADER_SIZE + payload.capacity(), CHECKSUM_SIZE).getLong()) {
+            throw new IOException("The journal is corrupt at " + position);
+        }
+
+        final byte[] data = new byte[length * 4];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload.array(), 8, payload.capacity() - 8);
+            if (inflater.inflate(data) != data.length) {
+                throw new IOException("The journal is corrupt at " + position);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer.wrap(data).asIntBuffer().get(counts, 0, length);
+    }
+
+    public void close() throws IOException {
+        myFile.close();
+    }
+
+    /**
+     * Reads the records that were appended since the last access, must be called under the lock.
+     */
+    private void refresh() throws IOException {
+        final long size = myChannel.size();
+
+        while (myPosition < size) {
+            final Record record = readRecord(myPosition, size);
+
+            if (record == null) {
+                // a partially written record of a crashed process
+                myChannel.truncate(myPosition);
+                break;
+            }
+
+            apply(record);
+
+            myPosition += HEADER_SIZE + record.myPayload.length + CHECKSUM_SIZE;
+        }
+
+        if (myPosition == 0L) {
+            final byte[] job = myJob.getBytes(StandardCharsets.UTF_8);
+            append(JOB, job);
+        }
+    }
+
+    /**
+     * Returns the record at the position, or null if the record is incomplete or corrupt.
+     */
+    private Record readRecord(final long position, final long size) throws IOException {
+        if (size - position < HEADER_SIZE) return null;
+
+        final ByteBuffer header = readFully(position, HEADER_SIZE);
+        final int type = header.getInt();
+        final int length = header.getInt();
+
+        if (length < 0 || size - position - HEADER_SIZE - CHECKSUM_SIZE < length) return null;
+
+        final byte[] payload = readFully(position + HEADER_SIZE, length).array();
+        final long checksum = readFully(position + HEADER_SIZE + length, CHECKSUM_SIZE).getLong();
+
+        return checksum == checksumOf(type, payload) ? new Record(type, payload) : null;
+    }
+
+    private void apply(final Record record) throws IOException {
+        if (myPosition == 0L) {
+            final String job = new String(record.myPayload, StandardCharsets.UTF_8);
+            if (record.myType != JOB || !job.equals(myJob)) {
+                throw new IOException("The journal belongs to another job: " + job);
+            }
+            return;
+        }
+
+        final ByteBuffer payload = ByteBuffer.wrap(record.myPayload);
+
+        switch (record.myType) {
+            case CLAIM:
+                myClaims.put(payload.getInt(), new Claim(payload.getLong(), payload.getLong()));
+                break;
+            case BAND:
+                myBands.put(payload.getInt(), myPosition);
+                break;
+            default:
+                throw new RuntimeException("Unknown record type: " + record.myType);
+        }
+    }
+
+    /**
+     * Appends and syncs the record, must be called under the lock (after a refresh).
+     */
+    private void append(final int type, final byte[] payload) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length + CHECKSUM_SIZE);
+        buffer.putInt(type);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.putLong(checksumOf(type, payload));
+        buffer.flip();
+
+        long position = myPosition;
+        while (buffer.hasRemaining()) {
+            position += myChannel.write(buffer, position);
+        }
+        myChannel.force(false);
+
+        apply(new Record(type, payload));
+
+        myPosition = position;
+    }
+
+    private ByteBuffer readFully(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (myChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the journal");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long checksumOf(final int type, final byte[] payload) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(ByteBuffer.allocate(HEADER_SIZE).putInt(type).putInt(payload.length).array());
+        checksum.update(payload);
+        return checksum.getValue();
+    }
+
+    private static long startTimeOf(final ProcessHandle process) {
+        final Optional<Instant> instant = process.info().startInstant();
+        return instant.isPresent() ? instant.get().toEpochMilli() : 0L;
+    }
+
+    private static class Record {
+        private final int myType;
+        private final byte[] myPayload;
+
+        Record(final int type, final byte[] payload) {
+            myType = type;
+            myPayload = payload;
+        }
+    }
+
+    /**
+     * A process, identified by its id and start time (as the ids are reused).
+     */
+    private static class Claim {
+        private final long myPid;
+        private final long myStartTime;
+
+        Claim(final long pid, final long startTime) {
+            myPid = pid;
+            myStartTime = startTime;
+        }
+
+        public boolean isRunning() {
+            final Optional<ProcessHandle> process = ProcessHandle.of(myPid);
+            return process.isPresent() && startTimeOf(process.get()) == myStartTime;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Claim)) return false;
+
+            final Claim claim = (Claim) o;
+
+            return myPid == claim.myPid && myStartTime == claim.myStartTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(myPid) + Long.hashCode(myStartTime);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the rendering metrics of a picture and of the canvas that displays it.
+ * <p/>
+ * Thread-safe.
+ */
+class RenderMetrics implements RenderMetricsMXBean {
+    private static final String OBJECT_NAME = "com.pavelfatin.fractal:type=RenderMetrics";
+
+    private final ConcurrentMap<String, LongAdder> myRenderCalls = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder myPixels = new LongAdder();
+    private final LongAdder myLimitWeightedIterations = new LongAdder();
+
+    private final LatencyHistogram myComputeTime = new LatencyHistogram();
+    private final LatencyHistogram myColorizeTime = new LatencyHistogram();
+    private final LatencyHistogram myConversionTime = new LatencyHistogram();
+    private final LatencyHistogram myBlitTime = new LatencyHistogram();
+    private final LatencyHistogram myIncrementalUpdates = new LatencyHistogram();
+    private final LatencyHistogram myFullUpdates = new LatencyHistogram();
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public void unregister() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * @param completed whether the render was completed (the pixels of a cancelled render are not counted)
+     */
+    public void recordRender(final String renderer, final long nanos, final boolean completed,
+                             final long pixels, final long limitWeightedIterations) {
+        LongAdder calls = myRenderCalls.get(renderer);
+        if (calls == null) {
+            myRenderCalls.putIfAbsent(renderer, new LongAdder());
+            calls = myRenderCalls.get(renderer);
+        }
+        calls.increment();
+
+        myComputeTime.record(nanos);
+
+        if (completed) {
+            myPixels.add(pixels);
+            myLimitWeightedIterations.add(limitWeightedIterations);
+        }
+    }
+
+    public void recordColorize(final long nanos) {
+        myColorizeTime.record(nanos);
+    }
+
+    public void recordConversion(final long nanos) {
+        myConversionTime.record(nanos);
+    }
+
+    public void recordBlit(final long nanos) {
+        myBlitTime.record(nanos);
+    }
+
+    public void recordUpdate(final boolean incremental, final long nanos) {
+        (incremental ? myIncrementalUpdates : myFullUpdates).record(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getRenderCalls() {
+        final Map<String, Long> calls = new TreeMap<String, Long>();
+        for (final Map.Entry<String, LongAdder> entry : myRenderCalls.entrySet()) {
+            calls.put(entry.getKey(), entry.getValue().sum());
+        }
+        return calls;
+    }
+
+    @Override
+    public long getPixels() {
+        return myPixels.sum();
+    }
+
+    @Override
+    public long getLimitWeightedIterations() {
+        return myLimitWeightedIterations.sum();
+    }
+
+    @Override
+    public LatencySnapshot getComputeTime() {
+        return myComputeTime.getSnapshot();
+    }
+
+    @Override
+    public LatencySnapshot getColorizeTime() {
+        return myColorizeTime.getSnapshot();
+    }
+
+    @Override
+    public LatencySnapshot getConversionTime() {
+        return myConversionTime.getSnapshot();
+    }
+
+    @Override
+    public LatencySnapshot getBlitTime() {
+        return myBlitTime.getSnapshot();
+    }
+
+    @Override
+    public LatencySnapshot getIncrementalUpdates() {
+        return myIncrementalUpdates.getSnapshot();
+    }
+
+    @Override
+    public LatencySnapshot getFullUpdates() {
+        return myFullUpdates.getSnapshot();
+    }
+
+    @Override
+    public void reset() {
+        myRenderCalls.clear();
+        myPixels.reset();
+        myLimitWeightedIterations.reset();
+        myComputeTime.reset();
+        myColorizeTime.reset();
+        myConversionTime.reset();
+        myBlitTime.reset();
+        myIncrementalUpdates.reset();
+        myFullUpdates.reset();
+    }
+}
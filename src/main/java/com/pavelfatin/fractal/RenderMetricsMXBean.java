@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.util.Map;
+
+/**
+ * The rendering metrics, as seen over JMX (com.pavelfatin.fractal:type=RenderMetrics).
+ */
+public interface RenderMetricsMXBean {
+    /**
+     * Returns the number of the render calls by the renderer class.
+     */
+    Map<String, Long> getRenderCalls();
+
+    /**
+     * Returns the number of the computed pixels (of the completed renders).
+     */
+    long getPixels();
+
+    /**
+     * Returns the limit-weighted iterations of the completed renders, estimated from a sample of the pixels.
+     * <p/>
+     * That's the work of a plain escape-time loop, where an interior pixel takes the whole limit,
+     * rather than the work of the renderer, which skips the cardioid and the period-2 bulb.
+     */
+    long getLimitWeightedIterations();
+
+    LatencySnapshot getComputeTime();
+
+    LatencySnapshot getColorizeTime();
+
+    /**
+     * Returns the time of applying an update to the buffer of the canvas (which converts the colorized image
+     * to the format of the buffer).
+     */
+    LatencySnapshot getConversionTime();
+
+    /**
+     * Returns the time of drawing the buffer of the canvas on the screen, per paint (with wrapping,
+     * that includes drawing the wrap-around image to the buffer).
+     */
+    LatencySnapshot getBlitTime();
+
+    /**
+     * Returns the latency of the updates that move the picture.
+     */
+    LatencySnapshot getIncrementalUpdates();
+
+    /**
+     * Returns the latency of the updates that redraw the whole picture.
+     */
+    LatencySnapshot getFullUpdates();
+
+    void reset();
+}
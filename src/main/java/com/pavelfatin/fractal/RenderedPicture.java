@@ -15,37 +15,175 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package com.pavelfatin.fractal;
 
 import com.pavelfatin.fractal.picture.*;
+import com.pavelfatin.fractal.renderer.RenderRegion;
 import com.pavelfatin.fractal.renderer.Renderer;
+import com.pavelfatin.fractal.renderer.TieredRenderer;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.Math.abs;
 
+/**
+ * Renders the model on a background thread, so that the event dispatch thread never waits for a renderer.
+ * <p/>
+ * The model events only record what must be redrawn: the pending moves are summed up into
+ * a single shift, and a change supersedes everything before it (the render in progress is cancelled).
+ * The worker always renders the latest view, and the updates are published in order
+ * (the listeners are notified on the worker thread).
+ * <p/>
+ * With dynamic resolution, the frames are rendered at a reduced resolution (and magnified) when
+ * the full one would not fit into the frame time budget, and the view is re-rendered
+ * at full resolution once the input is idle.
+ * <p/>
+ * The iteration counts of the displayed picture are retained, so that a palette change
+ * (or palette cycling) only recolors the picture, without a render.
+ * <p/>
+ * The counts of the displayed tiles are cached in world space, so that the areas that were
+ * displayed recently (at the same zoom level) are assembled from the cache instead of being rendered.
+ * The cache may be backed by a persistent store, which the picture closes when it is disposed.
+ * <p/>
+ * On a zoom or a resize, the previous frame is resampled and shown at once, and the samples that the frames
+ * have in common (when the grids line up) are copied instead of being rendered.
+ * <p/>
+ * Each full frame is rendered with a single iteration limit, and the limit of the next frames is raised
+ * when some sampled pixels hit the limit while many of the escaping ones escape late (so that the ones
+ * that hit it are likely to escape too), or lowered when all of them escape early.
+ */
 class RenderedPicture extends AbstractPicture {
+    /** The distance between the samples of the first progressive pass. */
+    private static final int COARSE_STEP = 8;
+
+    /** How long the view must stay unchanged before a reduced frame is re-rendered at full resolution. */
+    private static final long IDLE_DELAY = 200L;
+
+    private static final int DEFAULT_FRAME_BUDGET = 16;
+
+    /** The memory budget of the tile cache, in megabytes. */
+    private static final int DEFAULT_TILE_CACHE_BUDGET = 64;
+
+    /** How many (full-size) images may be in flight, a move update holds up to two of them. */
+    private static final int IMAGE_POOL_CAPACITY = 6;
+
+    /** The distance between the counts that are sampled for the iteration metric (a prime, so that the columns vary). */
+    private static final int ITERATION_SAMPLE_STEP = 61;
+
+    /** The limit is raised when the pixels that escape in its last quarter are at least 1/16 of the escaping ones. */
+    private static final int LATE_RATIO = 16;
+
     private final PictureModel myModel;
     private final int[] myBuffer;
+    private final int[] myBlockBuffer;
+    private final int[] mySamples;
+    private final int[] myPrevious;
+    private final int[] myRunBuffer;
+    private final ImagePool myImagePool;
+    private final UpdatePool myUpdatePool;
+    private final IterationFrame myFrame;
+    private final Colorizer myColorizer = new Colorizer(Runtime.getRuntime().availableProcessors());
+    private final RenderMetrics myMetrics = new RenderMetrics();
+
+    private final Object myLock = new Object();
+
+    // guarded by myLock
     private Renderer myRenderer;
-    private boolean myIncremental = true;
+    private final List<Renderer> myReplacedRenderers = new ArrayList<Renderer>();
+    private View myView;
+    private boolean myChanged;
+    private boolean myRecolored;
+    private int myDx;
+    private int myDy;
+    private boolean myRenderingChange;
+    private boolean myRenderingReduced;
+    private boolean myDisposed;
+    private boolean myDegraded;
+    private boolean myFullResolution;
+    private long myLastRequestTime;
+
+    /** Incremented when the work in progress becomes obsolete. */
+    private volatile int myGeneration;
+
+    private volatile boolean myIncremental = true;
+    private volatile boolean myProgressive = true;
+    private volatile boolean myDynamicResolution = true;
+    private volatile boolean myAdaptiveIterations = true;
+    private volatile FrameBudget myFrameBudget = new FrameBudget(DEFAULT_FRAME_BUDGET);
+    private volatile Palette myPalette = Palette.Green;
+    private volatile int myPaletteOffset;
+    private volatile TileCache myTileCache = new TileCache(DEFAULT_TILE_CACHE_BUDGET);
+
+    // used by the worker thread only
+    /** The generation of the work in progress. */
+    private int myJobGeneration;
+    private String myRendererName;
+    private String myRendererSimpleName;
+    /** Whether the job moves the picture (rather than redraws it). */
+    private boolean myMoveJob;
+    private long myJobStartTime;
+    private View myGridView;
+    private TileGrid myGrid;
+    /** The view of the iteration frame (or null if the frame is incomplete). */
+    private View myFrameView;
+    /** Whether the frame holds the exact counts of its view (rather than a reduced or resampled frame). */
+    private boolean myFrameExact;
+    /** The view of the previous frame, which is retained while the frame holds its preview. */
+    private View myPreviousView;
+    private boolean myPreviousExact;
+    /** The part of the frame whose tiles are in the cache already (the part moves with the frame). */
+    private final Rectangle myCachedArea = new Rectangle();
+    private TileCache myCachedAreaCache;
+    /** The rectangles of a move (reused, so that panning produces little garbage). */
+    private final Rectangle mySource = new Rectangle();
+    private final Rectangle myHBlock = new Rectangle();
+    private final Rectangle myVBlock = new Rectangle();
+    private final Rectangle myCells = new Rectangle();
+    private final Rectangle myPart = new Rectangle();
+    private final List<RenderRegion> myRegions = new ArrayList<RenderRegion>(2);
 
     RenderedPicture(final PictureModel model, final Dimension maxSize) {
         myModel = model;
         myBuffer = new int[maxSize.width * maxSize.height];
+        myBlockBuffer = new int[maxSize.width * maxSize.height];
+        mySamples = new int[maxSize.width * maxSize.height];
+        myPrevious = new int[maxSize.width * maxSize.height];
+        myRunBuffer = new int[maxSize.width * TileGrid.TILE_SIZE];
+        myImagePool = new ImagePool(maxSize, IMAGE_POOL_CAPACITY);
+        myUpdatePool = new UpdatePool(myImagePool);
+        myFrame = new IterationFrame(maxSize);
 
         myModel.addModelListener(new MyModelListener());
+
+        final Thread thread = new Thread(new MyWorker(), "Picture renderer");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     public Renderer getRenderer() {
-        return myRenderer;
+        synchronized (myLock) {
+            return myRenderer;
+        }
     }
 
+    /**
+     * Replaces the renderer, the previous one is disposed (on the worker thread) once it is idle.
+     */
     public void setRenderer(final Renderer renderer) {
-        myRenderer = renderer;
+        synchronized (myLock) {
+            if (myRenderer != null) {
+                myReplacedRenderers.add(myRenderer);
+                cancel();
+            }
+            myRenderer = renderer;
+            myLock.notifyAll();
+        }
     }
 
     public boolean isIncremental() {
@@ -56,97 +194,1016 @@ class RenderedPicture extends AbstractPicture {
         myIncremental = incremental;
     }
 
-    private Update createChangeUpdate() {
-        return createDrawUpdate(new Rectangle(new Point(0, 0), myModel.getViewSize()));
+    public boolean isProgressive() {
+        return myProgressive;
+    }
+
+    public void setProgressive(final boolean progressive) {
+        myProgressive = progressive;
+    }
+
+    public boolean isDynamicResolution() {
+        return myDynamicResolution;
+    }
+
+    public void setDynamicResolution(final boolean dynamicResolution) {
+        myDynamicResolution = dynamicResolution;
+    }
+
+    public boolean isAdaptiveIterations() {
+        return myAdaptiveIterations;
+    }
+
+    /**
+     * Whether the full frames adjust the iteration limit of the model (on the event dispatch thread).
+     */
+    public void setAdaptiveIterations(final boolean adaptiveIterations) {
+        myAdaptiveIterations = adaptiveIterations;
+    }
+
+    /**
+     * @param budget the frame time budget in milliseconds (for dynamic resolution)
+     */
+    public void setFrameBudget(final int budget) {
+        myFrameBudget = new FrameBudget(budget);
+    }
+
+    public Palette getPalette() {
+        return myPalette;
+    }
+
+    public void setPalette(final Palette palette) {
+        myPalette = palette;
+        requestRecolor();
+    }
+
+    public int getPaletteOffset() {
+        return myPaletteOffset;
+    }
+
+    /**
+     * Rotates the escape colors of the palette (for palette cycling).
+     */
+    public void setPaletteOffset(final int offset) {
+        myPaletteOffset = Math.floorMod(offset, Palette.SIZE - 1);
+        requestRecolor();
+    }
+
+    public TileCache getTileCache() {
+        return myTileCache;
+    }
+
+    /**
+     * @param budget the memory budget of the tile cache in megabytes (0 disables the cache)
+     */
+    public void setTileCacheBudget(final int budget) {
+        final TileCache cache = new TileCache(budget);
+        cache.setStore(myTileCache.getStore());
+        myTileCache = cache;
+    }
+
+    /**
+     * @param store the persistent tile store (or null)
+     */
+    public void setTileStore(final TileStore store) {
+        myTileCache.setStore(store);
+    }
+
+    /**
+     * Returns the number of images allocated for the updates (the rest are reused).
+     */
+    public int getImageAllocationCount() {
+        return myImagePool.getAllocationCount();
+    }
+
+    public RenderMetrics getMetrics() {
+        return myMetrics;
+    }
+
+    /**
+     * Stops the worker thread and disposes the renderer.
+     */
+    public void dispose() {
+        synchronized (myLock) {
+            myDisposed = true;
+            cancel();
+            myLock.notifyAll();
+        }
+
+        // the updates in flight may be never applied
+        myImagePool.dispose();
+    }
+
+    // called with myLock held
+    private void cancel() {
+        myGeneration++;
+
+        if (myRenderer != null) {
+            myRenderer.cancel();
+        }
+    }
+
+    private void requestChange() {
+        synchronized (myLock) {
+            myLastRequestTime = System.currentTimeMillis();
+            myFullResolution = false;
+            myView = myModel.getView();
+            myChanged = true;
+            myDx = 0;
+            myDy = 0;
+
+            // a reduced frame fits the budget, so it is better to finish it than to restart
+            if (!myRenderingReduced) {
+                cancel();
+            }
+
+            myLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void refresh() {
+        requestRecolor();
+    }
+
+    private void requestRecolor() {
+        synchronized (myLock) {
+            myRecolored = true;
+            myLock.notifyAll();
+        }
+    }
+
+    private void requestMove(final int dx, final int dy) {
+        synchronized (myLock) {
+            myLastRequestTime = System.currentTimeMillis();
+            myView = myModel.getView();
+
+            if (myChanged) return;
+
+            if (myRenderingChange && !myRenderingReduced) {
+                // the passes in progress would be shifted before they are finished
+                myChanged = true;
+                myDx = 0;
+                myDy = 0;
+                cancel();
+            } else {
+                myDx += dx;
+                myDy += dy;
+            }
+
+            myLock.notifyAll();
+        }
     }
 
-    private Update createMoveUpdate(final int dx, final int dy) {
+    /**
+     * Returns the render scale that fits the change (or the strips uncovered by the move) into the frame budget.
+     */
+    private int scaleFor(final View view, final boolean changed, final int dx, final int dy) {
+        final Dimension size = view.getSize();
+        final int area = size.width * size.height;
+
+        return myFrameBudget.scaleFor(changed ? area : Math.min(abs(dx) * size.height + abs(dy) * size.width, area));
+    }
+
+    private boolean isStale(final int generation) {
+        return generation != myGeneration;
+    }
+
+    private Update createMoveUpdate(final View view, final Renderer renderer, final int dx, final int dy, final int scale) {
         final int w = abs(dx);
         final int h = abs(dy);
 
-        final int width = myModel.getViewSize().width;
-        final int height = myModel.getViewSize().height;
+        final Dimension size = view.getSize();
+        final int width = size.width;
+        final int height = size.height;
 
         if (w >= width || h >= height) {
-            return createChangeUpdate();
+            return createDrawUpdate(view, renderer, new Rectangle(size), scale);
         }
 
-        final Rectangle source = new Rectangle(0, 0, width - w, height - h);
-        final Rectangle hBlock = new Rectangle(0, 0, width, h);
-        final Rectangle vBlock = new Rectangle(0, h, w, height - h);
+        final Rectangle source = mySource;
+        final Rectangle hBlock = myHBlock;
+        final Rectangle vBlock = myVBlock;
+
+        source.setBounds(0, 0, width - w, height - h);
+        hBlock.setBounds(0, 0, width, h);
+        vBlock.setBounds(0, h, w, height - h);
 
         if (dx < 0) {
-            hFlip(source);
-            hFlip(vBlock);
+            hFlip(size, source);
+            hFlip(size, vBlock);
         }
 
         if (dy < 0) {
-            vFlip(source);
-            vFlip(hBlock);
-            vFlip(vBlock);
+            vFlip(size, source);
+            vFlip(size, hBlock);
+            vFlip(size, vBlock);
+        }
+
+        final MoveUpdate update = myUpdatePool.acquireMove(source, dx, dy);
+        myFrame.copy(source, dx, dy);
+
+        // a diagonal move uncovers two blocks, which are rendered in a single batch (unless the cache has some tiles)
+        if (!hBlock.isEmpty() && !vBlock.isEmpty()
+                && (scale > 1 || countCachedTiles(view, hBlock) == 0 && countCachedTiles(view, vBlock) == 0)) {
+            renderBlocks(view, renderer, hBlock, vBlock, scale);
+            update.add(createDrawUpdate(view, myBuffer, hBlock, scale));
+            update.add(createDrawUpdate(view, myBlockBuffer, vBlock, scale));
+        } else {
+            if (!hBlock.isEmpty()) update.add(createDrawUpdate(view, renderer, hBlock, scale));
+            if (!vBlock.isEmpty()) update.add(createDrawUpdate(view, renderer, vBlock, scale));
+        }
+
+        return update;
+    }
+
+    private static void hFlip(final Dimension size, final Rectangle r) {
+        r.setLocation(size.width - r.width - r.x, r.y);
+    }
+
+    private static void vFlip(final Dimension size, final Rectangle r) {
+        r.setLocation(r.x, size.height - r.height - r.y);
+    }
+
+    /**
+     * Renders the rectangle with one sample per scale x scale block (taken at the block center).
+     */
+    private Update createDrawUpdate(final View view, final Renderer renderer, final Rectangle r, final int scale) {
+        if (scale == 1 && countCachedTiles(view, r) > 0) {
+            assemble(view, renderer, r);
+        } else {
+            final RenderRegion region = createRegion(view, r, scale, myBuffer);
+            render(renderer, myBuffer, region.getWidth(), region.getHeight(),
+                    region.getRealOffset(), region.getImaginaryOffset(), view.getResolution() * scale, view.getMaxIterations());
         }
 
-        final Point destination = source.getLocation();
-        destination.translate(dx, dy);
+        return createDrawUpdate(view, myBuffer, r, scale);
+    }
+
+    /**
+     * Renders both rectangles with a single renderer call (into the buffer and the block buffer).
+     */
+    private void renderBlocks(final View view, final Renderer renderer, final Rectangle r1, final Rectangle r2, final int scale) {
+        final List<RenderRegion> regions = myRegions;
+        regions.clear();
+        regions.add(createRegion(view, r1, scale, myBuffer));
+        regions.add(createRegion(view, r2, scale, myBlockBuffer));
+
+        render(renderer, regions, view.getResolution() * scale, view.getMaxIterations());
+    }
 
-        final Collection<Update> updates = new LinkedList<Update>();
-        updates.add(new CopyUpdate(source, destination));
+    /**
+     * Returns the region with one sample per scale x scale block of the rectangle (taken at the block center).
+     */
+    private static RenderRegion createRegion(final View view, final Rectangle r, final int scale, final int[] buffer) {
+        final int columns = (r.width + scale - 1) / scale;
+        final int rows = (r.height + scale - 1) / scale;
 
-        if (!hBlock.isEmpty()) updates.add(createDrawUpdate(hBlock));
-        if (!vBlock.isEmpty()) updates.add(createDrawUpdate(vBlock));
+        final double center = (scale - 1) / 2.0D;
 
-        return new CompoundUpdate(updates);
+        return new RenderRegion(buffer, columns, rows, view.getRealOffset(r.x + center), view.getImaginaryOffset(r.y + center));
     }
 
-    private void hFlip(final Rectangle r) {
-        r.setLocation(myModel.getViewSize().width - r.width - r.x, r.y);
+    /**
+     * Stores the counts of the rectangle (one per scale x scale block) into the frame, and draws them.
+     */
+    private Update createDrawUpdate(final View view, final int[] counts, final Rectangle r, final int scale) {
+        final int columns = (r.width + scale - 1) / scale;
+        final int rows = (r.height + scale - 1) / scale;
+
+        myFrame.draw(counts, r, scale);
+
+        return myUpdatePool.acquireDraw(createImage(counts, columns, rows, view.getMaxIterations()), r, scale);
     }
 
-    private void vFlip(final Rectangle r) {
-        r.setLocation(r.x, myModel.getViewSize().height - r.height - r.y);
+    private TileGrid getGrid(final View view) {
+        if (view != myGridView) {
+            myGrid = new TileGrid(view, myRendererName);
+            myGridView = view;
+        }
+        return myGrid;
     }
 
-    private DrawUpdate createDrawUpdate(final Rectangle r) {
-        final double realOffset = myModel.getRealOffset(r.x);
-        final double imaginaryOffset = myModel.getImaginaryOffset(r.y);
-        final double resolution = myModel.getResolution();
+    /**
+     * Returns the number of the cached tiles that intersect the rectangle.
+     */
+    private int countCachedTiles(final View view, final Rectangle r) {
+        final TileGrid grid = getGrid(view);
+        final TileCache cache = myTileCache;
 
-        myRenderer.render(myBuffer, r.width, r.height, realOffset, imaginaryOffset, resolution);
-        colorize(myBuffer, r.width * r.height);
+        int count = 0;
 
-        final BufferedImage image = new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_ARGB);
-        image.setRGB(0, 0, r.width, r.height, myBuffer, 0, r.width);
+        for (int row = grid.getRow(r.y); row <= grid.getRow(r.y + r.height - 1); row++) {
+            for (int column = grid.getColumn(r.x); column <= grid.getColumn(r.x + r.width - 1); column++) {
+                if (cache.contains(grid.getKey(column, row))) {
+                    count++;
+                }
+            }
+        }
 
-        return new DrawUpdate(image, r.getLocation());
+        return count;
     }
 
-    private static void colorize(final int[] buffer, final int length) {
-        final int alpha = 0xFF << 24;
+    /**
+     * Fills the buffer with the counts of the rectangle, which are taken from the cached tiles
+     * where possible (the runs of the missing tiles are rendered).
+     */
+    private void assemble(final View view, final Renderer renderer, final Rectangle r) {
+        final TileGrid grid = getGrid(view);
+        final TileCache cache = myTileCache;
+
+        final int lastColumn = grid.getColumn(r.x + r.width - 1);
+
+        for (int row = grid.getRow(r.y); row <= grid.getRow(r.y + r.height - 1); row++) {
+            int firstMissing = -1;
+
+            for (int column = grid.getColumn(r.x); column <= lastColumn; column++) {
+                final int[] tile = cache.get(grid.getKey(column, row));
+
+                if (tile == null) {
+                    if (firstMissing == -1) {
+                        firstMissing = column;
+                    }
+                } else {
+                    if (firstMissing != -1) {
+                        renderRun(view, renderer, r, cellBounds(grid, firstMissing, column - 1, row));
+                        firstMissing = -1;
+                    }
+                    copyTile(tile, r, cellBounds(grid, column, column, row));
+                }
+            }
 
-        for (int i = 0; i < length; i++) {
-            final int v = buffer[i];
-            buffer[i] = (v > 0 ? (128 - 2 * v) << 8 : 0) | alpha;
+            if (firstMissing != -1) {
+                renderRun(view, renderer, r, cellBounds(grid, firstMissing, lastColumn, row));
+            }
         }
     }
 
+    /**
+     * Returns the bounds of the cells (in a reused rectangle).
+     */
+    private Rectangle cellBounds(final TileGrid grid, final int firstColumn, final int lastColumn, final int row) {
+        final int x = grid.getX(firstColumn);
+        final int y = grid.getY(row);
+        myCells.setBounds(x, y, grid.getX(lastColumn + 1) - x, TileGrid.TILE_SIZE);
+        return myCells;
+    }
+
+    /**
+     * Returns the intersection of the rectangles (in a reused rectangle), the rectangles must intersect.
+     */
+    private Rectangle intersect(final Rectangle r1, final Rectangle r2) {
+        final int x = Math.max(r1.x, r2.x);
+        final int y = Math.max(r1.y, r2.y);
+        myPart.setBounds(x, y, Math.min(r1.x + r1.width, r2.x + r2.width) - x, Math.min(r1.y + r1.height, r2.y + r2.height) - y);
+        return myPart;
+    }
+
+    /**
+     * Renders the part of the cells that lies within the rectangle into the buffer.
+     */
+    private void renderRun(final View view, final Renderer renderer, final Rectangle r, final Rectangle cells) {
+        final Rectangle run = intersect(r, cells);
+
+        render(renderer, myRunBuffer, run.width, run.height,
+                view.getRealOffset(run.x), view.getImaginaryOffset(run.y), view.getResolution(), view.getMaxIterations());
+
+        for (int y = 0; y < run.height; y++) {
+            System.arraycopy(myRunBuffer, y * run.width, myBuffer, (run.y - r.y + y) * r.width + run.x - r.x, run.width);
+        }
+    }
+
+    /**
+     * Copies the part of the tile that lies within the rectangle into the buffer.
+     */
+    private void copyTile(final int[] tile, final Rectangle r, final Rectangle cell) {
+        final Rectangle part = intersect(r, cell);
+
+        for (int y = 0; y < part.height; y++) {
+            System.arraycopy(tile, (part.y - cell.y + y) * TileGrid.TILE_SIZE + part.x - cell.x,
+                    myBuffer, (part.y - r.y + y) * r.width + part.x - r.x, part.width);
+        }
+    }
+
+    /**
+     * Stores the tiles that lie within the displayed frame (and are not cached yet).
+     */
+    private void cacheTiles(final View view) {
+        final TileGrid grid = getGrid(view);
+        final TileCache cache = myTileCache;
+        final Dimension size = myFrame.getSize();
+
+        if (cache != myCachedAreaCache) {
+            myCachedArea.setBounds(0, 0, 0, 0);
+        }
+
+        for (int row = grid.getRow(0); row <= grid.getRow(size.height - 1); row++) {
+            final int y = grid.getY(row);
+            if (y < 0 || y + TileGrid.TILE_SIZE > size.height) continue;
+
+            for (int column = grid.getColumn(0); column <= grid.getColumn(size.width - 1); column++) {
+                final int x = grid.getX(column);
+                if (x < 0 || x + TileGrid.TILE_SIZE > size.width) continue;
+
+                // no keys are computed for the tiles that are moved (so that panning produces little garbage)
+                if (myCachedArea.contains(x, y, TileGrid.TILE_SIZE, TileGrid.TILE_SIZE)) continue;
+
+                final TileKey key = grid.getKey(column, row);
+
+                if (!cache.contains(key)) {
+                    cache.put(key, myFrame.getCounts(), y * size.width + x, size.width);
+                }
+            }
+        }
+
+        myCachedArea.setBounds(0, 0, size.width, size.height);
+        myCachedAreaCache = cache;
+    }
+
+    /**
+     * Renders into the buffer, and takes the time into account for the frame budget.
+     */
+    private void render(final Renderer renderer,
+                        final int[] buffer,
+                        final int width,
+                        final int height,
+                        final BigDecimal realOffset,
+                        final BigDecimal imaginaryOffset,
+                        final double resolution,
+                        final int maxIterations) {
+        final long before = System.nanoTime();
+
+        renderer.render(buffer, width, height, realOffset, imaginaryOffset, resolution, maxIterations);
+
+        final long time = System.nanoTime() - before;
+
+        // a cancelled render is incomplete, so its time says nothing
+        final boolean completed = !isStale(myJobGeneration);
+
+        if (completed) {
+            myFrameBudget.record(width * height, time);
+        }
+
+        myMetrics.recordRender(myRendererSimpleName, time, completed, (long) width * height,
+                completed ? limitWeightedIterationsOf(buffer, width * height, maxIterations) : 0L);
+    }
+
+    /**
+     * Renders the regions with a single renderer call, and takes the time into account for the frame budget.
+     */
+    private void render(final Renderer renderer, final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        final long before = System.nanoTime();
+
+        renderer.render(regions, resolution, maxIterations);
+
+        final long time = System.nanoTime() - before;
+
+        final boolean completed = !isStale(myJobGeneration);
+
+        int pixels = 0;
+        long iterations = 0L;
+
+        if (completed) {
+            for (final RenderRegion region : regions) {
+                final int length = region.getWidth() * region.getHeight();
+                pixels += length;
+                iterations += limitWeightedIterationsOf(region.getBuffer(), length, maxIterations);
+            }
+            myFrameBudget.record(pixels, time);
+        }
+
+        myMetrics.recordRender(myRendererSimpleName, time, completed, pixels, iterations);
+    }
+
+    /**
+     * Estimates the limit-weighted iterations of the counts from a sample of them, so that the render
+     * is not followed by a pass over the whole buffer. It's not the work that the renderer did: the interior (0)
+     * takes the whole limit (as in a plain escape-time loop), even when the renderer skipped it,
+     * and no count is taken above the limit.
+     */
+    private static long limitWeightedIterationsOf(final int[] counts, final int length, final int maxIterations) {
+        long sum = 0L;
+        int samples = 0;
+        for (int i = length % ITERATION_SAMPLE_STEP / 2; i < length; i += ITERATION_SAMPLE_STEP) {
+            final int count = counts[i];
+            sum += count == 0 || count > maxIterations ? maxIterations : count;
+            samples++;
+        }
+        return samples == 0 ? 0L : sum * length / samples;
+    }
+
+    /**
+     * Renders the whole view, returns false if the work became obsolete.
+     */
+    private boolean renderChange(final View view, final Renderer renderer, final int generation) {
+        final long before = System.currentTimeMillis();
+
+        final ZoomMapping mapping = retainPrevious(view);
+
+        if (mapping != null && (myProgressive || myPreviousExact && mapping.getStep() > 0)) {
+            return renderZoom(view, renderer, generation, mapping);
+        }
+
+        final Rectangle bounds = new Rectangle(view.getSize());
+
+        // the progressive passes are not worth it when most of the view is cached
+        if (!myProgressive || countCachedTiles(view, bounds) * 2 >= countTiles(view, bounds)) {
+            final Update update = createDrawUpdate(view, renderer, bounds, 1);
+            if (isStale(generation)) {
+                update.discard();
+                return false;
+            }
+            fireUpdate(update, System.currentTimeMillis() - before);
+            return true;
+        }
+
+        // the first pass computes one sample per 8x8 block, and each following pass halves
+        // the distance between the samples, computing only the new ones
+        for (int step = COARSE_STEP; step >= 1; step /= 2) {
+            renderPass(view, renderer, step);
+            if (isStale(generation)) return false;
+            fireUpdate(createPassUpdate(view, step), System.currentTimeMillis() - before);
+        }
+
+        return true;
+    }
+
+    /**
+     * Retains the frame as the previous one, unless it only holds a preview of the retained one
+     * (the work was cancelled, for example, by the next resize), returns the mapping
+     * from the previous frame to the view (or null).
+     */
+    private ZoomMapping retainPrevious(final View view) {
+        if (myFrameView != null && (myFrameExact || myPreviousView == null)) {
+            final ZoomMapping mapping = ZoomMapping.between(myFrameView, view);
+
+            if (mapping != null) {
+                final Dimension size = myFrameView.getSize();
+                System.arraycopy(myFrame.getCounts(), 0, myPrevious, 0, size.width * size.height);
+                myPreviousView = myFrameView;
+                myPreviousExact = myFrameExact;
+            }
+
+            return mapping;
+        }
+
+        return myPreviousView == null ? null : ZoomMapping.between(myPreviousView, view);
+    }
+
+    /**
+     * Shows the previous frame resampled to the view at once, then renders the view, reusing the counts
+     * of the samples that the frames have in common, returns false if the work became obsolete.
+     */
+    private boolean renderZoom(final View view, final Renderer renderer, final int generation, final ZoomMapping mapping) {
+        final long before = System.currentTimeMillis();
+
+        final Dimension size = view.getSize();
+        final Rectangle bounds = new Rectangle(size);
+        final int[] counts = myFrame.getCounts();
+        final int previousMaxIterations = myPreviousView.getMaxIterations();
+        final boolean reusable = myPreviousExact && mapping.getStep() > 0;
+
+        if (myProgressive) {
+            resample(mapping, size);
+            myFrameView = view;
+            myFrameExact = false;
+            if (isStale(generation)) return false;
+            fireUpdate(createFrameUpdate(counts, size, view.getMaxIterations()), System.currentTimeMillis() - before);
+        }
+
+        if (!reusable || countCachedTiles(view, bounds) * 2 >= countTiles(view, bounds)) {
+            final Update update = createDrawUpdate(view, renderer, bounds, 1);
+            if (isStale(generation)) {
+                update.discard();
+                return false;
+            }
+            fireUpdate(update, System.currentTimeMillis() - before);
+            return true;
+        }
+
+        reuseSamples(view, renderer, mapping, previousMaxIterations);
+        if (isStale(generation)) return false;
+
+        System.arraycopy(mySamples, 0, counts, 0, size.width * size.height);
+        fireUpdate(createFrameUpdate(counts, size, view.getMaxIterations()), System.currentTimeMillis() - before);
+
+        return true;
+    }
+
+    /**
+     * Fills the frame with the nearest counts of the previous frame
+     * (the areas that were not displayed get the counts of the edges).
+     */
+    private void resample(final ZoomMapping mapping, final Dimension size) {
+        final int[] counts = myFrame.getCounts();
+        final int previousWidth = myPreviousView.getSize().width;
+        final int[] columns = new int[size.width];
+
+        for (int x = 0; x < size.width; x++) {
+            columns[x] = mapping.getPreviousX(x);
+        }
+
+        for (int y = 0; y < size.height; y++) {
+            final int offset = y * size.width;
+            final int previousOffset = mapping.getPreviousY(y) * previousWidth;
+            for (int x = 0; x < size.width; x++) {
+                counts[offset + x] = myPrevious[previousOffset + columns[x]];
+            }
+        }
+    }
+
+    /**
+     * Fills the sample buffer with the counts of the common samples (taken from the previous frame),
+     * and renders the other samples.
+     */
+    private void reuseSamples(final View view, final Renderer renderer, final ZoomMapping mapping, final int previousMaxIterations) {
+        mapping.reuse(myPrevious, previousMaxIterations, mySamples, view.getMaxIterations(), new ZoomMapping.Samples() {
+            @Override
+            public void render(final int x0, final int y0, final int step, final int x1, final int y1) {
+                renderSamples(view, renderer, x0, y0, step, x1, y1);
+            }
+        });
+    }
+
+    private int countTiles(final View view, final Rectangle r) {
+        final TileGrid grid = getGrid(view);
+
+        final int columns = grid.getColumn(r.x + r.width - 1) - grid.getColumn(r.x) + 1;
+        final int rows = grid.getRow(r.y + r.height - 1) - grid.getRow(r.y) + 1;
+
+        return columns * rows;
+    }
+
+    private void renderPass(final View view, final Renderer renderer, final int step) {
+        if (step == COARSE_STEP) {
+            renderSamples(view, renderer, 0, 0, step);
+        } else {
+            renderSamples(view, renderer, step, 0, step * 2);
+            renderSamples(view, renderer, 0, step, step * 2);
+            renderSamples(view, renderer, step, step, step * 2);
+        }
+    }
+
+    /**
+     * Renders the samples at (x0 + i * step, y0 + j * step) and stores them into the sample buffer.
+     */
+    private void renderSamples(final View view, final Renderer renderer, final int x0, final int y0, final int step) {
+        final Dimension size = view.getSize();
+        renderSamples(view, renderer, x0, y0, step, size.width, size.height);
+    }
+
+    /**
+     * Renders the samples at (x0 + i * step, y0 + j * step) that lie above and to the left of (x1, y1).
+     */
+    private void renderSamples(final View view, final Renderer renderer,
+                               final int x0, final int y0, final int step, final int x1, final int y1) {
+        final Dimension size = view.getSize();
+
+        if (x0 >= x1 || y0 >= y1) return;
+
+        final int columns = (x1 - x0 + step - 1) / step;
+        final int rows = (y1 - y0 + step - 1) / step;
+
+        final BigDecimal realOffset = view.getRealOffset(x0);
+        final BigDecimal imaginaryOffset = view.getImaginaryOffset(y0);
+        final double resolution = view.getResolution() * step;
+
+        render(renderer, myBuffer, columns, rows, realOffset, imaginaryOffset, resolution, view.getMaxIterations());
+
+        for (int j = 0; j < rows; j++) {
+            final int offset = (y0 + j * step) * size.width + x0;
+            for (int i = 0; i < columns; i++) {
+                mySamples[offset + i * step] = myBuffer[j * columns + i];
+            }
+        }
+    }
+
+    /**
+     * Draws the view with each step x step block filled with the color of its top-left sample.
+     */
+    private Update createPassUpdate(final View view, final int step) {
+        final Dimension size = view.getSize();
+        final int[] counts = myFrame.getCounts();
+
+        for (int y = 0; y < size.height; y++) {
+            final int offset = (y - y % step) * size.width;
+            for (int x = 0; x < size.width; x++) {
+                counts[y * size.width + x] = mySamples[offset + x - x % step];
+            }
+        }
+
+        return createFrameUpdate(counts, size, view.getMaxIterations());
+    }
+
+    /**
+     * Recolors the displayed picture with the current palette.
+     */
+    private Update createRecolorUpdate(final View view) {
+        return createFrameUpdate(myFrame.getCounts(), myFrame.getSize(), view.getMaxIterations());
+    }
+
+    private Update createFrameUpdate(final int[] counts, final Dimension size, final int maxIterations) {
+        return myUpdatePool.acquireDraw(createImage(counts, size.width, size.height, maxIterations), new Rectangle(size), 1);
+    }
+
+    /**
+     * Colorizes the counts straight into the backing array of a pooled image.
+     */
+    private BufferedImage createImage(final int[] counts, final int width, final int height, final int maxIterations) {
+        final BufferedImage image = myImagePool.acquire();
+
+        final long before = System.nanoTime();
+
+        myColorizer.colorize(counts, width, height, ImagePool.getData(image), image.getWidth(),
+                myPalette, myPaletteOffset, maxIterations);
+
+        myMetrics.recordColorize(System.nanoTime() - before);
+
+        return image;
+    }
+
+    // called by the worker thread only
     @Override
-    public Update update(final Rectangle bounds) {
-        return createDrawUpdate(bounds);
+    protected void fireUpdate(final Update update, final long elapsedTime) {
+        myMetrics.recordUpdate(myMoveJob, System.nanoTime() - myJobStartTime);
+
+        super.fireUpdate(update, elapsedTime);
+    }
+
+    private class MyWorker implements Runnable {
+        @Override
+        public void run() {
+            // reused, so that a job allocates no list
+            final List<Renderer> replacedRenderers = new ArrayList<Renderer>();
+
+            while (true) {
+                final View view;
+                boolean changed;
+                final boolean recolored;
+                final int dx;
+                final int dy;
+                final int generation;
+                final Renderer renderer;
+                final boolean disposed;
+                final int scale;
+
+                synchronized (myLock) {
+                    while (!myDisposed && myReplacedRenderers.isEmpty()
+                            && (myRenderer == null || !myChanged && myDx == 0 && myDy == 0) && !myRecolored) {
+                        final long idleTime = System.currentTimeMillis() - myLastRequestTime;
+
+                        if (myDegraded && myRenderer != null && idleTime >= IDLE_DELAY) {
+                            myChanged = true;
+                            myFullResolution = true;
+                            break;
+                        }
+
+                        try {
+                            myLock.wait(myDegraded ? Math.max(IDLE_DELAY - idleTime, 1L) : 0L);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    replacedRenderers.clear();
+                    if (!myReplacedRenderers.isEmpty()) {
+                        replacedRenderers.addAll(myReplacedRenderers);
+                        myReplacedRenderers.clear();
+                    }
+
+                    if (myDisposed && myRenderer != null) {
+                        replacedRenderers.add(myRenderer);
+                        myRenderer = null;
+                    }
+
+                    view = myView;
+                    changed = myChanged;
+                    dx = myDx;
+                    dy = myDy;
+                    generation = myGeneration;
+                    renderer = myRenderer;
+
+                    // a later request cancels the renderer again (with the lock held)
+                    if (renderer != null) {
+                        renderer.resume();
+                    }
+                    disposed = myDisposed;
+                    scale = myFullResolution || !myDynamicResolution || view == null ? 1 : scaleFor(view, changed, myDx, myDy);
+
+                    // a change redraws the whole picture, and a move leaves the recoloring for the next job
+                    recolored = myRecolored && !changed && myDx == 0 && myDy == 0;
+                    if (changed || recolored) {
+                        myRecolored = false;
+                    }
+
+                    myChanged = false;
+                    myFullResolution = false;
+                    myDx = 0;
+                    myDy = 0;
+                    myRenderingChange = changed;
+                    myRenderingReduced = scale > 1;
+                }
+
+                for (int i = 0; i < replacedRenderers.size(); i++) {
+                    replacedRenderers.get(i).dispose();
+                }
+
+                // the counts of another renderer may differ
+                if (!replacedRenderers.isEmpty()) {
+                    myTileCache.clear();
+                    myGridView = null;
+                    myFrameExact = false;
+                    myPreviousExact = false;
+                }
+
+                if (disposed) {
+                    myColorizer.dispose();
+                    closeTileStore();
+                    return;
+                }
+
+                myMoveJob = false;
+                myJobStartTime = System.nanoTime();
+
+                if (recolored && view != null && !myFrame.isEmpty()) {
+                    final long before = System.currentTimeMillis();
+                    fireUpdate(createRecolorUpdate(view), System.currentTimeMillis() - before);
+                }
+
+                if (renderer == null) continue;
+
+                myJobGeneration = generation;
+                myRendererName = renderer.getClass().getName();
+                myRendererSimpleName = renderer.getClass().getSimpleName();
+                myJobStartTime = System.nanoTime();
+
+                // the whole view is rendered with one precision (at any scale and in any pass),
+                // so a move to where another precision is needed redraws the view
+                if (renderer instanceof TieredRenderer && (changed || dx != 0 || dy != 0)) {
+                    final TieredRenderer tieredRenderer = (TieredRenderer) renderer;
+                    final Dimension size = view.getSize();
+
+                    if (tieredRenderer.startFrame(view.getRealOffset(0), view.getImaginaryOffset(0),
+                            size.width, size.height, view.getResolution())) {
+                        changed = true;
+                    }
+
+                    myRendererName += "/" + tieredRenderer.getPrecision();
+                }
+
+                boolean done = true;
+
+                if (changed) {
+                    myFrame.setSize(view.getSize());
+
+                    if (scale == 1) {
+                        done = renderChange(view, renderer, generation);
+                    } else {
+                        final long before = System.currentTimeMillis();
+                        final Update update = createDrawUpdate(view, renderer, new Rectangle(view.getSize()), scale);
+                        done = !isStale(generation);
+                        if (done) {
+                            fireUpdate(update, System.currentTimeMillis() - before);
+                        } else {
+                            update.discard();
+                        }
+                    }
+                } else if (dx != 0 || dy != 0) {
+                    myMoveJob = true;
+
+                    if (myGridView != null && myGridView == myFrameView) {
+                        myGrid = myGrid.moved(dx, dy);
+                        myGridView = view;
+                    }
+
+                    final long before = System.currentTimeMillis();
+                    final Update update = createMoveUpdate(view, renderer, dx, dy, scale);
+                    done = !isStale(generation);
+                    if (done) {
+                        fireUpdate(update, System.currentTimeMillis() - before);
+                    } else {
+                        update.discard();
+                    }
+                }
+
+                final boolean exact;
+
+                synchronized (myLock) {
+                    myRenderingChange = false;
+                    myRenderingReduced = false;
+
+                    if (done) {
+                        if (scale > 1) {
+                            myDegraded = true;
+                        } else if (changed) {
+                            myDegraded = false;
+                        }
+                    }
+
+                    // the cancelled work leaves the iteration frame incomplete, so the whole view is redone
+                    // (with the latest view and renderer)
+                    if (!done) {
+                        myChanged = true;
+                        myDx = 0;
+                        myDy = 0;
+                    }
+
+                    // a degraded frame still holds the magnified counts of a reduced frame
+                    exact = done && !myDegraded && (changed || dx != 0 || dy != 0);
+                }
+
+                if (done && (changed || dx != 0 || dy != 0)) {
+                    if (changed || !myFrameExact) {
+                        myCachedArea.setBounds(0, 0, 0, 0);
+                    } else {
+                        myCachedArea.translate(dx, dy);
+                    }
+
+                    myFrameView = view;
+                    myFrameExact = exact;
+                    myPreviousView = null;
+                } else if (!done && myFrameView != view) {
+                    myFrameView = null;
+                }
+
+                if (exact) {
+                    cacheTiles(view);
+                }
+
+                if (exact && changed && myAdaptiveIterations) {
+                    adjustMaxIterations(view);
+                }
+            }
+        }
+    }
+
+    /**
+     * Raises or lowers the limit of the model when the sampled counts of the frame call for that.
+     */
+    private void adjustMaxIterations(final View view) {
+        final int[] counts = myFrame.getCounts();
+        final Dimension size = myFrame.getSize();
+        final int length = size.width * size.height;
+        final int maxIterations = view.getMaxIterations();
+        final int threshold = maxIterations - maxIterations / 4;
+
+        int capped = 0;
+        int escaped = 0;
+        int late = 0;
+        int highest = 0;
+
+        for (int i = length % ITERATION_SAMPLE_STEP / 2; i < length; i += ITERATION_SAMPLE_STEP) {
+            final int count = counts[i];
+            if (count == 0) {
+                capped++;
+            } else {
+                escaped++;
+                if (count >= threshold) {
+                    late++;
+                }
+            }
+            highest = Math.max(highest, count);
+        }
+
+        final boolean raise = capped > 0 && late * LATE_RATIO >= escaped;
+
+        // the counts stay within the lower half of the halved limit, so that it is not raised back
+        // (and the raised limit is not lowered back, as its late counts are in the upper half)
+        if (raise || escaped > 0 && highest < maxIterations / 4) {
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    myModel.adjustMaxIterations(maxIterations, raise);
+                }
+            });
+        }
+    }
+
+    private void closeTileStore() {
+        final TileStore store = myTileCache.getStore();
+
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                // the entries that were not written are rejected on the next start
+            }
+        }
     }
 
     private class MyModelListener implements ModelListener {
         @Override
         public void onMove(final int dx, final int dy) {
-            final long before = System.currentTimeMillis();
-            final Update update = myIncremental ? createMoveUpdate(dx, dy) : createChangeUpdate();
-            fireUpdate(update, System.currentTimeMillis() - before);
+            if (myIncremental) {
+                requestMove(dx, dy);
+            } else {
+                requestChange();
+            }
         }
 
         @Override
         public void onChange() {
-            final long before = System.currentTimeMillis();
-            final Update update = createChangeUpdate();
-            fireUpdate(update, System.currentTimeMillis() - before);
+            requestChange();
         }
 
         @Override
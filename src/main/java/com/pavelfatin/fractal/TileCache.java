@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.pavelfatin.fractal.TileGrid.TILE_SIZE;
+
+/**
+ * Keeps the iteration counts of the recently displayed tiles within a memory budget,
+ * the least recently used tiles are evicted first (their arrays are reused for the new tiles).
+ * <p/>
+ * The cache may be backed by a persistent store: the tiles that are missing in memory are loaded
+ * from the store, and the new tiles are saved to it.
+ * <p/>
+ * Thread-safe.
+ */
+class TileCache {
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    private final long myBudget;
+    private final Map<TileKey, int[]> myTiles = new LinkedHashMap<TileKey, int[]>(16, 0.75F, true);
+    private TileStore myStore;
+
+    private long myHitCount;
+    private long myMissCount;
+    private long myEvictionCount;
+
+    /**
+     * @param budget the memory budget in megabytes (0 disables the cache)
+     */
+    TileCache(final int budget) {
+        myBudget = budget * 1024L * 1024L;
+    }
+
+    public synchronized TileStore getStore() {
+        return myStore;
+    }
+
+    /**
+     * @param store the persistent store (or null)
+     */
+    public synchronized void setStore(final TileStore store) {
+        myStore = store;
+    }
+
+    /**
+     * Returns the counts of the tile (stored row by row), or null if the tile is not cached.
+     */
+    public synchronized int[] get(final TileKey key) {
+        int[] tile = myTiles.get(key);
+
+        if (tile == null && myStore != null && myStore.contains(key)) {
+            final int[] loadedTile = allocate();
+
+            if (myStore.load(key, loadedTile)) {
+                if (myBudget >= TILE_BYTES) {
+                    myTiles.put(key, loadedTile);
+                }
+                tile = loadedTile;
+            }
+        }
+
+        if (tile == null) {
+            myMissCount++;
+        } else {
+            myHitCount++;
+        }
+
+        return tile;
+    }
+
+    /**
+     * Checks whether the tile is cached (without affecting the statistics or the eviction order).
+     */
+    public synchronized boolean contains(final TileKey key) {
+        return myTiles.containsKey(key) || myStore != null && myStore.contains(key);
+    }
+
+    /**
+     * Stores the tile that starts at the offset of the counts (which have the given row stride).
+     */
+    public synchronized void put(final TileKey key, final int[] counts, final int offset, final int stride) {
+        if (myStore != null) {
+            myStore.store(key, counts, offset, stride);
+        }
+
+        if (myBudget < TILE_BYTES || myTiles.containsKey(key)) return;
+
+        final int[] tile = allocate();
+
+        for (int y = 0; y < TILE_SIZE; y++) {
+            System.arraycopy(counts, offset + y * stride, tile, y * TILE_SIZE, TILE_SIZE);
+        }
+
+        myTiles.put(key, tile);
+    }
+
+    /**
+     * Returns an array for a new tile, the least recently used tile is evicted if there is no room for it.
+     */
+    private int[] allocate() {
+        if (!myTiles.isEmpty() && (myTiles.size() + 1L) * TILE_BYTES > myBudget) {
+            final Iterator<int[]> eldest = myTiles.values().iterator();
+            final int[] tile = eldest.next();
+            eldest.remove();
+            myEvictionCount++;
+            return tile;
+        }
+
+        return new int[TILE_SIZE * TILE_SIZE];
+    }
+
+    /**
+     * Discards the tiles in memory (the stored ones are kept).
+     */
+    public synchronized void clear() {
+        myTiles.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return myHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return myMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return myEvictionCount;
+    }
+
+    public synchronized int getTileCount() {
+        return myTiles.size();
+    }
+
+    /**
+     * Returns the memory used by the tiles, in bytes.
+     */
+    public synchronized long getSize() {
+        return (long) myTiles.size() * TILE_BYTES;
+    }
+
+    public long getBudget() {
+        return myBudget;
+    }
+}
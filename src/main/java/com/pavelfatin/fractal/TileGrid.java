@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * The tiles that cover a view. The world space (the model full-size pixel space at the view zoom level)
+ * is split into square tiles, so that the views at the same zoom level and sub-pixel phase
+ * (e.g. after panning away and back, or zooming in and out) share the tiles.
+ * The tiles of different renderers are kept apart.
+ */
+class TileGrid {
+    public static final int TILE_SIZE = 64;
+
+    /** The resolutions closer than this fraction of a doubling share the tiles. */
+    private static final double LEVELS_PER_DOUBLING = 1 << 20;
+
+    /** The sub-pixel phases closer than this fraction of a pixel share the tiles. */
+    private static final int PHASE_STEPS = 1024;
+
+    private final String myRenderer;
+    private final long myLevel;
+    private final int myMaxIterations;
+    private final int myPhaseX;
+    private final int myPhaseY;
+    private final BigInteger myColumn0;
+    private final BigInteger myRow0;
+    private final int myOffsetX;
+    private final int myOffsetY;
+
+    TileGrid(final View view, final String renderer) {
+        final double resolution = view.getResolution();
+
+        myRenderer = renderer;
+        myLevel = Math.round(-Math.log(resolution) / Math.log(2.0D) * LEVELS_PER_DOUBLING);
+        myMaxIterations = view.getMaxIterations();
+
+        final BigDecimal x = toWorld(view.getRealOffset(0.0D), resolution);
+        final BigDecimal y = toWorld(view.getImaginaryOffset(0.0D), resolution);
+
+        final BigInteger x0 = pixelOf(x);
+        final BigInteger y0 = pixelOf(y);
+
+        myPhaseX = phaseOf(x, x0);
+        myPhaseY = phaseOf(y, y0);
+
+        final BigInteger size = BigInteger.valueOf(TILE_SIZE);
+
+        myOffsetX = x0.mod(size).intValue();
+        myOffsetY = y0.mod(size).intValue();
+        myColumn0 = x0.subtract(BigInteger.valueOf(myOffsetX)).divide(size);
+        myRow0 = y0.subtract(BigInteger.valueOf(myOffsetY)).divide(size);
+    }
+
+    private TileGrid(final TileGrid grid, final int offsetX, final int offsetY) {
+        myRenderer = grid.myRenderer;
+        myLevel = grid.myLevel;
+        myMaxIterations = grid.myMaxIterations;
+        myPhaseX = grid.myPhaseX;
+        myPhaseY = grid.myPhaseY;
+        myOffsetX = Math.floorMod(offsetX, TILE_SIZE);
+        myOffsetY = Math.floorMod(offsetY, TILE_SIZE);
+        myColumn0 = grid.myColumn0.add(BigInteger.valueOf(Math.floorDiv(offsetX, TILE_SIZE)));
+        myRow0 = grid.myRow0.add(BigInteger.valueOf(Math.floorDiv(offsetY, TILE_SIZE)));
+    }
+
+    /**
+     * Returns the grid of the view that is moved by whole pixels (the picture is shifted by dx, dy),
+     * without the arbitrary-precision arithmetic of the constructor.
+     */
+    public TileGrid moved(final int dx, final int dy) {
+        return new TileGrid(this, myOffsetX - dx, myOffsetY - dy);
+    }
+
+    /**
+     * Returns the world pixel coordinate of the offset (with a few fractional digits).
+     */
+    private static BigDecimal toWorld(final BigDecimal offset, final double resolution) {
+        final double magnitude = Math.abs(offset.doubleValue()) / resolution;
+        final int digits = magnitude < 1.0D ? 1 : (int) Math.ceil(Math.log10(magnitude)) + 1;
+
+        return offset.divide(new BigDecimal(resolution), new MathContext(digits + 6, RoundingMode.HALF_EVEN));
+    }
+
+    /**
+     * Returns the world pixel that holds the coordinate (the coordinates that round up to the next pixel
+     * boundary belong to the next pixel).
+     */
+    private static BigInteger pixelOf(final BigDecimal coordinate) {
+        final BigInteger pixel = coordinate.setScale(0, RoundingMode.FLOOR).toBigInteger();
+        return phaseOf(coordinate, pixel) == PHASE_STEPS ? pixel.add(BigInteger.ONE) : pixel;
+    }
+
+    private static int phaseOf(final BigDecimal coordinate, final BigInteger pixel) {
+        final double fraction = coordinate.subtract(new BigDecimal(pixel)).doubleValue();
+        return (int) Math.round(fraction * PHASE_STEPS);
+    }
+
+    /**
+     * Returns the column of the tile that holds the view x coordinate.
+     */
+    public int getColumn(final int x) {
+        return Math.floorDiv(x + myOffsetX, TILE_SIZE);
+    }
+
+    public int getRow(final int y) {
+        return Math.floorDiv(y + myOffsetY, TILE_SIZE);
+    }
+
+    /**
+     * Returns the view x coordinate of the left edge of the column.
+     */
+    public int getX(final int column) {
+        return column * TILE_SIZE - myOffsetX;
+    }
+
+    public int getY(final int row) {
+        return row * TILE_SIZE - myOffsetY;
+    }
+
+    public TileKey getKey(final int column, final int row) {
+        return new TileKey(myRenderer, myLevel, myMaxIterations, myPhaseX, myPhaseY,
+                myColumn0.add(BigInteger.valueOf(column)), myRow0.add(BigInteger.valueOf(row)));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Identifies a tile of iteration counts in the world space (see {@link TileGrid}).
+ */
+class TileKey {
+    /** The renderer that computed the counts (the renderers may differ in precision). */
+    private final String myRenderer;
+    private final long myLevel;
+    private final int myMaxIterations;
+    private final int myPhaseX;
+    private final int myPhaseY;
+    private final BigInteger myColumn;
+    private final BigInteger myRow;
+
+    TileKey(final String renderer,
+            final long level,
+            final int maxIterations,
+            final int phaseX,
+            final int phaseY,
+            final BigInteger column,
+            final BigInteger row) {
+        myRenderer = renderer;
+        myLevel = level;
+        myMaxIterations = maxIterations;
+        myPhaseX = phaseX;
+        myPhaseY = phaseY;
+        myColumn = column;
+        myRow = row;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TileKey)) return false;
+
+        final TileKey key = (TileKey) o;
+
+        return myRenderer.equals(key.myRenderer)
+                && myLevel == key.myLevel
+                && myMaxIterations == key.myMaxIterations
+                && myPhaseX == key.myPhaseX
+                && myPhaseY == key.myPhaseY
+                && myColumn.equals(key.myColumn)
+                && myRow.equals(key.myRow);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = myRenderer.hashCode();
+        result = 31 * result + (int) (myLevel ^ (myLevel >>> 32));
+        result = 31 * result + myMaxIterations;
+        result = 31 * result + myPhaseX;
+        result = 31 * result + myPhaseY;
+        result = 31 * result + myColumn.hashCode();
+        result = 31 * result + myRow.hashCode();
+        return result;
+    }
+
+    public void write(final DataOutput output) throws IOException {
+        output.writeUTF(myRenderer);
+        output.writeLong(myLevel);
+        output.writeInt(myMaxIterations);
+        output.writeInt(myPhaseX);
+        output.writeInt(myPhaseY);
+        writeInteger(output, myColumn);
+        writeInteger(output, myRow);
+    }
+
+    public static TileKey read(final DataInput input) throws IOException {
+        return new TileKey(input.readUTF(), input.readLong(), input.readInt(), input.readInt(), input.readInt(),
+                readInteger(input), readInteger(input));
+    }
+
+    private static void writeInteger(final DataOutput output, final BigInteger value) throws IOException {
+        final byte[] bytes = value.toByteArray();
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static BigInteger readInteger(final DataInput input) throws IOException {
+        final byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+}
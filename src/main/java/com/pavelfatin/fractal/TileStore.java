@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.pavelfatin.fractal.TileGrid.TILE_SIZE;
+
+/**
+ * Keeps the tiles on disk, in a memory-mapped file of fixed-size slots, so that they survive restarts
+ * and are loaded at memory speed.
+ * <p/>
+ * A slot holds the key, the counts and a checksum of both. The slot marker is cleared before
+ * the slot is written and is set after that, so the partially written (or otherwise corrupt) entries
+ * are rejected when they are read. The index (from the keys to the slots) is rebuilt from
+ * the slot headers on opening, and the least recently used slots are reused when the store is full.
+ * <p/>
+ * Thread-safe (within a single process). The file is locked while the store is open, so that another process
+ * cannot open it (and keeps its tiles in memory only).
+ */
+class TileStore {
+    static final String FILE_NAME = "tiles.dat";
+
+    private static final int MARKER = 0x46544C31;
+
+    // the layout of a slot (some offsets are package-private for the tests)
+    static final int MARKER_OFFSET = 0;
+    private static final int KEY_LENGTH_OFFSET = 4;
+    private static final int ACCESS_TIME_OFFSET = 8;
+    private static final int CHECKSUM_OFFSET = 16;
+    private static final int KEY_OFFSET = 24;
+    private static final int KEY_CAPACITY = 256;
+    static final int DATA_OFFSET = KEY_OFFSET + KEY_CAPACITY;
+    private static final int DATA_SIZE = TILE_SIZE * TILE_SIZE * 4;
+    static final int SLOT_SIZE = DATA_OFFSET + DATA_SIZE;
+
+    private final RandomAccessFile myFile;
+    private final MappedByteBuffer myBuffer;
+    private final IntBuffer myInts;
+    private final int myCapacity;
+
+    private final Map<TileKey, Integer> myIndex = new LinkedHashMap<TileKey, Integer>(16, 0.75F, true);
+    private final Deque<Integer> myFreeSlots = new ArrayDeque<Integer>();
+    private final CRC32 myChecksum = new CRC32();
+
+    private long myClock;
+    private long myLoadCount;
+    private long myRejectionCount;
+    private long myEvictionCount;
+
+    private TileStore(final RandomAccessFile file, final MappedByteBuffer buffer, final int capacity) {
+        myFile = file;
+        myBuffer = buffer;
+        myInts = buffer.asIntBuffer();
+        myCapacity = capacity;
+
+        rebuildIndex();
+    }
+
+    /**
+     * Opens (or creates) the store in the directory, fails if the store is open in another process.
+     *
+     * @param size the size of the store in megabytes
+     */
+    public static TileStore open(final File directory, final int size) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory: " + directory);
+        }
+
+        final int capacity = (int) Math.min(size * 1024L * 1024L / SLOT_SIZE, Integer.MAX_VALUE / SLOT_SIZE);
+
+        if (capacity == 0) {
+            throw new IOException("The store size is too small: " + size + " MB");
+        }
+
+        final File path = new File(directory, FILE_NAME);
+        final RandomAccessFile file = new RandomAccessFile(path, "rw");
+
+        try {
+            // the lock is released when the file is closed
+            final FileLock lock;
+            try {
+                lock = file.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                throw new IOException("The store is in use: " + path);
+            }
+            if (lock == null) {
+                throw new IOException("The store is in use by another process: " + path);
+            }
+
+            // the size must not be changed before the file is locked
+            file.setLength((long) capacity * SLOT_SIZE);
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, (long) capacity * SLOT_SIZE);
+            return new TileStore(file, buffer, capacity);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void rebuildIndex() {
+        final Map<TileKey, Entry> entries = new HashMap<TileKey, Entry>();
+
+        for (int slot = 0; slot < myCapacity; slot++) {
+            final TileKey key = myBuffer.getInt(offsetOf(slot) + MARKER_OFFSET) == MARKER ? readKey(slot) : null;
+
+            if (key == null) {
+                myFreeSlots.add(slot);
+                continue;
+            }
+
+            final Entry entry = new Entry(key, slot, myBuffer.getLong(offsetOf(slot) + ACCESS_TIME_OFFSET));
+            final Entry previous = entries.get(key);
+
+            // a duplicate may be left by an interrupted replacement, the older one is discarded
+            if (previous == null || previous.myTime < entry.myTime) {
+                entries.put(key, entry);
+            }
+            if (previous != null) {
+                release(previous.myTime < entry.myTime ? previous.mySlot : entry.mySlot);
+            }
+        }
+
+        final List<Entry> sortedEntries = new ArrayList<Entry>(entries.values());
+
+        // the least recently used entries come first
+        Collections.sort(sortedEntries, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry a, final Entry b) {
+                return Long.compare(a.myTime, b.myTime);
+            }
+        });
+
+        for (final Entry entry : sortedEntries) {
+            myIndex.put(entry.myKey, entry.mySlot);
+            myClock = Math.max(myClock, entry.myTime);
+        }
+    }
+
+    /**
+     * Returns the key of the slot, or null if the key cannot be read.
+     */
+    private TileKey readKey(final int slot) {
+        final int offset = offsetOf(slot);
+        final int length = myBuffer.getInt(offset + KEY_LENGTH_OFFSET);
+
+        if (length <= 0 || length > KEY_CAPACITY) return null;
+
+        final byte[] bytes = new byte[length];
+        myBuffer.get(offset + KEY_OFFSET, bytes);
+
+        try {
+            return TileKey.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(final TileKey key) {
+        return myIndex.containsKey(key);
+    }
+
+    /**
+     * Loads the counts of the tile, returns false if the tile is not stored (or its entry is corrupt).
+     */
+    public synchronized boolean load(final TileKey key, final int[] tile) {
+        final Integer slot = myIndex.get(key);
+
+        if (slot == null) return false;
+
+        final int offset = offsetOf(slot);
+
+        if (myBuffer.getInt(offset + MARKER_OFFSET) != MARKER
+                || myBuffer.getLong(offset + CHECKSUM_OFFSET) != checksumOf(slot, myBuffer.getInt(offset + KEY_LENGTH_OFFSET))) {
+            myIndex.remove(key);
+            release(slot);
+            myRejectionCount++;
+            return false;
+        }
+
+        myInts.get((offset + DATA_OFFSET) / 4, tile);
+        myBuffer.putLong(offset + ACCESS_TIME_OFFSET, ++myClock);
+        myLoadCount++;
+
+        return true;
+    }
+
+    /**
+     * Stores the tile that starts at the offset of the counts (which have the given row stride).
+     */
+    public synchronized void store(final TileKey key, final int[] counts, final int offset, final int stride) {
+        if (myIndex.containsKey(key)) return;
+
+        final byte[] bytes = bytesOf(key);
+
+        if (bytes.length > KEY_CAPACITY) return;
+
+        final int slot;
+
+        if (myFreeSlots.isEmpty()) {
+            final Iterator<Integer> eldest = myIndex.values().iterator();
+            slot = eldest.next();
+            eldest.remove();
+            myEvictionCount++;
+        } else {
+            slot = myFreeSlots.poll();
+        }
+
+        final int slotOffset = offsetOf(slot);
+
+        myBuffer.putInt(slotOffset + MARKER_OFFSET, 0);
+
+        myBuffer.putInt(slotOffset + KEY_LENGTH_OFFSET, bytes.length);
+        myBuffer.put(slotOffset + KEY_OFFSET, bytes);
+
+        for (int y = 0; y < TILE_SIZE; y++) {
+            myInts.put((slotOffset + DATA_OFFSET) / 4 + y * TILE_SIZE, counts, offset + y * stride, TILE_SIZE);
+        }
+
+        myBuffer.putLong(slotOffset + CHECKSUM_OFFSET, checksumOf(slot, bytes.length));
+        myBuffer.putLong(slotOffset + ACCESS_TIME_OFFSET, ++myClock);
+
+        myBuffer.putInt(slotOffset + MARKER_OFFSET, MARKER);
+
+        myIndex.put(key, slot);
+    }
+
+    private long checksumOf(final int slot, final int keyLength) {
+        if (keyLength <= 0 || keyLength > KEY_CAPACITY) return -1L;
+
+        final int offset = offsetOf(slot);
+
+        myChecksum.reset();
+        myChecksum.update(myBuffer.slice(offset + KEY_OFFSET, keyLength));
+        myChecksum.update(myBuffer.slice(offset + DATA_OFFSET, DATA_SIZE));
+
+        return myChecksum.getValue();
+    }
+
+    private static byte[] bytesOf(final TileKey key) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            key.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void release(final int slot) {
+        myBuffer.putInt(offsetOf(slot) + MARKER_OFFSET, 0);
+        myFreeSlots.add(slot);
+    }
+
+    private static int offsetOf(final int slot) {
+        return slot * SLOT_SIZE;
+    }
+
+    /**
+     * Writes the changes to the disk and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        myBuffer.force();
+        myFile.close();
+    }
+
+    public synchronized int getTileCount() {
+        return myIndex.size();
+    }
+
+    public int getCapacity() {
+        return myCapacity;
+    }
+
+    public synchronized long getLoadCount() {
+        return myLoadCount;
+    }
+
+    /**
+     * Returns the number of the corrupt entries that were found (and discarded) on loading.
+     */
+    public synchronized long getRejectionCount() {
+        return myRejectionCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return myEvictionCount;
+    }
+
+    private static class Entry {
+        private final TileKey myKey;
+        private final int mySlot;
+        private final long myTime;
+
+        Entry(final TileKey key, final int slot, final long time) {
+            myKey = key;
+            mySlot = slot;
+            myTime = time;
+        }
+    }
+}
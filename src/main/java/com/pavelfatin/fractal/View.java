@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.awt.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * An immutable snapshot of the model state that is needed for rendering,
+ * so that the picture can be rendered on another thread while the model changes.
+ */
+class View {
+    private final Dimension mySize;
+    private final BigDecimal myRealPartCenter;
+    private final BigDecimal myImaginaryPartCenter;
+    private final double myResolution;
+    private final int myMaxIterations;
+    private final MathContext myMathContext;
+
+    View(final Dimension size,
+         final BigDecimal realPartCenter,
+         final BigDecimal imaginaryPartCenter,
+         final double resolution,
+         final int maxIterations,
+         final MathContext mathContext) {
+        mySize = new Dimension(size);
+        myRealPartCenter = realPartCenter;
+        myImaginaryPartCenter = imaginaryPartCenter;
+        myResolution = resolution;
+        myMaxIterations = maxIterations;
+        myMathContext = mathContext;
+    }
+
+    public Dimension getSize() {
+        return new Dimension(mySize);
+    }
+
+    public double getResolution() {
+        return myResolution;
+    }
+
+    public int getMaxIterations() {
+        return myMaxIterations;
+    }
+
+    public BigDecimal getRealOffset(final double x) {
+        return myRealPartCenter.add(new BigDecimal(myResolution * (x - mySize.width / 2.0D)), myMathContext);
+    }
+
+    public BigDecimal getImaginaryOffset(final double y) {
+        return myImaginaryPartCenter.add(new BigDecimal(myResolution * (y - mySize.height / 2.0D)), myMathContext);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import java.awt.*;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.round;
+
+/**
+ * Maps the pixels of a view to the pixels of the previous view (after a zoom or a resize),
+ * so that the previous frame can be resampled, and finds the samples that the views have in common.
+ * <p/>
+ * The samples line up when the zoom factor is an integer (or 1) and the views are offset by whole pixels:
+ * zooming in by p, every p-th sample of every p-th row is an old one, otherwise every sample
+ * of the common rectangle is an old one.
+ */
+class ZoomMapping {
+    /** How close (in pixels) the samples must be to be considered the same. */
+    private static final double TOLERANCE = 1.0E-3D;
+
+    private final Dimension myPreviousSize;
+    private final Dimension mySize;
+    private final double myRatio;
+    private final double myX0;
+    private final double myY0;
+
+    private int myStep;
+    private int myFirstX;
+    private int myFirstY;
+    private Rectangle myCommonBounds;
+
+    private ZoomMapping(final View previous, final View view) {
+        myPreviousSize = previous.getSize();
+        mySize = view.getSize();
+        myRatio = view.getResolution() / previous.getResolution();
+
+        myX0 = view.getRealOffset(0.0D).subtract(previous.getRealOffset(0.0D)).doubleValue() / previous.getResolution();
+        myY0 = view.getImaginaryOffset(0.0D).subtract(previous.getImaginaryOffset(0.0D)).doubleValue() / previous.getResolution();
+
+        align();
+    }
+
+    /**
+     * Returns the mapping from the previous view to the view, or null if neither the resolution nor the size changed.
+     */
+    public static ZoomMapping between(final View previous, final View view) {
+        if (previous.getSize().equals(view.getSize()) && previous.getResolution() == view.getResolution()) {
+            return null;
+        }
+        return new ZoomMapping(previous, view);
+    }
+
+    private void align() {
+        final long zoomIn = round(1.0D / myRatio);
+        final long zoomOut = round(myRatio);
+
+        if (zoomIn >= 2L && abs(myRatio * zoomIn - 1.0D) < 1.0E-9D) {
+            myStep = (int) zoomIn;
+        } else if (zoomOut >= 1L && abs(myRatio / zoomOut - 1.0D) < 1.0E-9D) {
+            myStep = 1;
+        } else {
+            return;
+        }
+
+        myFirstX = firstAligned(myX0, mySize.width);
+        myFirstY = firstAligned(myY0, mySize.height);
+
+        if (myFirstX == -1 || myFirstY == -1) {
+            myStep = 0;
+            return;
+        }
+
+        final int x1 = firstInside(myX0, myFirstX, mySize.width);
+        final int x2 = lastInside(myX0, myFirstX, mySize.width, myPreviousSize.width);
+        final int y1 = firstInside(myY0, myFirstY, mySize.height);
+        final int y2 = lastInside(myY0, myFirstY, mySize.height, myPreviousSize.height);
+
+        if (x1 > x2 || y1 > y2) {
+            myStep = 0;
+            return;
+        }
+
+        myCommonBounds = new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1);
+
+        // zooming in, the other samples are computed by the interleaved lattices, which cover the whole view
+        if (myStep > 1 && (x1 != myFirstX || x2 != last(myFirstX, mySize.width)
+                || y1 != myFirstY || y2 != last(myFirstY, mySize.height))) {
+            myStep = 0;
+        }
+    }
+
+    private int firstAligned(final double origin, final int length) {
+        for (int x = 0; x < Math.min(myStep, length); x++) {
+            final double u = origin + x * myRatio;
+            if (abs(u - round(u)) < TOLERANCE) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    private int firstInside(final double origin, final int first, final int length) {
+        int x = first;
+        while (x < length && map(origin, x) < 0) {
+            x += myStep;
+        }
+        return x;
+    }
+
+    private int lastInside(final double origin, final int first, final int length, final int previousLength) {
+        int x = last(first, length);
+        while (x >= 0 && map(origin, x) >= previousLength) {
+            x -= myStep;
+        }
+        return x;
+    }
+
+    private int last(final int first, final int length) {
+        return first + (length - 1 - first) / myStep * myStep;
+    }
+
+    private long map(final double origin, final int x) {
+        return round(origin + x * myRatio);
+    }
+
+    /**
+     * Returns the nearest pixel of the previous view (clamped to the bounds of the previous view).
+     */
+    public int getPreviousX(final int x) {
+        return clamp(map(myX0, x), myPreviousSize.width);
+    }
+
+    public int getPreviousY(final int y) {
+        return clamp(map(myY0, y), myPreviousSize.height);
+    }
+
+    private static int clamp(final long value, final int length) {
+        return (int) Math.min(Math.max(value, 0L), length - 1L);
+    }
+
+    /**
+     * Returns the distance between the common samples, or 0 if the samples do not line up.
+     */
+    public int getStep() {
+        return myStep;
+    }
+
+    /**
+     * Returns the x of the first common sample (when the samples line up).
+     */
+    public int getFirstX() {
+        return myFirstX;
+    }
+
+    public int getFirstY() {
+        return myFirstY;
+    }
+
+    /**
+     * Returns the bounds of the common samples (when the samples line up).
+     */
+    public Rectangle getCommonBounds() {
+        return new Rectangle(myCommonBounds);
+    }
+
+    /**
+     * Fills the counts of the view with the counts of the common samples (taken from the counts of the previous view),
+     * and passes the other samples to the renderer (the samples must line up).
+     */
+    public void reuse(final int[] previousCounts, final int previousMaxIterations,
+                      final int[] counts, final int maxIterations, final Samples samples) {
+        final int step = myStep;
+        final Rectangle common = myCommonBounds;
+
+        // an escape time does not depend on the limit, but a sample that has not escaped
+        // may escape within a greater limit, so the bands of such samples are rendered again
+        // (and a sample that escapes at or beyond a lesser limit has not escaped within it)
+        final boolean limitGrown = maxIterations > previousMaxIterations;
+
+        int bandY = -1;
+        int bandX1 = Integer.MAX_VALUE;
+        int bandX2 = -1;
+
+        for (int y = common.y; y < common.y + common.height; y += step) {
+            final int offset = y * mySize.width;
+            final int previousOffset = getPreviousY(y) * myPreviousSize.width;
+
+            int x1 = -1;
+            int x2 = -1;
+
+            for (int x = common.x; x < common.x + common.width; x += step) {
+                final int count = previousCounts[previousOffset + getPreviousX(x)];
+                counts[offset + x] = count >= maxIterations ? 0 : count;
+
+                if (count == 0 && limitGrown) {
+                    if (x1 == -1) {
+                        x1 = x;
+                    }
+                    x2 = x;
+                }
+            }
+
+            if (x1 != -1) {
+                if (bandY == -1) {
+                    bandY = y;
+                }
+                bandX1 = Math.min(bandX1, x1);
+                bandX2 = Math.max(bandX2, x2);
+            } else if (bandY != -1) {
+                samples.render(bandX1, bandY, step, bandX2 + 1, y);
+                bandY = -1;
+                bandX1 = Integer.MAX_VALUE;
+                bandX2 = -1;
+            }
+        }
+
+        if (bandY != -1) {
+            samples.render(bandX1, bandY, step, bandX2 + 1, common.y + common.height);
+        }
+
+        if (step > 1) {
+            // zooming in, the common samples form one of the interleaved lattices
+            for (int j = 0; j < step; j++) {
+                for (int i = 0; i < step; i++) {
+                    if (i != 0 || j != 0) {
+                        samples.render((myFirstX + i) % step, (myFirstY + j) % step, step, mySize.width, mySize.height);
+                    }
+                }
+            }
+        } else {
+            // otherwise, the common samples form a rectangle
+            final int bottom = common.y + common.height;
+            samples.render(0, 0, 1, mySize.width, common.y);
+            samples.render(0, bottom, 1, mySize.width, mySize.height);
+            samples.render(0, common.y, 1, common.x, bottom);
+            samples.render(common.x + common.width, common.y, 1, mySize.width, bottom);
+        }
+    }
+
+    /**
+     * Renders the samples of the view that cannot be reused.
+     */
+    public interface Samples {
+        /**
+         * Renders the samples at (x0 + i * step, y0 + j * step) that lie above and to the left of (x1, y1)
+         * (the area may be empty).
+         */
+        void render(int x0, int y0, int step, int x1, int y1);
+    }
+}
@@ -18,10 +18,10 @@
 package com.pavelfatin.fractal.picture;
 
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 public abstract class AbstractPicture implements Picture {
-    private final Deque<PictureListener> myListeners = new LinkedList<PictureListener>();
+    private final Deque<PictureListener> myListeners = new ConcurrentLinkedDeque<PictureListener>();
 
     public void addPictureListener(final PictureListener listener) {
         myListeners.addFirst(listener);
@@ -31,4 +31,23 @@ public class DrawUpdate implements Update {
     public void apply(final Graphics graphics) {
         graphics.drawImage(myImage, myLocation.x, myLocation.y, null);
     }
+
+    public void apply(final RingBuffer buffer) {
+        final Rectangle bounds = new Rectangle(myLocation, new Dimension(myImage.getWidth(null), myImage.getHeight(null)));
+
+        buffer.draw(bounds, new RingBuffer.Painter() {
+            @Override
+            public void paint(final Graphics graphics) {
+                apply(graphics);
+            }
+        });
+    }
+
+    public boolean covers(final int width, final int height) {
+        return myLocation.x <= 0 && myLocation.y <= 0
+                && myLocation.x + myImage.getWidth(null) >= width && myLocation.y + myImage.getHeight(null) >= height;
+    }
+
+    public void discard() {
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal.picture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reusable images of a fixed size (in the display-compatible RGB format), which are written
+ * through their backing arrays, so that neither the pixels are copied nor the images are allocated
+ * once the pool holds enough images for the updates in flight.
+ * <p/>
+ * There are at most as many images as the capacity, when they are all in flight (i.e. the painting
+ * falls behind), an acquire waits for a release. The images can be acquired and released on any thread.
+ */
+public class ImagePool {
+    private final Dimension mySize;
+    private final int myCapacity;
+    private final Deque<BufferedImage> myImages = new ArrayDeque<BufferedImage>();
+    private int myAllocationCount;
+    private boolean myDisposed;
+
+    public ImagePool(final Dimension size, final int capacity) {
+        mySize = new Dimension(size);
+        myCapacity = capacity;
+    }
+
+    public Dimension getSize() {
+        return new Dimension(mySize);
+    }
+
+    /**
+     * Returns a free image (waiting for one if all the images are in flight), its content is undefined.
+     */
+    public BufferedImage acquire() {
+        synchronized (myImages) {
+            while (myImages.isEmpty() && myAllocationCount >= myCapacity && !myDisposed) {
+                try {
+                    myImages.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            final BufferedImage image = myImages.poll();
+
+            if (image != null) return image;
+
+            myAllocationCount++;
+        }
+
+        return new BufferedImage(mySize.width, mySize.height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    public void release(final BufferedImage image) {
+        synchronized (myImages) {
+            myImages.add(image);
+            myImages.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of images allocated so far (with the pool empty).
+     */
+    public int getAllocationCount() {
+        synchronized (myImages) {
+            return myAllocationCount;
+        }
+    }
+
+    /**
+     * Stops the waiting for the images (which may never be released then), the pool is not limited afterwards.
+     */
+    public void dispose() {
+        synchronized (myImages) {
+            myDisposed = true;
+            myImages.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the backing array of the image (the pixels are stored row by row, with the width of the pool).
+     */
+    public static int[] getData(final BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal.picture;
+
+import java.awt.*;
+
+/**
+ * Scrolls the picture and draws the blocks that the scroll uncovers (see {@link UpdatePool}).
+ */
+public class MoveUpdate implements Update {
+    /** A move uncovers a horizontal and a vertical block at most. */
+    private static final int MAX_DRAWS = 2;
+
+    private final UpdatePool myPool;
+    private final Rectangle mySource = new Rectangle();
+    private final Update[] myDraws = new Update[MAX_DRAWS];
+    private int myDx;
+    private int myDy;
+    private int myDrawCount;
+
+    MoveUpdate(final UpdatePool pool) {
+        myPool = pool;
+    }
+
+    void set(final Rectangle source, final int dx, final int dy) {
+        mySource.setBounds(source);
+        myDx = dx;
+        myDy = dy;
+    }
+
+    /**
+     * Adds a draw that is applied after the scroll (the draw is applied or discarded with the move).
+     */
+    public void add(final Update draw) {
+        myDraws[myDrawCount++] = draw;
+    }
+
+    public void apply(final Graphics graphics) {
+        graphics.copyArea(mySource.x, mySource.y, mySource.width, mySource.height, myDx, myDy);
+
+        for (int i = 0; i < myDrawCount; i++) {
+            myDraws[i].apply(graphics);
+        }
+
+        release();
+    }
+
+    public void apply(final RingBuffer buffer) {
+        buffer.scroll(myDx, myDy);
+
+        for (int i = 0; i < myDrawCount; i++) {
+            myDraws[i].apply(buffer);
+        }
+
+        release();
+    }
+
+    public boolean covers(final int width, final int height) {
+        for (int i = 0; i < myDrawCount; i++) {
+            if (myDraws[i].covers(width, height)) return true;
+        }
+        return false;
+    }
+
+    public void discard() {
+        for (int i = 0; i < myDrawCount; i++) {
+            myDraws[i].discard();
+        }
+
+        release();
+    }
+
+    private void release() {
+        for (int i = 0; i < myDrawCount; i++) {
+            myDraws[i] = null;
+        }
+        myDrawCount = 0;
+
+        myPool.release(this);
+    }
+}
@@ -17,10 +17,14 @@
 
 package com.pavelfatin.fractal.picture;
 
-import java.awt.*;
-
 public interface Picture {
+    /**
+     * The listeners may be notified on any thread.
+     */
     void addPictureListener(PictureListener listener);
 
-    Update update(Rectangle bounds);
+    /**
+     * Asks for an update of the whole picture, the listeners receive it later (the picture is not re-rendered).
+     */
+    void refresh();
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal.picture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the top-left part of a pooled image (magnified by the scale, if any) into the bounds,
+ * and returns the image and itself to the pool (see {@link UpdatePool}).
+ */
+public class PooledDrawUpdate implements Update {
+    private final UpdatePool myPool;
+    private final Rectangle myBounds = new Rectangle();
+    private BufferedImage myImage;
+    private int myScale;
+
+    /** Draws into the wrap-around buffer (created once, as the update is reused). */
+    private final RingBuffer.Painter myPainter = new RingBuffer.Painter() {
+        @Override
+        public void paint(final Graphics graphics) {
+            draw(graphics);
+        }
+    };
+
+    PooledDrawUpdate(final UpdatePool pool) {
+        myPool = pool;
+    }
+
+    void set(final BufferedImage image, final Rectangle bounds, final int scale) {
+        myImage = image;
+        myBounds.setBounds(bounds);
+        myScale = scale;
+    }
+
+    public void apply(final Graphics graphics) {
+        draw(graphics);
+        release();
+    }
+
+    public void apply(final RingBuffer buffer) {
+        buffer.draw(myBounds, myPainter);
+        release();
+    }
+
+    public boolean covers(final int width, final int height) {
+        return myBounds.contains(0, 0, width, height);
+    }
+
+    public void discard() {
+        release();
+    }
+
+    private void release() {
+        final BufferedImage image = myImage;
+        myImage = null;
+        myPool.release(this, image);
+    }
+
+    private void draw(final Graphics graphics) {
+        final int x = myBounds.x;
+        final int y = myBounds.y;
+
+        if (myScale == 1) {
+            graphics.drawImage(myImage,
+                    x, y, x + myBounds.width, y + myBounds.height,
+                    0, 0, myBounds.width, myBounds.height,
+                    null);
+        } else {
+            final int columns = (myBounds.width + myScale - 1) / myScale;
+            final int rows = (myBounds.height + myScale - 1) / myScale;
+
+            final Graphics2D g = (Graphics2D) graphics.create(x, y, myBounds.width, myBounds.height);
+
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(myImage, 0, 0, columns * myScale, rows * myScale, 0, 0, columns, rows, null);
+
+            g.dispose();
+        }
+    }
+}
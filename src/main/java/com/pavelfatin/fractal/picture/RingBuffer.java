@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.picture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A wrap-around (toroidal) image: the picture is stored relative to an origin, so that a scroll
+ * only moves the origin (instead of the pixels), and any rectangle of the picture
+ * is at most four rectangles of the image.
+ */
+public class RingBuffer {
+    private final BufferedImage myImage;
+    private final int myWidth;
+    private final int myHeight;
+
+    /** The location of the top-left pixel of the picture in the image. */
+    private int myOriginX;
+    private int myOriginY;
+
+    public RingBuffer(final int width, final int height) {
+        myImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        myWidth = width;
+        myHeight = height;
+    }
+
+    public int getWidth() {
+        return myWidth;
+    }
+
+    public int getHeight() {
+        return myHeight;
+    }
+
+    /**
+     * Shifts the picture, the area that it uncovers holds the pixels that are shifted out (on the opposite side).
+     */
+    public void scroll(final int dx, final int dy) {
+        myOriginX = Math.floorMod(myOriginX - dx, myWidth);
+        myOriginY = Math.floorMod(myOriginY - dy, myHeight);
+    }
+
+    /**
+     * Draws onto the rectangle of the picture: the painter is called for each piece of the rectangle
+     * (at most four), with the graphics translated and clipped to the piece.
+     */
+    public void draw(final Rectangle r, final Painter painter) {
+        final int[] columns = split(r.x, r.width, myOriginX, myWidth);
+        final int[] rows = split(r.y, r.height, myOriginY, myHeight);
+
+        for (int j = 0; j < rows.length; j += 3) {
+            for (int i = 0; i < columns.length; i += 3) {
+                final Graphics graphics = myImage.createGraphics();
+                graphics.clipRect(columns[i + 1], rows[j + 1], columns[i + 2], rows[j + 2]);
+                graphics.translate(columns[i + 1] - columns[i], rows[j + 1] - rows[j]);
+                painter.paint(graphics);
+                graphics.dispose();
+            }
+        }
+    }
+
+    /**
+     * Draws the rectangle of the picture at the same location of the graphics (with at most four blits).
+     */
+    public void present(final Graphics graphics, final Rectangle r) {
+        final int[] columns = split(r.x, r.width, myOriginX, myWidth);
+        final int[] rows = split(r.y, r.height, myOriginY, myHeight);
+
+        for (int j = 0; j < rows.length; j += 3) {
+            for (int i = 0; i < columns.length; i += 3) {
+                final int x = columns[i];
+                final int y = rows[j];
+                final int u = columns[i + 1];
+                final int v = rows[j + 1];
+                final int width = columns[i + 2];
+                final int height = rows[j + 2];
+
+                graphics.drawImage(myImage, x, y, x + width, y + height, u, v, u + width, v + height, null);
+            }
+        }
+    }
+
+    /**
+     * Splits the span of the picture (clipped to the picture) into the spans that are contiguous in the image,
+     * returns the triples of (picture position, image position, length).
+     */
+    private static int[] split(final int start, final int length, final int origin, final int size) {
+        final int first = Math.max(start, 0);
+        final int last = Math.min(start + length, size);
+
+        if (first >= last) {
+            return new int[0];
+        }
+
+        final int position = (first + origin) % size;
+        final int head = Math.min(last - first, size - position);
+
+        if (head == last - first) {
+            return new int[]{first, position, head};
+        }
+
+        return new int[]{first, position, head, first + head, 0, last - first - head};
+    }
+
+    /**
+     * Draws in the picture coordinates.
+     */
+    public interface Painter {
+        void paint(Graphics graphics);
+    }
+}
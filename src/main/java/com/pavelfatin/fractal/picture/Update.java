@@ -21,4 +21,19 @@ import java.awt.*;
 
 public interface Update {
     void apply(final Graphics graphics);
+
+    /**
+     * Applies the update to a wrap-around buffer, where a copy (which is always a scroll) only moves the origin.
+     */
+    void apply(final RingBuffer buffer);
+
+    /**
+     * Returns whether the update draws over the whole picture of the size (so that the preceding updates may be dropped).
+     */
+    boolean covers(final int width, final int height);
+
+    /**
+     * Drops the update instead of applying it.
+     */
+    void discard();
 }
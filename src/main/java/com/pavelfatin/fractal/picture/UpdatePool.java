@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pavelfatin.fractal.picture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Reusable updates, so that panning allocates no update objects once the pool holds enough updates
+ * for the updates in flight. A pooled update returns itself (and its image) to the pool when it is applied
+ * or discarded, so it must be either applied or discarded once, and must not be used afterwards.
+ * The updates can be acquired and released on any thread.
+ */
+public class UpdatePool {
+    private final ImagePool myImagePool;
+    private final Deque<PooledDrawUpdate> myDrawUpdates = new ArrayDeque<PooledDrawUpdate>();
+    private final Deque<MoveUpdate> myMoveUpdates = new ArrayDeque<MoveUpdate>();
+
+    public UpdatePool(final ImagePool imagePool) {
+        myImagePool = imagePool;
+    }
+
+    /**
+     * Returns an update that draws the top-left part of the pooled image (magnified by the scale, if any)
+     * into the bounds (which are copied).
+     */
+    public PooledDrawUpdate acquireDraw(final BufferedImage image, final Rectangle bounds, final int scale) {
+        PooledDrawUpdate update;
+
+        synchronized (myDrawUpdates) {
+            update = myDrawUpdates.poll();
+        }
+
+        if (update == null) {
+            update = new PooledDrawUpdate(this);
+        }
+
+        update.set(image, bounds, scale);
+
+        return update;
+    }
+
+    /**
+     * Returns an update that moves the source rectangle by dx, dy, then applies the draws that are added to it.
+     */
+    public MoveUpdate acquireMove(final Rectangle source, final int dx, final int dy) {
+        MoveUpdate update;
+
+        synchronized (myMoveUpdates) {
+            update = myMoveUpdates.poll();
+        }
+
+        if (update == null) {
+            update = new MoveUpdate(this);
+        }
+
+        update.set(source, dx, dy);
+
+        return update;
+    }
+
+    void release(final PooledDrawUpdate update, final BufferedImage image) {
+        myImagePool.release(image);
+
+        synchronized (myDrawUpdates) {
+            myDrawUpdates.add(update);
+        }
+    }
+
+    void release(final MoveUpdate update) {
+        synchronized (myMoveUpdates) {
+            myMoveUpdates.add(update);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the cheapest sufficient precision for each frame: float (twice the vector lanes)
+ * for the shallow views, double for the most of the zoom range, and perturbation beyond that.
+ * A precision is sufficient when a pixel spans many units in the last place of the coordinates,
+ * so that the rounding errors (amplified by the iterations) stay well below the pixel size.
+ */
+class AutoPrecisionRenderer implements TieredRenderer, ParallelRenderer, OrbitCachingRenderer {
+    /** How many units in the last place a pixel must span (at this ratio float differs from double in ~0.05% of pixels). */
+    private static final double PRECISION_MARGIN = 8192.0D;
+
+    private final Renderer myFloatRenderer;
+    private final Renderer myDoubleRenderer;
+    private final Renderer myExtendedRenderer;
+
+    private final int[] myUsage = new int[Precision.values().length];
+
+    private volatile Precision myPrecision = Precision.Double;
+
+    /** The precision of the current frame, or null before the first frame. */
+    private volatile Precision myFramePrecision;
+
+    /**
+     * @param floatRenderer the float renderer, or null if there is none
+     */
+    AutoPrecisionRenderer(final Renderer floatRenderer,
+                          final Renderer doubleRenderer,
+                          final Renderer extendedRenderer) {
+        myFloatRenderer = floatRenderer;
+        myDoubleRenderer = doubleRenderer;
+        myExtendedRenderer = extendedRenderer;
+    }
+
+    @Override
+    public boolean startFrame(final BigDecimal realOffset,
+                              final BigDecimal imaginaryOffset,
+                              final int width,
+                              final int height,
+                              final double resolution) {
+        final Precision precision = precisionFor(width, height, realOffset.doubleValue(), imaginaryOffset.doubleValue(), resolution);
+
+        final boolean changed = precision != myPrecision;
+
+        myFramePrecision = precision;
+        count(precision);
+
+        return changed;
+    }
+
+    @Override
+    public void render(final int[] buffer,
+                       final int width,
+                       final int height,
+                       final BigDecimal realOffset,
+                       final BigDecimal imaginaryOffset,
+                       final double resolution,
+                       final int maxIterations) {
+        Precision precision = myFramePrecision;
+
+        if (precision == null) {
+            precision = precisionFor(width, height, realOffset.doubleValue(), imaginaryOffset.doubleValue(), resolution);
+            count(precision);
+        }
+
+        rendererFor(precision).render(buffer, width, height, realOffset, imaginaryOffset, resolution, maxIterations);
+    }
+
+    /**
+     * Renders the batch with the precision of the frame, or (before the first frame)
+     * with the precision that is sufficient for all the regions.
+     */
+    @Override
+    public void render(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        final Precision framePrecision = myFramePrecision;
+
+        if (framePrecision != null) {
+            rendererFor(framePrecision).render(regions, resolution, maxIterations);
+            return;
+        }
+
+        Precision precision = Precision.Float;
+
+        for (final RenderRegion region : regions) {
+            final Precision regionPrecision = precisionFor(region.getWidth(), region.getHeight(),
+                    region.getRealOffset().doubleValue(), region.getImaginaryOffset().doubleValue(), resolution);
+
+            if (regionPrecision.compareTo(precision) > 0) {
+                precision = regionPrecision;
+            }
+        }
+
+        count(precision);
+
+        rendererFor(precision).render(regions, resolution, maxIterations);
+    }
+
+    private void count(final Precision precision) {
+        synchronized (myUsage) {
+            myUsage[precision.ordinal()]++;
+        }
+
+        myPrecision = precision;
+    }
+
+    @Override
+    public double getMinResolution() {
+        return myExtendedRenderer.getMinResolution();
+    }
+
+    private Precision precisionFor(final int width,
+                                   final int height,
+                                   final double realOffset,
+                                   final double imaginaryOffset,
+                                   final double resolution) {
+        final double magnitude = Math.max(
+                Math.max(Math.abs(realOffset), Math.abs(realOffset + width * resolution)),
+                Math.max(Math.abs(imaginaryOffset), Math.abs(imaginaryOffset + height * resolution)));
+
+        if (myFloatRenderer != null && resolution >= PRECISION_MARGIN * Math.ulp((float) magnitude)) {
+            return Precision.Float;
+        }
+
+        return resolution >= PRECISION_MARGIN * Math.ulp(magnitude) ? Precision.Double : Precision.Extended;
+    }
+
+    private Renderer rendererFor(final Precision precision) {
+        switch (precision) {
+            case Float:
+                return myFloatRenderer;
+            case Double:
+                return myDoubleRenderer;
+            case Extended:
+                return myExtendedRenderer;
+            default:
+                throw new RuntimeException("Unknown precision: " + precision);
+        }
+    }
+
+    @Override
+    public Precision getPrecision() {
+        return myPrecision;
+    }
+
+    @Override
+    public Map<Precision, Integer> getPrecisionUsage() {
+        final Map<Precision, Integer> usage = new EnumMap<Precision, Integer>(Precision.class);
+
+        synchronized (myUsage) {
+            for (final Precision precision : Precision.values()) {
+                usage.put(precision, myUsage[precision.ordinal()]);
+            }
+        }
+
+        return usage;
+    }
+
+    @Override
+    public double[] getWorkerUtilization() {
+        final Renderer renderer = rendererFor(myPrecision);
+
+        return renderer instanceof ParallelRenderer
+                ? ((ParallelRenderer) renderer).getWorkerUtilization()
+                : new double[0];
+    }
+
+    @Override
+    public void cancel() {
+        if (myFloatRenderer != null) {
+            myFloatRenderer.cancel();
+        }
+        myDoubleRenderer.cancel();
+        myExtendedRenderer.cancel();
+    }
+
+    @Override
+    public void resume() {
+        if (myFloatRenderer != null) {
+            myFloatRenderer.resume();
+        }
+        myDoubleRenderer.resume();
+        myExtendedRenderer.resume();
+    }
+
+    @Override
+    public void clearOrbits() {
+        if (myExtendedRenderer instanceof OrbitCachingRenderer) {
+            ((OrbitCachingRenderer) myExtendedRenderer).clearOrbits();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (myFloatRenderer != null) {
+            myFloatRenderer.dispose();
+        }
+        myDoubleRenderer.dispose();
+        myExtendedRenderer.dispose();
+    }
+}
@@ -17,41 +17,163 @@
 
 package com.pavelfatin.fractal.renderer;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 abstract class CPURenderer implements Renderer {
-    protected static void render(final int[] buffer,
-                                 final int width,
-                                 final int y0,
-                                 final int y1,
-                                 final double xOffset,
-                                 final double yOffset,
-                                 final double resolution) {
+    /**
+     * Below this resolution the double coordinates are too coarse for the analytic interior test
+     * (which would misclassify the points near the boundary, i.e. most of such a view).
+     */
+    static final double MIN_INTERIOR_CHECK_RESOLUTION = 1.0E-12D;
+
+    /** A few units in the last place of the coordinates (which are below 2). */
+    private static final double MIN_RESOLUTION = 4.0D * Math.ulp(2.0D);
+
+    private final boolean myInteriorChecking;
+
+    private volatile boolean myCancelled;
+
+    protected CPURenderer(final boolean interiorChecking) {
+        myInteriorChecking = interiorChecking;
+    }
+
+    protected boolean isInteriorChecking() {
+        return myInteriorChecking;
+    }
+
+    @Override
+    public void render(final int[] buffer,
+                       final int width,
+                       final int height,
+                       final BigDecimal realOffset,
+                       final BigDecimal imaginaryOffset,
+                       final double resolution,
+                       final int maxIterations) {
+        render(buffer, width, height, realOffset.doubleValue(), imaginaryOffset.doubleValue(), resolution, maxIterations);
+    }
+
+    @Override
+    public void render(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        renderAll(regions, resolution, maxIterations);
+    }
+
+    /**
+     * Renders the regions one by one (a subclass may render them in a single dispatch).
+     */
+    protected void renderAll(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        for (final RenderRegion region : regions) {
+            if (isCancelled()) return;
+
+            render(region.getBuffer(), region.getWidth(), region.getHeight(),
+                    region.getRealOffset().doubleValue(), region.getImaginaryOffset().doubleValue(),
+                    resolution, maxIterations);
+        }
+    }
+
+    @Override
+    public double getMinResolution() {
+        return MIN_RESOLUTION;
+    }
+
+    @Override
+    public void cancel() {
+        myCancelled = true;
+    }
+
+    @Override
+    public void resume() {
+        myCancelled = false;
+    }
+
+    /**
+     * The renderers check this between the tiles (or rows).
+     */
+    protected boolean isCancelled() {
+        return myCancelled;
+    }
+
+    protected abstract void render(int[] buffer,
+                                   int width,
+                                   int height,
+                                   double realOffset,
+                                   double imaginaryOffset,
+                                   double resolution,
+                                   int maxIterations);
+
+    protected void render(final int[] buffer,
+                          final int width,
+                          final int x0,
+                          final int y0,
+                          final int x1,
+                          final int y1,
+                          final double xOffset,
+                          final double yOffset,
+                          final double resolution,
+                          final int maxIterations) {
         double a;
-        double b = yOffset + y0 * resolution;
+        double b;
 
         int x;
-        int i = y0 * width;
+        int i;
 
         for (int y = y0; y < y1; y++) {
-            a = xOffset;
-            for (x = 0; x < width; x++) {
-                buffer[i] = bound(a, b);
-                a += resolution;
+            b = yOffset + y * resolution;
+            i = y * width + x0;
+            for (x = x0; x < x1; x++) {
+                a = xOffset + x * resolution;
+                buffer[i] = myInteriorChecking ? checkedBound(a, b, maxIterations) : bound(a, b, maxIterations);
                 i++;
             }
-            b += resolution;
         }
     }
 
-    private static int bound(final double aSeed, final double bSeed) {
+    static int bound(final double aSeed, final double bSeed, final int maxIterations) {
+        double aValue = aSeed;
+        double bValue = bSeed;
+
+        int i = 1;
+
+        double aSqr;
+        double bSqr;
+
+        while (i < maxIterations) {
+            aSqr = aValue * aValue;
+            bSqr = bValue * bValue;
+
+            bValue = 2.0D * aValue * bValue + bSeed;
+            aValue = aSqr - bSqr + aSeed;
+
+            if (aSqr + bSqr >= 4.0D) return i;
+
+            i++;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gives the same result as {@link #bound(double, double, int)}, but returns early for points
+     * that lie in the main cardioid or in the period-2 bulb, and for orbits that revisit
+     * a previously saved value exactly (and therefore cycle forever).
+     */
+    static int checkedBound(final double aSeed, final double bSeed, final int maxIterations) {
+        if (isInterior(aSeed, bSeed)) return 0;
+
         double aValue = aSeed;
         double bValue = bSeed;
 
+        double aSaved = 0.0D;
+        double bSaved = 0.0D;
+
         int i = 1;
+        int period = 0;
+        int window = 8;
 
         double aSqr;
         double bSqr;
 
-        while (i < 256) {
+        while (i < maxIterations) {
             aSqr = aValue * aValue;
             bSqr = bValue * bValue;
 
@@ -60,9 +182,33 @@ abstract class CPURenderer implements Renderer {
 
             if (aSqr + bSqr >= 4.0D) return i;
 
+            if (aValue == aSaved && bValue == bSaved) return 0;
+
+            period++;
+
+            if (period == window) {
+                period = 0;
+                window *= 2;
+                aSaved = aValue;
+                bSaved = bValue;
+            }
+
             i++;
         }
 
         return 0;
     }
+
+    static boolean isInterior(final double a, final double b) {
+        final double bSqr = b * b;
+
+        final double aShifted = a - 0.25D;
+        final double q = aShifted * aShifted + bSqr;
+
+        if (q * (q + aShifted) < 0.25D * bSqr) return true;
+
+        final double aBulb = a + 1.0D;
+
+        return aBulb * aBulb + bSqr < 0.0625D;
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+
+/**
+ * Iterates in double-double arithmetic: each value is an unevaluated sum of two doubles (high + low),
+ * which gives about 106 bits of precision, enough for the views between the limit of double
+ * and the depths that require perturbation. The operations are written out inline, so that
+ * no objects are allocated in the loop.
+ */
+class DoubleDoubleRenderer extends PointwiseRenderer {
+    /** A few units in the last place of the 106-bit coordinates. */
+    private static final double MIN_RESOLUTION = 1.0E-30D;
+
+    DoubleDoubleRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    protected Area createArea(final BigDecimal realOffset,
+                              final BigDecimal imaginaryOffset,
+                              final int width,
+                              final int height,
+                              final double resolution,
+                              final int maxIterations) {
+        return new DoubleDoubleArea(realOffset, imaginaryOffset, resolution, maxIterations);
+    }
+
+    @Override
+    public double getMinResolution() {
+        return MIN_RESOLUTION;
+    }
+
+    private class DoubleDoubleArea extends Area {
+        private final double myRealHigh;
+        private final double myRealLow;
+        private final double myImaginaryHigh;
+        private final double myImaginaryLow;
+
+        DoubleDoubleArea(final BigDecimal realOffset,
+                         final BigDecimal imaginaryOffset,
+                         final double resolution,
+                         final int maxIterations) {
+            super(resolution, maxIterations);
+
+            myRealHigh = realOffset.doubleValue();
+            myRealLow = realOffset.subtract(new BigDecimal(myRealHigh)).doubleValue();
+            myImaginaryHigh = imaginaryOffset.doubleValue();
+            myImaginaryLow = imaginaryOffset.subtract(new BigDecimal(myImaginaryHigh)).doubleValue();
+        }
+
+        @Override
+        protected int boundAt(final int x, final int y, final double resolution, final int maxIterations) {
+            double s;
+            double e;
+
+            // c = offset + x * resolution
+            final double aStep = x * resolution;
+            s = myRealHigh + aStep;
+            e = (myRealHigh - (s - (s - myRealHigh))) + (aStep - (s - myRealHigh)) + myRealLow;
+            final double aSeedHigh = s + e;
+            final double aSeedLow = e - (aSeedHigh - s);
+
+            final double bStep = y * resolution;
+            s = myImaginaryHigh + bStep;
+            e = (myImaginaryHigh - (s - (s - myImaginaryHigh))) + (bStep - (s - myImaginaryHigh)) + myImaginaryLow;
+            final double bSeedHigh = s + e;
+            final double bSeedLow = e - (bSeedHigh - s);
+
+            final boolean checking = isInteriorChecking();
+
+            if (checking && resolution > MIN_INTERIOR_CHECK_RESOLUTION && isInterior(aSeedHigh, bSeedHigh)) return 0;
+
+            double aHigh = aSeedHigh;
+            double aLow = aSeedLow;
+            double bHigh = bSeedHigh;
+            double bLow = bSeedLow;
+
+            double aSavedHigh = 0.0D;
+            double aSavedLow = 0.0D;
+            double bSavedHigh = 0.0D;
+            double bSavedLow = 0.0D;
+
+            int i = 1;
+            int period = 0;
+            int window = 8;
+
+            double p;
+
+            while (i < maxIterations) {
+                // a^2
+                p = aHigh * aHigh;
+                e = Math.fma(aHigh, aHigh, -p) + 2.0D * aHigh * aLow;
+                final double aSqrHigh = p + e;
+                final double aSqrLow = e - (aSqrHigh - p);
+
+                // b^2
+                p = bHigh * bHigh;
+                e = Math.fma(bHigh, bHigh, -p) + 2.0D * bHigh * bLow;
+                final double bSqrHigh = p + e;
+                final double bSqrLow = e - (bSqrHigh - p);
+
+                if (aSqrHigh + bSqrHigh >= 4.0D) return i;
+
+                // 2ab
+                p = aHigh * bHigh;
+                e = Math.fma(aHigh, bHigh, -p) + (aHigh * bLow + aLow * bHigh);
+                final double abHigh = 2.0D * (p + e);
+                final double abLow = 2.0D * (e - ((p + e) - p));
+
+                // b' = 2ab + c.b
+                s = abHigh + bSeedHigh;
+                p = s - abHigh;
+                e = (abHigh - (s - p)) + (bSeedHigh - p) + abLow + bSeedLow;
+                bHigh = s + e;
+                bLow = e - (bHigh - s);
+
+                // a' = a^2 - b^2 + c.a
+                s = aSqrHigh - bSqrHigh;
+                p = s - aSqrHigh;
+                e = (aSqrHigh - (s - p)) + (-bSqrHigh - p) + aSqrLow - bSqrLow;
+                final double dHigh = s + e;
+                final double dLow = e - (dHigh - s);
+
+                s = dHigh + aSeedHigh;
+                p = s - dHigh;
+                e = (dHigh - (s - p)) + (aSeedHigh - p) + dLow + aSeedLow;
+                aHigh = s + e;
+                aLow = e - (aHigh - s);
+
+                if (checking) {
+                    if (aHigh == aSavedHigh && aLow == aSavedLow && bHigh == bSavedHigh && bLow == bSavedLow) return 0;
+
+                    period++;
+
+                    if (period == window) {
+                        period = 0;
+                        window *= 2;
+                        aSavedHigh = aHigh;
+                        aSavedLow = aLow;
+                        bSavedHigh = bHigh;
+                        bSavedLow = bLow;
+                    }
+                }
+
+                i++;
+            }
+
+            return 0;
+        }
+    }
+}
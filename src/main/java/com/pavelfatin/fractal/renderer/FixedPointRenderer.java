@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Iterates in fixed point: each value is an integer scaled by 2^118, kept as a signed high long
+ * (the value in units of 2^-56) and a low long that holds the remaining 62 bits. This leaves 3 bits
+ * for the integer part (enough for |z|^2 before the escape test) and gives a step of about 3e-36.
+ * <p/>
+ * As the low words are non-negative and below 2^62, the partial products are exact signed
+ * {@link Math#multiplyHigh} products and the carries are the top bits of the sums. 2ab is computed
+ * as (a + b)^2 - a^2 - b^2, so that each iteration takes three squares, and a square is within
+ * two steps of the exact one.
+ * <p/>
+ * Unlike the floating-point renderers, the result depends only on the integer arithmetic,
+ * so it is bit-exact on any host and JVM.
+ */
+class FixedPointRenderer extends PointwiseRenderer {
+    private static final int FRACTION_BITS = 118;
+    private static final int LOW_BITS = 62;
+    private static final long LOW_MASK = (1L << LOW_BITS) - 1L;
+
+    /** The fraction bits of the high word. */
+    private static final int HIGH_FRACTION_BITS = FRACTION_BITS - LOW_BITS;
+
+    private static final BigDecimal ONE = new BigDecimal(BigInteger.ONE.shiftLeft(FRACTION_BITS));
+
+    /** The high word of 4.0. */
+    private static final long FOUR = 4L << HIGH_FRACTION_BITS;
+
+    /** The rounding of the squares adds a few steps per iteration, which must stay well below a pixel. */
+    private static final double MIN_RESOLUTION = Math.scalb(1.0D, 8 - FRACTION_BITS);
+
+    FixedPointRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    protected Area createArea(final BigDecimal realOffset,
+                              final BigDecimal imaginaryOffset,
+                              final int width,
+                              final int height,
+                              final double resolution,
+                              final int maxIterations) {
+        return new FixedPointArea(realOffset, imaginaryOffset, resolution, maxIterations);
+    }
+
+    private static BigInteger toFixed(final BigDecimal value) {
+        return value.multiply(ONE).setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+    }
+
+    private static long highOf(final BigInteger value) {
+        return value.shiftRight(LOW_BITS).longValueExact();
+    }
+
+    private static long lowOf(final BigInteger value) {
+        return value.longValue() & LOW_MASK;
+    }
+
+    @Override
+    public double getMinResolution() {
+        return MIN_RESOLUTION;
+    }
+
+    /**
+     * Returns the high word of the square of a fixed-point number.
+     * <p/>
+     * The words of a square are returned by two methods (rather than through an array),
+     * the compiler shares their common terms once they are inlined.
+     */
+    private static long squareHigh(final long high, final long low) {
+        // high^2 * 2^6 + high * low * 2^-55 + low^2 * 2^-118, in steps
+        final long highProduct = high * high;
+        final long crossProduct = high * low;
+        final long crossHigh = Math.multiplyHigh(high, low);
+
+        final long sum = ((highProduct << 6) & LOW_MASK)
+                + (((crossHigh << 9) | (crossProduct >>> 55)) & LOW_MASK)
+                + (Math.multiplyHigh(low, low) >> 54);
+
+        return ((Math.multiplyHigh(high, high) << 8) | (highProduct >>> 56)) + (crossHigh >> 53) + (sum >>> LOW_BITS);
+    }
+
+    /**
+     * Returns the low word of the square of a fixed-point number (see {@link #squareHigh(long, long)}).
+     */
+    private static long squareLow(final long high, final long low) {
+        final long highProduct = high * high;
+        final long crossProduct = high * low;
+        final long crossHigh = Math.multiplyHigh(high, low);
+
+        final long sum = ((highProduct << 6) & LOW_MASK)
+                + (((crossHigh << 9) | (crossProduct >>> 55)) & LOW_MASK)
+                + (Math.multiplyHigh(low, low) >> 54);
+
+        return sum & LOW_MASK;
+    }
+
+    private class FixedPointArea extends Area {
+        private final long myRealHigh;
+        private final long myRealLow;
+        private final long myImaginaryHigh;
+        private final long myImaginaryLow;
+        private final long myStepHigh;
+        private final long myStepLow;
+
+        FixedPointArea(final BigDecimal realOffset,
+                       final BigDecimal imaginaryOffset,
+                       final double resolution,
+                       final int maxIterations) {
+            super(resolution, maxIterations);
+
+            final BigInteger real = toFixed(realOffset);
+            myRealHigh = highOf(real);
+            myRealLow = lowOf(real);
+
+            final BigInteger imaginary = toFixed(imaginaryOffset);
+            myImaginaryHigh = highOf(imaginary);
+            myImaginaryLow = lowOf(imaginary);
+
+            final BigInteger step = toFixed(new BigDecimal(resolution));
+            myStepHigh = highOf(step);
+            myStepLow = lowOf(step);
+        }
+
+        @Override
+        protected int boundAt(final int x, final int y, final double resolution, final int maxIterations) {
+            // c = offset + x * step, x and y are non-negative
+            long lo = myStepLow * x;
+            long hi = myStepHigh * x + ((Math.multiplyHigh(myStepLow, x) << 2) | (lo >>> LOW_BITS));
+            lo = myRealLow + (lo & LOW_MASK);
+            final long aSeedHigh = myRealHigh + hi + (lo >>> LOW_BITS);
+            final long aSeedLow = lo & LOW_MASK;
+
+            lo = myStepLow * y;
+            hi = myStepHigh * y + ((Math.multiplyHigh(myStepLow, y) << 2) | (lo >>> LOW_BITS));
+            lo = myImaginaryLow + (lo & LOW_MASK);
+            final long bSeedHigh = myImaginaryHigh + hi + (lo >>> LOW_BITS);
+            final long bSeedLow = lo & LOW_MASK;
+
+            final boolean checking = isInteriorChecking();
+
+            if (checking && resolution > MIN_INTERIOR_CHECK_RESOLUTION
+                    && isInterior(Math.scalb((double) aSeedHigh, -HIGH_FRACTION_BITS),
+                    Math.scalb((double) bSeedHigh, -HIGH_FRACTION_BITS))) {
+                return 0;
+            }
+
+            long aHigh = aSeedHigh;
+            long aLow = aSeedLow;
+            long bHigh = bSeedHigh;
+            long bLow = bSeedLow;
+
+            long aSavedHigh = 0L;
+            long aSavedLow = 0L;
+            long bSavedHigh = 0L;
+            long bSavedLow = 0L;
+
+            int i = 1;
+            int period = 0;
+            int window = 8;
+
+            while (i < maxIterations) {
+                final long aSqrHigh = squareHigh(aHigh, aLow);
+                final long aSqrLow = squareLow(aHigh, aLow);
+
+                final long bSqrHigh = squareHigh(bHigh, bLow);
+                final long bSqrLow = squareLow(bHigh, bLow);
+
+                // the low words are below 2^62, so their sums and differences keep the carry in the top bits
+                lo = aSqrLow + bSqrLow;
+                final long normHigh = aSqrHigh + bSqrHigh + (lo >>> LOW_BITS);
+                final long normLow = lo & LOW_MASK;
+                if (normHigh >= FOUR) return i;
+
+                // 2ab = (a + b)^2 - a^2 - b^2, where (a + b)^2 <= 2 (a^2 + b^2) < 8
+                lo = aLow + bLow;
+                hi = aHigh + bHigh + (lo >>> LOW_BITS);
+                lo &= LOW_MASK;
+                final long sumSqrHigh = squareHigh(hi, lo);
+                final long sumSqrLow = squareLow(hi, lo);
+
+                // b' = 2ab + c.b
+                lo = sumSqrLow - normLow + bSeedLow;
+                bHigh = sumSqrHigh - normHigh + bSeedHigh + (lo >> LOW_BITS);
+                bLow = lo & LOW_MASK;
+
+                // a' = a^2 - b^2 + c.a
+                lo = aSqrLow - bSqrLow + aSeedLow;
+                aHigh = aSqrHigh - bSqrHigh + aSeedHigh + (lo >> LOW_BITS);
+                aLow = lo & LOW_MASK;
+
+                if (checking) {
+                    if (aHigh == aSavedHigh && aLow == aSavedLow && bHigh == bSavedHigh && bLow == bSavedLow) return 0;
+
+                    period++;
+
+                    if (period == window) {
+                        period = 0;
+                        window *= 2;
+                        aSavedHigh = aHigh;
+                        aSavedLow = aLow;
+                        bSavedHigh = bHigh;
+                        bSavedLow = bLow;
+                    }
+                }
+
+                i++;
+            }
+
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Single-precision counterpart of {@link VectorizedRenderer}: a vector of the same size holds twice
+ * as many lanes, but float is only good enough for the shallow views (see {@link TieredRenderer}).
+ * Requires the jdk.incubator.vector module (see {@link RendererFactory}).
+ */
+class FloatVectorizedRenderer extends LaneRenderer<FloatVectorizedRenderer.Buffers> {
+    /**
+     * Wider vectors are slower: more lanes wait for the slowest one, and 512-bit float
+     * code measured slower than 256-bit code on AVX-512.
+     */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED.vectorBitSize() > 256
+            ? FloatVector.SPECIES_256 : FloatVector.SPECIES_PREFERRED;
+    private static final double MIN_RESOLUTION = 4.0D * Math.ulp(2.0F);
+    private static final FloatVector ZERO = FloatVector.zero(SPECIES);
+    private static final FloatVector ONE = FloatVector.broadcast(SPECIES, 1.0F);
+    private static final FloatVector FOUR = FloatVector.broadcast(SPECIES, 4.0F);
+
+    /**
+     * In float the terms of the interior test are rounded by up to a few ulps of 1, so the test is shrunk
+     * by a margin well above that (a point that passes it lies inside for sure).
+     */
+    private static final float INTERIOR_MARGIN = 1.0E-5F;
+
+    FloatVectorizedRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    public double getMinResolution() {
+        return MIN_RESOLUTION;
+    }
+
+    @Override
+    protected int getLaneCount() {
+        return SPECIES.length();
+    }
+
+    @Override
+    protected Buffers createBuffers() {
+        return new Buffers(SPECIES.length());
+    }
+
+    @Override
+    protected void renderLanes(final Buffers buffers,
+                               final int[] buffer,
+                               final int index,
+                               final int x,
+                               final int y,
+                               final double realOffset,
+                               final double imaginaryOffset,
+                               final double resolution,
+                               final int maxIterations) {
+        final float[] seeds = buffers.mySeeds;
+        final float[] counts = buffers.myCounts;
+
+        // the coordinates are computed in double and rounded once
+        for (int lane = 0; lane < seeds.length; lane++) {
+            seeds[lane] = (float) (realOffset + (x + lane) * resolution);
+        }
+
+        final float b = (float) (imaginaryOffset + y * resolution);
+
+        if (isInteriorChecking()) {
+            checkedBound(seeds, b, maxIterations, counts);
+        } else {
+            bound(seeds, b, maxIterations, counts);
+        }
+
+        for (int lane = 0; lane < counts.length; lane++) {
+            buffer[index + lane] = (int) counts[lane];
+        }
+    }
+
+    @Override
+    protected int boundAt(final int x,
+                          final int y,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        final float a = (float) (realOffset + x * resolution);
+        final float b = (float) (imaginaryOffset + y * resolution);
+
+        return isInteriorChecking() ? checkedBound(a, b, maxIterations) : bound(a, b, maxIterations);
+    }
+
+    /**
+     * Scalar counterpart of the lanes, for the columns that do not fill a vector.
+     */
+    private static int bound(final float aSeed, final float bSeed, final int maxIterations) {
+        float aValue = aSeed;
+        float bValue = bSeed;
+
+        int i = 1;
+
+        float aSqr;
+        float bSqr;
+
+        while (i < maxIterations) {
+            aSqr = aValue * aValue;
+            bSqr = bValue * bValue;
+
+            bValue = aValue * 2.0F * bValue + bSeed;
+            aValue = aSqr - bSqr + aSeed;
+
+            if (aSqr + bSqr >= 4.0F) return i;
+
+            i++;
+        }
+
+        return 0;
+    }
+
+    private static int checkedBound(final float aSeed, final float bSeed, final int maxIterations) {
+        if (isInterior(aSeed, bSeed)) return 0;
+
+        float aValue = aSeed;
+        float bValue = bSeed;
+
+        float aSaved = 0.0F;
+        float bSaved = 0.0F;
+
+        int i = 1;
+        int period = 0;
+        int window = 8;
+
+        float aSqr;
+        float bSqr;
+
+        while (i < maxIterations) {
+            aSqr = aValue * aValue;
+            bSqr = bValue * bValue;
+
+            bValue = aValue * 2.0F * bValue + bSeed;
+            aValue = aSqr - bSqr + aSeed;
+
+            if (aSqr + bSqr >= 4.0F) return i;
+
+            if (aValue == aSaved && bValue == bSaved) return 0;
+
+            period++;
+
+            if (period == window) {
+                period = 0;
+                window *= 2;
+                aSaved = aValue;
+                bSaved = bValue;
+            }
+
+            i++;
+        }
+
+        return 0;
+    }
+
+    private static boolean isInterior(final float a, final float b) {
+        final float bSqr = b * b;
+
+        final float aShifted = a - 0.25F;
+        final float q = aShifted * aShifted + bSqr;
+
+        if (q * (q + aShifted) + INTERIOR_MARGIN < bSqr * 0.25F) return true;
+
+        final float aBulb = a + 1.0F;
+
+        return aBulb * aBulb + bSqr + INTERIOR_MARGIN < 0.0625F;
+    }
+
+    /**
+     * Stores the escape times of the pixels with the given real parts into the result array.
+     * Vectors are created here rather than passed in, so that they never cross a call boundary
+     * (which would box them when the call is not inlined).
+     */
+    private static void bound(final float[] seeds,
+                              final float b,
+                              final int maxIterations,
+                              final float[] result) {
+        final FloatVector aSeed = FloatVector.fromArray(SPECIES, seeds, 0);
+        final FloatVector bSeed = FloatVector.broadcast(SPECIES, b);
+
+        FloatVector aValue = aSeed;
+        FloatVector bValue = bSeed;
+
+        FloatVector counts = ZERO;
+
+        VectorMask<Float> active = SPECIES.maskAll(true);
+        VectorMask<Float> escaped = SPECIES.maskAll(false);
+
+        int i = 1;
+
+        FloatVector aSqr;
+        FloatVector bSqr;
+
+        while (i < maxIterations && active.anyTrue()) {
+            counts = counts.add(ONE, active);
+
+            aSqr = aValue.mul(aValue);
+            bSqr = bValue.mul(bValue);
+
+            bValue = aValue.mul(2.0F).mul(bValue).add(bSeed);
+            aValue = aSqr.sub(bSqr).add(aSeed);
+
+            final VectorMask<Float> escaping = aSqr.add(bSqr).compare(VectorOperators.GE, FOUR).and(active);
+            escaped = escaped.or(escaping);
+            active = active.andNot(escaping);
+
+            i++;
+        }
+
+        ZERO.blend(counts, escaped).intoArray(result, 0);
+    }
+
+    /**
+     * Vector counterpart of CPURenderer.checkedBound. The saved value is replaced with a blend
+     * rather than in a branch, which keeps the vectors out of conditional code (and unboxed).
+     */
+    private static void checkedBound(final float[] seeds,
+                                     final float b,
+                                     final int maxIterations,
+                                     final float[] result) {
+        final FloatVector aSeed = FloatVector.fromArray(SPECIES, seeds, 0);
+        final FloatVector bSeed = FloatVector.broadcast(SPECIES, b);
+
+        FloatVector aValue = aSeed;
+        FloatVector bValue = bSeed;
+
+        FloatVector aSaved = ZERO;
+        FloatVector bSaved = ZERO;
+
+        FloatVector counts = ZERO;
+
+        VectorMask<Float> active = SPECIES.maskAll(true).andNot(isInterior(aSeed, bSeed));
+        VectorMask<Float> escaped = SPECIES.maskAll(false);
+
+        int i = 1;
+        int period = 0;
+        int window = 8;
+
+        FloatVector aSqr;
+        FloatVector bSqr;
+
+        while (i < maxIterations && active.anyTrue()) {
+            counts = counts.add(ONE, active);
+
+            aSqr = aValue.mul(aValue);
+            bSqr = bValue.mul(bValue);
+
+            bValue = aValue.mul(2.0F).mul(bValue).add(bSeed);
+            aValue = aSqr.sub(bSqr).add(aSeed);
+
+            final VectorMask<Float> escaping = aSqr.add(bSqr).compare(VectorOperators.GE, FOUR).and(active);
+            escaped = escaped.or(escaping);
+            active = active.andNot(escaping)
+                    .andNot(aValue.compare(VectorOperators.EQ, aSaved).and(bValue.compare(VectorOperators.EQ, bSaved)));
+
+            period++;
+
+            final VectorMask<Float> saving = SPECIES.maskAll(period == window);
+            aSaved = aSaved.blend(aValue, saving);
+            bSaved = bSaved.blend(bValue, saving);
+
+            if (period == window) {
+                period = 0;
+                window *= 2;
+            }
+
+            i++;
+        }
+
+        ZERO.blend(counts, escaped).intoArray(result, 0);
+    }
+
+    private static VectorMask<Float> isInterior(final FloatVector a, final FloatVector b) {
+        final FloatVector bSqr = b.mul(b);
+
+        final FloatVector aShifted = a.sub(0.25F);
+        final FloatVector q = aShifted.mul(aShifted).add(bSqr);
+
+        final VectorMask<Float> cardioid = q.mul(q.add(aShifted)).add(INTERIOR_MARGIN)
+                .compare(VectorOperators.LT, bSqr.mul(0.25F));
+
+        final FloatVector aBulb = a.add(1.0F);
+
+        final VectorMask<Float> bulb = aBulb.mul(aBulb).add(bSqr).add(INTERIOR_MARGIN).compare(VectorOperators.LT, 0.0625F);
+
+        return cardioid.or(bulb);
+    }
+
+    /**
+     * The coordinates and the counts of the lanes.
+     */
+    static class Buffers {
+        private final float[] mySeeds;
+        private final float[] myCounts;
+
+        Buffers(final int lanes) {
+            mySeeds = new float[lanes];
+            myCounts = new float[lanes];
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+/**
+ * Base for the renderers that iterate a vector of horizontally adjacent pixels in lockstep:
+ * each row of a tile is rendered in blocks of the lane count, and the columns that remain
+ * are rendered one by one, in the same precision and with the same arithmetic as the lanes.
+ *
+ * @param <T> the buffers that a tile passes to its blocks
+ */
+abstract class LaneRenderer<T> extends MultithreadedRenderer {
+    LaneRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    protected void renderTile(final int[] buffer,
+                              final int width,
+                              final int x0,
+                              final int y0,
+                              final int x1,
+                              final int y1,
+                              final double realOffset,
+                              final double imaginaryOffset,
+                              final double resolution,
+                              final int maxIterations) {
+        final int lanes = getLaneCount();
+        final T buffers = createBuffers();
+
+        for (int y = y0; y < y1; y++) {
+            int x = x0;
+
+            for (; x + lanes <= x1; x += lanes) {
+                renderLanes(buffers, buffer, y * width + x, x, y, realOffset, imaginaryOffset, resolution, maxIterations);
+            }
+
+            for (; x < x1; x++) {
+                buffer[y * width + x] = boundAt(x, y, realOffset, imaginaryOffset, resolution, maxIterations);
+            }
+        }
+    }
+
+    protected abstract int getLaneCount();
+
+    protected abstract T createBuffers();
+
+    /**
+     * Stores the escape times of the pixels x..x + lanes of the row y at the index of the buffer.
+     */
+    protected abstract void renderLanes(T buffers,
+                                        int[] buffer,
+                                        int index,
+                                        int x,
+                                        int y,
+                                        double realOffset,
+                                        double imaginaryOffset,
+                                        double resolution,
+                                        int maxIterations);
+
+    /**
+     * Returns the escape time of a single pixel, as a lane would compute it.
+     */
+    protected abstract int boundAt(int x,
+                                   int y,
+                                   double realOffset,
+                                   double imaginaryOffset,
+                                   double resolution,
+                                   int maxIterations);
+}
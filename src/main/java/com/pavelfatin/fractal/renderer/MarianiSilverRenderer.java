@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mariani-Silver subdivision: computes only the border of a rectangle and fills the whole
+ * rectangle at once when the border has a single value, otherwise splits it in two and recurses.
+ */
+class MarianiSilverRenderer extends CPURenderer {
+    private static final int MIN_SIZE = 6;
+
+    private final ForkJoinPool myPool;
+
+    MarianiSilverRenderer(final int threadCount, final boolean interiorChecking) {
+        super(interiorChecking);
+        myPool = new ForkJoinPool(threadCount);
+    }
+
+    @Override
+    protected void render(final int[] buffer,
+                          final int width,
+                          final int height,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        if (width == 0 || height == 0) return;
+
+        render(buffer, width, 0, 0, width, 1, realOffset, imaginaryOffset, resolution, maxIterations);
+        render(buffer, width, 0, height - 1, width, height, realOffset, imaginaryOffset, resolution, maxIterations);
+        render(buffer, width, 0, 1, 1, height - 1, realOffset, imaginaryOffset, resolution, maxIterations);
+        render(buffer, width, width - 1, 1, width, height - 1, realOffset, imaginaryOffset, resolution, maxIterations);
+
+        myPool.invoke(new SubdivisionTask(buffer, width, 0, 0, width, height,
+                realOffset, imaginaryOffset, resolution, maxIterations));
+    }
+
+    @Override
+    public void dispose() {
+        myPool.shutdown();
+    }
+
+    private static boolean isUniform(final int[] buffer, final int width,
+                                     final int x0, final int y0, final int x1, final int y1) {
+        final int value = buffer[y0 * width + x0];
+
+        final int top = y0 * width;
+        final int bottom = (y1 - 1) * width;
+
+        for (int x = x0; x < x1; x++) {
+            if (buffer[top + x] != value || buffer[bottom + x] != value) return false;
+        }
+
+        for (int y = y0 + 1; y < y1 - 1; y++) {
+            final int row = y * width;
+            if (buffer[row + x0] != value || buffer[row + x1 - 1] != value) return false;
+        }
+
+        return true;
+    }
+
+    private static void fill(final int[] buffer, final int width,
+                             final int x0, final int y0, final int x1, final int y1,
+                             final int value) {
+        for (int y = y0; y < y1; y++) {
+            final int row = y * width;
+            Arrays.fill(buffer, row + x0, row + x1, value);
+        }
+    }
+
+    /**
+     * Handles a rectangle whose outermost rows and columns are already computed.
+     */
+    private class SubdivisionTask extends RecursiveAction {
+        private final int[] myBuffer;
+        private final int myWidth;
+        private final int myX0;
+        private final int myY0;
+        private final int myX1;
+        private final int myY1;
+        private final double myRealOffset;
+        private final double myImaginaryOffset;
+        private final double myResolution;
+        private final int myMaxIterations;
+
+        SubdivisionTask(final int[] buffer,
+                        final int width,
+                        final int x0,
+                        final int y0,
+                        final int x1,
+                        final int y1,
+                        final double realOffset,
+                        final double imaginaryOffset,
+                        final double resolution,
+                        final int maxIterations) {
+            myBuffer = buffer;
+            myWidth = width;
+            myX0 = x0;
+            myY0 = y0;
+            myX1 = x1;
+            myY1 = y1;
+            myRealOffset = realOffset;
+            myImaginaryOffset = imaginaryOffset;
+            myResolution = resolution;
+            myMaxIterations = maxIterations;
+        }
+
+        @Override
+        protected void compute() {
+            final int width = myX1 - myX0;
+            final int height = myY1 - myY0;
+
+            // (not ForkJoinTask.isCancelled)
+            if (width <= 2 || height <= 2 || MarianiSilverRenderer.this.isCancelled()) return;
+
+            if (width <= MIN_SIZE || height <= MIN_SIZE) {
+                renderRegion(myX0 + 1, myY0 + 1, myX1 - 1, myY1 - 1);
+            } else if (isUniform(myBuffer, myWidth, myX0, myY0, myX1, myY1)) {
+                fill(myBuffer, myWidth, myX0 + 1, myY0 + 1, myX1 - 1, myY1 - 1, myBuffer[myY0 * myWidth + myX0]);
+            } else if (width >= height) {
+                final int x = myX0 + width / 2;
+                renderRegion(x, myY0 + 1, x + 1, myY1 - 1);
+                invokeAll(subtask(myX0, myY0, x + 1, myY1), subtask(x, myY0, myX1, myY1));
+            } else {
+                final int y = myY0 + height / 2;
+                renderRegion(myX0 + 1, y, myX1 - 1, y + 1);
+                invokeAll(subtask(myX0, myY0, myX1, y + 1), subtask(myX0, y, myX1, myY1));
+            }
+        }
+
+        private void renderRegion(final int x0, final int y0, final int x1, final int y1) {
+            render(myBuffer, myWidth, x0, y0, x1, y1, myRealOffset, myImaginaryOffset, myResolution, myMaxIterations);
+        }
+
+        private SubdivisionTask subtask(final int x0, final int y0, final int x1, final int y1) {
+            return new SubdivisionTask(myBuffer, myWidth, x0, y0, x1, y1,
+                    myRealOffset, myImaginaryOffset, myResolution, myMaxIterations);
+        }
+    }
+}
@@ -15,57 +15,222 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package com.pavelfatin.fractal.renderer;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits a rectangle into small tiles and renders them on a work-stealing pool,
+ * so that idle workers pick up the remaining tiles of expensive (e.g. interior) regions.
+ * <p/>
+ * Every tile is rendered with the requested limit, so that the count of a pixel never depends
+ * on how the frame is split (into strips, passes, tiles of the cache or bands of an export).
+ */
+class MultithreadedRenderer extends CPURenderer implements ParallelRenderer {
+    private static final int TILE_SIZE = 32;
 
-class MultithreadedRenderer extends CPURenderer {
-    private final int myThreadCount;
-    private final ExecutorService myExecutor;
+    private final ForkJoinPool myPool;
+    private final ConcurrentMap<Thread, AtomicLong> myBusyTimes = new ConcurrentHashMap<Thread, AtomicLong>();
+    private volatile double[] myUtilization = new double[0];
 
-    MultithreadedRenderer(final int threadCount) {
-        myThreadCount = threadCount;
-        myExecutor = Executors.newFixedThreadPool(threadCount);
+    MultithreadedRenderer(final int threadCount, final boolean interiorChecking) {
+        super(interiorChecking);
+        myPool = new ForkJoinPool(threadCount);
     }
 
     @Override
-    public void render(final int[] buffer,
-                       final int width,
-                       final int height,
-                       final double realOffset,
-                       final double imaginaryOffset,
-                       final double resolution) {
-        final Future[] futures = new Future[myThreadCount];
-        final int batchSize = height / myThreadCount;
-
-        for (int i = 0; i < myThreadCount; i++) {
-            final int y0 = batchSize * i;
-            final int y1 = i < myThreadCount - 1 ? y0 + batchSize : height;
-
-            futures[i] = myExecutor.submit(new Runnable() {
+    protected void render(final int[] buffer,
+                          final int width,
+                          final int height,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        renderTiles(Collections.singletonList(new TileTask(buffer, width, height,
+                tilesOf(realOffset, imaginaryOffset, resolution, maxIterations))));
+    }
+
+    /**
+     * Renders the tiles of all the regions with a single pool invocation.
+     */
+    @Override
+    protected void renderAll(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        final List<TileTask> tasks = new ArrayList<TileTask>(regions.size());
+
+        for (final RenderRegion region : regions) {
+            tasks.add(new TileTask(region.getBuffer(), region.getWidth(), region.getHeight(),
+                    tilesOf(region.getRealOffset().doubleValue(), region.getImaginaryOffset().doubleValue(),
+                            resolution, maxIterations)));
+        }
+
+        renderTiles(tasks);
+    }
+
+    /**
+     * Renders the rectangles of the tasks with a single pool invocation.
+     */
+    protected void renderTiles(final List<TileTask> tasks) {
+        // the counters are reset rather than removed, so that a render allocates none
+        for (final AtomicLong busyTime : myBusyTimes.values()) {
+            busyTime.set(0L);
+        }
+
+        final long before = System.nanoTime();
+
+        if (tasks.size() == 1) {
+            myPool.invoke(tasks.get(0));
+        } else {
+            myPool.invoke(new RecursiveAction() {
                 @Override
-                public void run() {
-                    render(buffer, width, y0, y1, realOffset, imaginaryOffset, resolution);
+                protected void compute() {
+                    invokeAll(tasks);
                 }
             });
         }
 
-        for (int i = 0; i < myThreadCount; i++) {
-            try {
-                futures[i].get();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
+        updateUtilization(System.nanoTime() - before);
+    }
+
+    private Tiles tilesOf(final double realOffset, final double imaginaryOffset, final double resolution, final int maxIterations) {
+        return new Tiles() {
+            @Override
+            public void renderTile(final int[] buffer, final int width, final int x0, final int y0, final int x1, final int y1) {
+                MultithreadedRenderer.this.renderTile(buffer, width, x0, y0, x1, y1,
+                        realOffset, imaginaryOffset, resolution, maxIterations);
+            }
+        };
+    }
+
+    protected void renderTile(final int[] buffer,
+                              final int width,
+                              final int x0,
+                              final int y0,
+                              final int x1,
+                              final int y1,
+                              final double realOffset,
+                              final double imaginaryOffset,
+                              final double resolution,
+                              final int maxIterations) {
+        render(buffer, width, x0, y0, x1, y1, realOffset, imaginaryOffset, resolution, maxIterations);
+    }
+
+    /**
+     * Takes the workers that rendered some tiles into account.
+     */
+    private void updateUtilization(final long elapsedTime) {
+        int count = 0;
+        for (final AtomicLong busyTime : myBusyTimes.values()) {
+            if (busyTime.get() > 0L) {
+                count++;
+            }
+        }
+
+        final double[] utilization = new double[count];
+
+        int i = 0;
+        for (final AtomicLong busyTime : myBusyTimes.values()) {
+            final long time = busyTime.get();
+            if (time > 0L && i < count) {
+                utilization[i++] = elapsedTime == 0L ? 0.0D : Math.min((double) time / elapsedTime, 1.0D);
             }
         }
+
+        myUtilization = utilization;
+    }
+
+    @Override
+    public double[] getWorkerUtilization() {
+        return myUtilization.clone();
     }
 
     @Override
     public void dispose() {
-        myExecutor.shutdown();
+        myPool.shutdown();
+    }
+
+    /**
+     * Renders the tiles of a rectangle (e.g. against the offsets that are kept in a more precise form).
+     */
+    protected interface Tiles {
+        void renderTile(int[] buffer, int width, int x0, int y0, int x1, int y1);
+    }
+
+    protected class TileTask extends RecursiveAction {
+        private final int[] myBuffer;
+        private final int myWidth;
+        private final int myX0;
+        private final int myY0;
+        private final int myX1;
+        private final int myY1;
+        private final Tiles myTiles;
+
+        /**
+         * Renders the whole rectangle.
+         */
+        protected TileTask(final int[] buffer, final int width, final int height, final Tiles tiles) {
+            this(buffer, width, 0, 0, width, height, tiles);
+        }
+
+        private TileTask(final int[] buffer,
+                         final int width,
+                         final int x0,
+                         final int y0,
+                         final int x1,
+                         final int y1,
+                         final Tiles tiles) {
+            myBuffer = buffer;
+            myWidth = width;
+            myX0 = x0;
+            myY0 = y0;
+            myX1 = x1;
+            myY1 = y1;
+            myTiles = tiles;
+        }
+
+        @Override
+        protected void compute() {
+            final int width = myX1 - myX0;
+            final int height = myY1 - myY0;
+
+            // (not ForkJoinTask.isCancelled)
+            if (MultithreadedRenderer.this.isCancelled()) return;
+
+            if (width <= TILE_SIZE && height <= TILE_SIZE) {
+                final long before = System.nanoTime();
+                myTiles.renderTile(myBuffer, myWidth, myX0, myY0, myX1, myY1);
+                busyTimeOf(Thread.currentThread()).addAndGet(System.nanoTime() - before);
+            } else if (width >= height) {
+                final int x = myX0 + width / 2;
+                invokeAll(subtask(myX0, myY0, x, myY1), subtask(x, myY0, myX1, myY1));
+            } else {
+                final int y = myY0 + height / 2;
+                invokeAll(subtask(myX0, myY0, myX1, y), subtask(myX0, y, myX1, myY1));
+            }
+        }
+
+        private TileTask subtask(final int x0, final int y0, final int x1, final int y1) {
+            return new TileTask(myBuffer, myWidth, x0, y0, x1, y1, myTiles);
+        }
+    }
+
+    private AtomicLong busyTimeOf(final Thread thread) {
+        final AtomicLong busyTime = myBusyTimes.get(thread);
+
+        if (busyTime != null) {
+            return busyTime;
+        }
+
+        final AtomicLong newBusyTime = new AtomicLong();
+        final AtomicLong existingBusyTime = myBusyTimes.putIfAbsent(thread, newBusyTime);
+
+        return existingBusyTime == null ? newBusyTime : existingBusyTime;
     }
 }
@@ -21,38 +21,89 @@ import com.nativelibs4java.opencl.*;
 import com.pavelfatin.fractal.Utilities;
 import org.bridj.Pointer;
 
-class OpenCLRenderer implements Renderer {
+import java.math.BigDecimal;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * Renders in float on the device. When float can no longer resolve the pixels of a view,
+ * switches to perturbation: a reference orbit is computed on the host and the device iterates
+ * only the (float) deltas against it; the glitched pixels are then recomputed on the host
+ * by the perturbation renderer. The views where even the float deltas underflow are rendered
+ * on the host entirely.
+ * <p/>
+ * The float cardioid / bulb test is shrunk by a margin above its rounding error, so the interior
+ * checking does not change the output of the loop.
+ */
+class OpenCLRenderer implements OrbitCachingRenderer {
     private static final String FILE_NAME = "OpenCLRenderer.cl";
     private static final String FUNCTION_NAME = "generate";
+    private static final String PERTURBED_FUNCTION_NAME = "generate_perturbed";
+
+    private static final int MIN_PIXELS_PER_ULP = 4;
+
+    /**
+     * Below this resolution the float deltas (and their products) approach the float underflow (1e-38).
+     */
+    static final double MIN_PERTURBED_RESOLUTION = 1.0E-30D;
+
+    /** A cached reference within this distance (in pixels) from the center of a view is reused for it. */
+    private static final int REFERENCE_REACH = 1024;
 
     private final CLContext myContext;
     private final CLProgram myProgram;
     private final CLKernel myKernel;
+    private final CLKernel myPerturbedKernel;
     private final CLQueue myQueue;
     private final CLBuffer<Integer> myResultsBuffer;
     private final Pointer<Integer> myPointer;
+    private final int myCapacity;
+    private final boolean myInteriorChecking;
+    private final OrbitCache myOrbits = new OrbitCache();
+    private final PerturbationRenderer myHostRenderer;
 
-    OpenCLRenderer(final int maxWidth, final int maxHeight) {
+    OpenCLRenderer(final int maxWidth, final int maxHeight, final boolean interiorChecking) {
+        myInteriorChecking = interiorChecking;
+        myHostRenderer = new PerturbationRenderer(Runtime.getRuntime().availableProcessors(), interiorChecking);
         myContext = JavaCL.createBestContext();
 
         myProgram = myContext.createProgram(Utilities.load(getClass(), FILE_NAME));
         myKernel = myProgram.createKernel(FUNCTION_NAME);
+        myPerturbedKernel = myProgram.createKernel(PERTURBED_FUNCTION_NAME);
         myQueue = myContext.createDefaultQueue();
         myResultsBuffer = myContext.createIntBuffer(CLMem.Usage.Output, maxWidth * maxHeight);
         myPointer = Pointer.allocateInts(maxWidth * maxHeight);
+        myCapacity = maxWidth * maxHeight;
     }
 
     @Override
     public void render(final int[] buffer,
                        final int width,
                        final int height,
-                       final double realOffset,
-                       final double imaginaryOffset,
-                       final double resolution) {
+                       final BigDecimal exactRealOffset,
+                       final BigDecimal exactImaginaryOffset,
+                       final double resolution,
+                       final int maxIterations) {
+        final double realOffset = exactRealOffset.doubleValue();
+        final double imaginaryOffset = exactImaginaryOffset.doubleValue();
+
+        if (resolution < MIN_PERTURBED_RESOLUTION) {
+            myHostRenderer.render(buffer, width, height, exactRealOffset, exactImaginaryOffset, resolution, maxIterations);
+            return;
+        }
+
+        if (isBeyondFloatPrecision(width, height, realOffset, imaginaryOffset, resolution)) {
+            renderPerturbed(buffer, width, height, exactRealOffset, exactImaginaryOffset, resolution, maxIterations);
+            return;
+        }
+
         myKernel.setArg(0, new float[]{(float) realOffset, (float) imaginaryOffset});
         myKernel.setArg(1, new float[]{(float) resolution, (float) resolution});
         myKernel.setArg(2, width);
-        myKernel.setArg(3, myResultsBuffer);
+        myKernel.setArg(3, maxIterations);
+        myKernel.setArg(4, myInteriorChecking ? 1 : 0);
+        myKernel.setArg(5, 0);
+        myKernel.setArg(6, myResultsBuffer);
 
         final CLEvent event = myKernel.enqueueNDRange(myQueue, new int[]{width, height});
 
@@ -64,11 +115,156 @@ class OpenCLRenderer implements Renderer {
         event.release();
     }
 
+    /**
+     * Enqueues the kernels of all the regions (each one writes into its own part of the results buffer),
+     * and reads the results back once.
+     */
+    @Override
+    public void render(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        int length = 0;
+        boolean perturbed = false;
+
+        for (final RenderRegion region : regions) {
+            length += region.getWidth() * region.getHeight();
+            perturbed |= isBeyondFloatPrecision(region.getWidth(), region.getHeight(),
+                    region.getRealOffset().doubleValue(), region.getImaginaryOffset().doubleValue(), resolution);
+        }
+
+        if (resolution < MIN_PERTURBED_RESOLUTION) {
+            myHostRenderer.render(regions, resolution, maxIterations);
+            return;
+        }
+
+        // the perturbed kernel needs a reference orbit per region
+        if (perturbed || length > myCapacity) {
+            for (final RenderRegion region : regions) {
+                render(region.getBuffer(), region.getWidth(), region.getHeight(),
+                        region.getRealOffset(), region.getImaginaryOffset(), resolution, maxIterations);
+            }
+            return;
+        }
+
+        final CLEvent[] events = new CLEvent[regions.size()];
+
+        int start = 0;
+
+        for (int i = 0; i < events.length; i++) {
+            final RenderRegion region = regions.get(i);
+
+            myKernel.setArg(0, new float[]{(float) region.getRealOffset().doubleValue(), (float) region.getImaginaryOffset().doubleValue()});
+            myKernel.setArg(1, new float[]{(float) resolution, (float) resolution});
+            myKernel.setArg(2, region.getWidth());
+            myKernel.setArg(3, maxIterations);
+            myKernel.setArg(4, myInteriorChecking ? 1 : 0);
+            myKernel.setArg(5, start);
+            myKernel.setArg(6, myResultsBuffer);
+
+            events[i] = myKernel.enqueueNDRange(myQueue, new int[]{region.getWidth(), region.getHeight()});
+
+            start += region.getWidth() * region.getHeight();
+        }
+
+        myResultsBuffer.read(myQueue, 0, length, myPointer, true, events);
+
+        final IntBuffer results = myPointer.getIntBuffer();
+
+        for (final RenderRegion region : regions) {
+            results.get(region.getBuffer(), 0, region.getWidth() * region.getHeight());
+        }
+
+        for (final CLEvent event : events) {
+            event.release();
+        }
+    }
+
+    @Override
+    public double getMinResolution() {
+        return myHostRenderer.getMinResolution();
+    }
+
+    private static boolean isBeyondFloatPrecision(final int width,
+                                                  final int height,
+                                                  final double realOffset,
+                                                  final double imaginaryOffset,
+                                                  final double resolution) {
+        final double magnitude = Math.max(
+                Math.max(Math.abs(realOffset), Math.abs(realOffset + width * resolution)),
+                Math.max(Math.abs(imaginaryOffset), Math.abs(imaginaryOffset + height * resolution)));
+
+        return resolution < MIN_PIXELS_PER_ULP * Math.ulp((float) magnitude);
+    }
+
+    private void renderPerturbed(final int[] buffer,
+                                 final int width,
+                                 final int height,
+                                 final BigDecimal exactRealOffset,
+                                 final BigDecimal exactImaginaryOffset,
+                                 final double resolution,
+                                 final int maxIterations) {
+        final BigDecimal step = new BigDecimal(resolution);
+        final ReferenceOrbit orbit = myOrbits.get(
+                exactRealOffset.add(step.multiply(BigDecimal.valueOf(width / 2))),
+                exactImaginaryOffset.add(step.multiply(BigDecimal.valueOf(height / 2))),
+                resolution, maxIterations, Math.max(Math.max(width, height), REFERENCE_REACH));
+
+        final int orbitLength = orbit.length();
+        final float[] values = new float[2 * orbitLength];
+        for (int n = 0; n < orbitLength; n++) {
+            values[2 * n] = (float) orbit.real(n);
+            values[2 * n + 1] = (float) orbit.imaginary(n);
+        }
+        final Pointer<Float> orbitPointer = Pointer.pointerToFloats(values);
+        final CLBuffer<Float> orbitBuffer = myContext.createFloatBuffer(CLMem.Usage.Input, orbitPointer, true);
+
+        myPerturbedKernel.setArg(0, new float[]{
+                (float) exactRealOffset.subtract(orbit.getRealPart()).doubleValue(),
+                (float) exactImaginaryOffset.subtract(orbit.getImaginaryPart()).doubleValue()});
+        myPerturbedKernel.setArg(1, new float[]{(float) resolution, (float) resolution});
+        myPerturbedKernel.setArg(2, width);
+        myPerturbedKernel.setArg(3, maxIterations);
+        myPerturbedKernel.setArg(4, orbitBuffer);
+        myPerturbedKernel.setArg(5, orbitLength);
+        myPerturbedKernel.setArg(6, myResultsBuffer);
+
+        final CLEvent event = myPerturbedKernel.enqueueNDRange(myQueue, new int[]{width, height});
+
+        final int length = width * height;
+
+        myResultsBuffer.read(myQueue, 0, length, myPointer, true, event);
+        myPointer.getIntBuffer().get(buffer, 0, length);
+
+        event.release();
+        orbitBuffer.release();
+        orbitPointer.release();
+
+        // the kernel marks the glitches as PerturbationRenderer.GLITCH
+        myHostRenderer.fixGlitches(buffer, width, height, exactRealOffset, exactImaginaryOffset, resolution, maxIterations);
+    }
+
+    @Override
+    public void cancel() {
+        // a kernel cannot be interrupted (and a frame takes only a few milliseconds), but a host render can
+        myHostRenderer.cancel();
+    }
+
+    @Override
+    public void resume() {
+        myHostRenderer.resume();
+    }
+
+    @Override
+    public void clearOrbits() {
+        myOrbits.clear();
+        myHostRenderer.clearOrbits();
+    }
+
     @Override
     public void dispose() {
+        myHostRenderer.dispose();
         myPointer.release();
         myResultsBuffer.release();
         myQueue.release();
+        myPerturbedKernel.release();
         myKernel.release();
         myProgram.release();
         myContext.release();
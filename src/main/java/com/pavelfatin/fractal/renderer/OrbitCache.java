@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The recently used reference orbits (in world coordinates), so that the renders of a frame
+ * (strips, passes, regions) and of the following frames share the references,
+ * rather than recompute them in arbitrary precision on every call.
+ * <p/>
+ * Not thread-safe.
+ */
+class OrbitCache {
+    private static final int CAPACITY = 16;
+
+    /**
+     * The orbits are computed with the precision of a finer resolution, so that the finer passes
+     * of a progressive render (and a few zoom steps) reuse them.
+     */
+    private static final double PRECISION_HEADROOM = 64.0D;
+
+    private final LinkedList<ReferenceOrbit> myOrbits = new LinkedList<ReferenceOrbit>();
+
+    /**
+     * Returns a cached orbit whose reference lies within the reach (in pixels) of the point,
+     * or computes the orbit of the point itself.
+     */
+    public ReferenceOrbit get(final BigDecimal real,
+                              final BigDecimal imaginary,
+                              final double resolution,
+                              final int maxIterations,
+                              final double reach) {
+        final double distance = reach * resolution;
+
+        final Iterator<ReferenceOrbit> iterator = myOrbits.iterator();
+
+        while (iterator.hasNext()) {
+            final ReferenceOrbit orbit = iterator.next();
+
+            if (orbit.covers(resolution, maxIterations)
+                    && Math.abs(orbit.getRealPart().subtract(real).doubleValue()) <= distance
+                    && Math.abs(orbit.getImaginaryPart().subtract(imaginary).doubleValue()) <= distance) {
+                iterator.remove();
+                myOrbits.addFirst(orbit);
+                return orbit;
+            }
+        }
+
+        final ReferenceOrbit orbit = new ReferenceOrbit(real, imaginary, resolution / PRECISION_HEADROOM, maxIterations);
+
+        myOrbits.addFirst(orbit);
+
+        if (myOrbits.size() > CAPACITY) {
+            myOrbits.removeLast();
+        }
+
+        return orbit;
+    }
+
+    public void clear() {
+        myOrbits.clear();
+    }
+}
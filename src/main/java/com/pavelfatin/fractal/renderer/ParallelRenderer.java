@@ -15,21 +15,12 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package com.pavelfatin.fractal.picture;
 
-import java.awt.*;
-import java.util.Collection;
+package com.pavelfatin.fractal.renderer;
 
-public class CompoundUpdate implements Update {
-    private final Collection<Update> myUpdates;
-
-    public CompoundUpdate(final Collection<Update> updates) {
-        myUpdates = updates;
-    }
-
-    public void apply(final Graphics graphics) {
-        for (final Update update : myUpdates) {
-            update.apply(graphics);
-        }
-    }
+public interface ParallelRenderer extends Renderer {
+    /**
+     * Returns the share of the last frame's wall-clock time that each worker spent rendering tiles.
+     */
+    double[] getWorkerUtilization();
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+
+/**
+ * Computes a single reference orbit in arbitrary precision and iterates each pixel as a double
+ * delta against it: z = Z + dz, dz' = 2 Z dz + dz^2 + dc. So the per-pixel cost does not depend
+ * on the precision that the view requires.
+ * <p/>
+ * Pixels whose delta can no longer be trusted (|z| much smaller than |Z|, or the reference
+ * has escaped earlier) are marked as glitched and recomputed against a new reference chosen
+ * among them; the ones that remain after several references are computed in arbitrary precision.
+ * <p/>
+ * The orbits are cached, so that a reference is shared by the renders of nearby rectangles.
+ */
+class PerturbationRenderer extends PointwiseRenderer implements OrbitCachingRenderer {
+    static final int GLITCH = -1;
+    private static final double GLITCH_TOLERANCE = 1.0E-6D;
+    private static final int MAX_REFERENCES = 32;
+
+    /** The double deltas (and their squares) stay far from the underflow. */
+    private static final double MIN_RESOLUTION = 1.0E-100D;
+
+    /** A cached reference within this distance (in pixels) from the center of a rectangle is reused for it. */
+    private static final int REFERENCE_REACH = 1024;
+
+    private final OrbitCache myOrbits = new OrbitCache();
+
+    PerturbationRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    public void clearOrbits() {
+        myOrbits.clear();
+    }
+
+    @Override
+    protected Area createArea(final BigDecimal realOffset,
+                              final BigDecimal imaginaryOffset,
+                              final int width,
+                              final int height,
+                              final double resolution,
+                              final int maxIterations) {
+        final PerturbationArea area = new PerturbationArea(realOffset, imaginaryOffset, resolution, maxIterations);
+        area.setReference(width / 2, height / 2, Math.max(Math.max(width, height), REFERENCE_REACH));
+        return area;
+    }
+
+    /**
+     * Recomputes the pixels that another perturbation pass (e.g. on a device) has marked as glitched.
+     */
+    void fixGlitches(final int[] buffer,
+                     final int width,
+                     final int height,
+                     final BigDecimal realOffset,
+                     final BigDecimal imaginaryOffset,
+                     final double resolution,
+                     final int maxIterations) {
+        new PerturbationArea(realOffset, imaginaryOffset, resolution, maxIterations).complete(buffer, width, height);
+    }
+
+    private static int[] glitchesIn(final int[] buffer, final int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == GLITCH) count++;
+        }
+
+        final int[] glitches = new int[count];
+
+        int j = 0;
+        for (int i = 0; i < length && j < count; i++) {
+            if (buffer[i] == GLITCH) glitches[j++] = i;
+        }
+
+        return glitches;
+    }
+
+    @Override
+    public double getMinResolution() {
+        return MIN_RESOLUTION;
+    }
+
+    private class PerturbationArea extends Area {
+        private final BigDecimal myRealOffset;
+        private final BigDecimal myImaginaryOffset;
+        private final double myRealPart;
+        private final double myImaginaryPart;
+
+        private ReferenceOrbit myOrbit;
+        /** The offset of the rectangle relative to the reference point. */
+        private double myRealDelta;
+        private double myImaginaryDelta;
+
+        PerturbationArea(final BigDecimal realOffset,
+                         final BigDecimal imaginaryOffset,
+                         final double resolution,
+                         final int maxIterations) {
+            super(resolution, maxIterations);
+
+            myRealOffset = realOffset;
+            myImaginaryOffset = imaginaryOffset;
+            myRealPart = realOffset.doubleValue();
+            myImaginaryPart = imaginaryOffset.doubleValue();
+        }
+
+        private void setReference(final int x, final int y, final double reach) {
+            final double resolution = getResolution();
+            final BigDecimal step = new BigDecimal(resolution);
+            final BigDecimal real = myRealOffset.add(step.multiply(BigDecimal.valueOf(x)));
+            final BigDecimal imaginary = myImaginaryOffset.add(step.multiply(BigDecimal.valueOf(y)));
+
+            myOrbit = myOrbits.get(real, imaginary, resolution, getMaxIterations(), reach);
+            myRealDelta = myRealOffset.subtract(myOrbit.getRealPart()).doubleValue();
+            myImaginaryDelta = myImaginaryOffset.subtract(myOrbit.getImaginaryPart()).doubleValue();
+        }
+
+        /**
+         * Recomputes the glitched pixels.
+         */
+        @Override
+        protected void complete(final int[] buffer, final int width, final int height) {
+            final double resolution = getResolution();
+            final int maxIterations = getMaxIterations();
+
+            int[] glitches = glitchesIn(buffer, width * height);
+
+            for (int reference = 1; reference < MAX_REFERENCES && glitches.length > 0 && !isCancelled(); reference++) {
+                final int index = glitches[glitches.length / 2];
+
+                setReference(index % width, index / width, 0.0D);
+
+                for (final int i : glitches) {
+                    buffer[i] = boundAt(i % width, i / width, resolution, maxIterations);
+                }
+
+                glitches = glitchesIn(buffer, width * height);
+            }
+
+            final BigDecimal step = new BigDecimal(resolution);
+
+            for (final int i : glitches) {
+                if (isCancelled()) return;
+
+                final int x = i % width;
+                final int y = i / width;
+
+                buffer[i] = isInterior(x, y, resolution) ? 0 : ReferenceOrbit.bound(
+                        myRealOffset.add(step.multiply(BigDecimal.valueOf(x))),
+                        myImaginaryOffset.add(step.multiply(BigDecimal.valueOf(y))),
+                        resolution, maxIterations);
+            }
+        }
+
+        @Override
+        protected int boundAt(final int x, final int y, final double resolution, final int maxIterations) {
+            if (isInterior(x, y, resolution)) return 0;
+
+            final ReferenceOrbit orbit = myOrbit;
+            final int length = orbit.length();
+
+            final double aDelta = myRealDelta + x * resolution;
+            final double bDelta = myImaginaryDelta + y * resolution;
+
+            double aValue = aDelta;
+            double bValue = bDelta;
+
+            int i = 1;
+
+            while (i < maxIterations) {
+                if (i >= length) return GLITCH;
+
+                final double aReference = orbit.real(i);
+                final double bReference = orbit.imaginary(i);
+
+                final double a = aReference + aValue;
+                final double b = bReference + bValue;
+
+                final double sqr = a * a + b * b;
+
+                if (sqr >= 4.0D) return i;
+
+                if (sqr < GLITCH_TOLERANCE * (aReference * aReference + bReference * bReference)) return GLITCH;
+
+                final double aFactor = 2.0D * aReference + aValue;
+                final double bFactor = 2.0D * bReference + bValue;
+
+                final double aNext = aValue * aFactor - bValue * bFactor + aDelta;
+                bValue = aValue * bFactor + bValue * aFactor + bDelta;
+                aValue = aNext;
+
+                i++;
+            }
+
+            return 0;
+        }
+
+        private boolean isInterior(final int x, final int y, final double resolution) {
+            return isInteriorChecking() && resolution > MIN_INTERIOR_CHECK_RESOLUTION
+                    && CPURenderer.isInterior(myRealPart + x * resolution, myImaginaryPart + y * resolution);
+        }
+    }
+}
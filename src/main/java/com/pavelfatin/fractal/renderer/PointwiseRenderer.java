@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base for the tiled renderers that compute each pixel from its position in the rectangle
+ * (rather than from double offsets), e.g. against offsets kept in a more precise form.
+ * The offsets of each rectangle are kept in an area, so that the rectangles of a batch
+ * are rendered with a single pool invocation.
+ */
+abstract class PointwiseRenderer extends MultithreadedRenderer {
+    PointwiseRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    public void render(final int[] buffer,
+                       final int width,
+                       final int height,
+                       final BigDecimal realOffset,
+                       final BigDecimal imaginaryOffset,
+                       final double resolution,
+                       final int maxIterations) {
+        render(Collections.singletonList(new RenderRegion(buffer, width, height, realOffset, imaginaryOffset)),
+                resolution, maxIterations);
+    }
+
+    @Override
+    protected void render(final int[] buffer,
+                          final int width,
+                          final int height,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        render(buffer, width, height, new BigDecimal(realOffset), new BigDecimal(imaginaryOffset), resolution, maxIterations);
+    }
+
+    /**
+     * Renders the tiles of all the regions with a single pool invocation, then completes the regions.
+     */
+    @Override
+    public void render(final List<RenderRegion> regions, final double resolution, final int maxIterations) {
+        final List<Area> areas = new ArrayList<Area>(regions.size());
+        final List<TileTask> tasks = new ArrayList<TileTask>(regions.size());
+
+        for (final RenderRegion region : regions) {
+            final Area area = createArea(region.getRealOffset(), region.getImaginaryOffset(),
+                    region.getWidth(), region.getHeight(), resolution, maxIterations);
+
+            areas.add(area);
+            tasks.add(new TileTask(region.getBuffer(), region.getWidth(), region.getHeight(), area));
+        }
+
+        renderTiles(tasks);
+
+        for (int i = 0; i < regions.size() && !isCancelled(); i++) {
+            final RenderRegion region = regions.get(i);
+            areas.get(i).complete(region.getBuffer(), region.getWidth(), region.getHeight());
+        }
+    }
+
+    /**
+     * Creates the area of a rectangle (on the calling thread).
+     */
+    protected abstract Area createArea(BigDecimal realOffset,
+                                       BigDecimal imaginaryOffset,
+                                       int width,
+                                       int height,
+                                       double resolution,
+                                       int maxIterations);
+
+    /**
+     * The pixels of a rectangle, which are computed against the offsets of the rectangle.
+     */
+    protected abstract class Area implements Tiles {
+        private final double myResolution;
+        private final int myMaxIterations;
+
+        protected Area(final double resolution, final int maxIterations) {
+            myResolution = resolution;
+            myMaxIterations = maxIterations;
+        }
+
+        protected double getResolution() {
+            return myResolution;
+        }
+
+        protected int getMaxIterations() {
+            return myMaxIterations;
+        }
+
+        @Override
+        public void renderTile(final int[] buffer, final int width, final int x0, final int y0, final int x1, final int y1) {
+            for (int y = y0; y < y1; y++) {
+                int i = y * width + x0;
+                for (int x = x0; x < x1; x++) {
+                    buffer[i] = boundAt(x, y, myResolution, myMaxIterations);
+                    i++;
+                }
+            }
+        }
+
+        /**
+         * Completes the rendered rectangle (on the calling thread, unless the rendering is cancelled).
+         */
+        protected void complete(final int[] buffer, final int width, final int height) {
+        }
+
+        protected abstract int boundAt(int x, int y, double resolution, int maxIterations);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Orbit of a single reference point, computed in arbitrary precision and stored as doubles
+ * (the values themselves are bounded by 2, so only the deltas need high precision).
+ * The element n holds Z(n), where Z(0) = 0 and Z(n + 1) = Z(n)^2 + C.
+ */
+class ReferenceOrbit {
+    private static final BigDecimal TWO = BigDecimal.valueOf(2L);
+    private static final BigDecimal FOUR = BigDecimal.valueOf(4L);
+    private static final int EXTRA_DIGITS = 12;
+
+    private final BigDecimal myRealPart;
+    private final BigDecimal myImaginaryPart;
+    private final int myPrecision;
+    private final int myMaxIterations;
+    private final double[] myReal;
+    private final double[] myImaginary;
+    private final int myLength;
+
+    ReferenceOrbit(final BigDecimal real, final BigDecimal imaginary, final double resolution, final int maxIterations) {
+        final MathContext context = contextFor(resolution);
+
+        myRealPart = real;
+        myImaginaryPart = imaginary;
+        myPrecision = context.getPrecision();
+        myMaxIterations = maxIterations;
+        myReal = new double[maxIterations];
+        myImaginary = new double[maxIterations];
+
+        BigDecimal a = BigDecimal.ZERO;
+        BigDecimal b = BigDecimal.ZERO;
+
+        int n = 0;
+
+        while (true) {
+            myReal[n] = a.doubleValue();
+            myImaginary[n] = b.doubleValue();
+
+            n++;
+
+            if (n == maxIterations) break;
+
+            final BigDecimal aSqr = a.multiply(a, context);
+            final BigDecimal bSqr = b.multiply(b, context);
+
+            if (aSqr.add(bSqr, context).compareTo(FOUR) >= 0) break;
+
+            b = a.multiply(b, context).multiply(TWO).add(imaginary, context);
+            a = aSqr.subtract(bSqr, context).add(real, context);
+        }
+
+        myLength = n;
+    }
+
+    /**
+     * Enough significant digits to resolve the resolution relative to the values (which are below 2).
+     */
+    static MathContext contextFor(final double resolution) {
+        final int digits = (int) Math.ceil(-Math.log10(resolution)) + EXTRA_DIGITS;
+        return new MathContext(Math.max(digits, 17), RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * The escape time of a single point in arbitrary precision (the counterpart of CPURenderer.bound),
+     * for the pixels that no reference can represent.
+     */
+    static int bound(final BigDecimal real, final BigDecimal imaginary, final double resolution, final int maxIterations) {
+        final MathContext context = contextFor(resolution);
+
+        BigDecimal a = real;
+        BigDecimal b = imaginary;
+
+        int i = 1;
+
+        while (i < maxIterations) {
+            final BigDecimal aSqr = a.multiply(a, context);
+            final BigDecimal bSqr = b.multiply(b, context);
+
+            if (aSqr.add(bSqr, context).compareTo(FOUR) >= 0) return i;
+
+            b = a.multiply(b, context).multiply(TWO).add(imaginary, context);
+            a = aSqr.subtract(bSqr, context).add(real, context);
+
+            i++;
+        }
+
+        return 0;
+    }
+
+    BigDecimal getRealPart() {
+        return myRealPart;
+    }
+
+    BigDecimal getImaginaryPart() {
+        return myImaginaryPart;
+    }
+
+    /**
+     * Whether the orbit is precise enough for the resolution and long enough for the limit.
+     */
+    boolean covers(final double resolution, final int maxIterations) {
+        return myPrecision >= contextFor(resolution).getPrecision()
+                && (myMaxIterations >= maxIterations || myLength < myMaxIterations);
+    }
+
+    /**
+     * The number of stored elements; when it is below the iteration limit, the reference escapes
+     * at Z(length - 1).
+     */
+    int length() {
+        return myLength;
+    }
+
+    double real(final int n) {
+        return myReal[n];
+    }
+
+    double imaginary(final int n) {
+        return myImaginary[n];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+
+/**
+ * A rectangle of a batch render, which is rendered into its own buffer.
+ */
+public class RenderRegion {
+    private final int[] myBuffer;
+    private final int myWidth;
+    private final int myHeight;
+    private final BigDecimal myRealOffset;
+    private final BigDecimal myImaginaryOffset;
+
+    public RenderRegion(final int[] buffer,
+                        final int width,
+                        final int height,
+                        final BigDecimal realOffset,
+                        final BigDecimal imaginaryOffset) {
+        myBuffer = buffer;
+        myWidth = width;
+        myHeight = height;
+        myRealOffset = realOffset;
+        myImaginaryOffset = imaginaryOffset;
+    }
+
+    public int[] getBuffer() {
+        return myBuffer;
+    }
+
+    public int getWidth() {
+        return myWidth;
+    }
+
+    public int getHeight() {
+        return myHeight;
+    }
+
+    public BigDecimal getRealOffset() {
+        return myRealOffset;
+    }
+
+    public BigDecimal getImaginaryOffset() {
+        return myImaginaryOffset;
+    }
+}
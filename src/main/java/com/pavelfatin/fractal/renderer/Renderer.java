@@ -17,8 +17,43 @@
 
 package com.pavelfatin.fractal.renderer;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 public interface Renderer {
-    void render(int[] buffer, int width, int height, double realOffset, double imaginaryOffset, double resolution);
+    /**
+     * The offsets are exact, so that the renderers which need more than double precision can use them.
+     */
+    void render(int[] buffer,
+                int width,
+                int height,
+                BigDecimal realOffset,
+                BigDecimal imaginaryOffset,
+                double resolution,
+                int maxIterations);
+
+    /**
+     * Renders several regions (with the same resolution and limit) in a single submission,
+     * e.g. the strips uncovered by a diagonal move, so that the dispatch cost is paid once.
+     */
+    void render(List<RenderRegion> regions, double resolution, int maxIterations);
+
+    /**
+     * Returns the finest resolution (pixel size) that the renderer can tell apart.
+     */
+    double getMinResolution();
+
+    /**
+     * Makes the render in progress (if any) return as soon as possible, leaving the buffer incomplete.
+     * Can be called from any thread. The renderer stays cancelled until it is resumed.
+     */
+    void cancel();
+
+    /**
+     * Clears the cancellation, the caller does that when it takes a new job
+     * (so that a cancel which comes just before a render is not lost).
+     */
+    void resume();
 
     void dispose();
 }
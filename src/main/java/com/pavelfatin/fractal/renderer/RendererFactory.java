@@ -17,24 +17,73 @@
 
 package com.pavelfatin.fractal.renderer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RendererFactory {
+    private static final String VECTOR_MODULE_NAME = "jdk.incubator.vector";
+
     public RendererType[] getAvailableRendererTypes() {
-        return OpenCLRenderer.isSupported()
-                ? RendererType.values()
-                : new RendererType[]{RendererType.Singlethreaded, RendererType.Multithreaded};
+        final boolean openCLSupported = OpenCLRenderer.isSupported();
+
+        final List<RendererType> types = new ArrayList<RendererType>();
+        for (final RendererType type : RendererType.values()) {
+            if (type != RendererType.OpenCL || openCLSupported) {
+                types.add(type);
+            }
+        }
+        return types.toArray(new RendererType[types.size()]);
+    }
+
+    public RendererType getDefaultRendererType() {
+        return OpenCLRenderer.isSupported() ? RendererType.OpenCL : RendererType.Multithreaded;
     }
 
-    public Renderer createRenderer(final RendererType type, final int maxWidth, final int maxHeight) {
+    public Renderer createRenderer(final RendererType type,
+                                   final int maxWidth,
+                                   final int maxHeight,
+                                   final boolean interiorChecking) {
         switch (type) {
             case Singlethreaded:
-                return new SinglethreadedRenderer();
+                return new SinglethreadedRenderer(interiorChecking);
             case Multithreaded:
-                final int cores = Runtime.getRuntime().availableProcessors();
-                return new MultithreadedRenderer(cores);
+                return new MultithreadedRenderer(cores(), interiorChecking);
+            case Vectorized:
+                return isVectorApiSupported()
+                        ? new VectorizedRenderer(cores(), interiorChecking)
+                        : new MultithreadedRenderer(cores(), interiorChecking);
+            case MarianiSilver:
+                return new MarianiSilverRenderer(cores(), interiorChecking);
+            case DoubleDouble:
+                return new DoubleDoubleRenderer(cores(), interiorChecking);
+            case FixedPoint:
+                return new FixedPointRenderer(cores(), interiorChecking);
+            case Perturbation:
+                return new PerturbationRenderer(cores(), interiorChecking);
+            case Tiered:
+                return isVectorApiSupported()
+                        ? new AutoPrecisionRenderer(new FloatVectorizedRenderer(cores(), interiorChecking),
+                        new VectorizedRenderer(cores(), interiorChecking),
+                        new PerturbationRenderer(cores(), interiorChecking))
+                        : new AutoPrecisionRenderer(null,
+                        new MultithreadedRenderer(cores(), interiorChecking),
+                        new PerturbationRenderer(cores(), interiorChecking));
             case OpenCL:
-                return new OpenCLRenderer(maxWidth, maxHeight);
+                return new OpenCLRenderer(maxWidth, maxHeight, interiorChecking);
             default:
                 throw new RuntimeException("Unknown renderer type: " + type);
         }
     }
+
+    /**
+     * The Vector API is an incubator module that must be added explicitly
+     * (--add-modules jdk.incubator.vector), otherwise the scalar kernel is used instead.
+     */
+    public static boolean isVectorApiSupported() {
+        return ModuleLayer.boot().findModule(VECTOR_MODULE_NAME).isPresent();
+    }
+
+    private static int cores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
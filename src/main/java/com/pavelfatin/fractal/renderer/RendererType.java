@@ -20,5 +20,11 @@ package com.pavelfatin.fractal.renderer;
 public enum RendererType {
     Singlethreaded,
     Multithreaded,
+    Vectorized,
+    MarianiSilver,
+    DoubleDouble,
+    FixedPoint,
+    Perturbation,
+    Tiered,
     OpenCL
 }
@@ -18,14 +18,21 @@
 package com.pavelfatin.fractal.renderer;
 
 class SinglethreadedRenderer extends CPURenderer {
+    SinglethreadedRenderer(final boolean interiorChecking) {
+        super(interiorChecking);
+    }
+
     @Override
-    public void render(final int[] buffer,
-                       final int width,
-                       final int height,
-                       final double realOffset,
-                       final double imaginaryOffset,
-                       final double resolution) {
-        render(buffer, width, 0, height, realOffset, imaginaryOffset, resolution);
+    protected void render(final int[] buffer,
+                          final int width,
+                          final int height,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        for (int y = 0; y < height && !isCancelled(); y++) {
+            render(buffer, width, 0, y, width, y + 1, realOffset, imaginaryOffset, resolution, maxIterations);
+        }
     }
 
     @Override
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+public interface TieredRenderer extends Renderer {
+    /**
+     * Picks the precision for a frame that spans the area, so that all the parts of the frame
+     * are rendered with the same precision (until the first frame, every render call is a frame of its own).
+     * Returns whether the precision differs from that of the previous frame.
+     */
+    boolean startFrame(BigDecimal realOffset, BigDecimal imaginaryOffset, int width, int height, double resolution);
+
+    /**
+     * Returns the precision that was used for the last frame.
+     */
+    Precision getPrecision();
+
+    /**
+     * Returns how many frames were rendered with each precision.
+     */
+    Map<Precision, Integer> getPrecisionUsage();
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Iterates a whole vector of horizontally adjacent pixels in lockstep, masking out the lanes
+ * that have escaped. Produces the same values as the scalar loop (no fused multiply-add is used).
+ * Requires the jdk.incubator.vector module (see {@link RendererFactory}).
+ */
+class VectorizedRenderer extends LaneRenderer<double[]> {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector LANE_INDICES = laneIndices();
+    private static final DoubleVector ZERO = DoubleVector.zero(SPECIES);
+    private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1.0D);
+    private static final DoubleVector FOUR = DoubleVector.broadcast(SPECIES, 4.0D);
+
+    VectorizedRenderer(final int threadCount, final boolean interiorChecking) {
+        super(threadCount, interiorChecking);
+    }
+
+    @Override
+    protected int getLaneCount() {
+        return SPECIES.length();
+    }
+
+    @Override
+    protected double[] createBuffers() {
+        return new double[SPECIES.length()];
+    }
+
+    @Override
+    protected void renderLanes(final double[] counts,
+                               final int[] buffer,
+                               final int index,
+                               final int x,
+                               final int y,
+                               final double realOffset,
+                               final double imaginaryOffset,
+                               final double resolution,
+                               final int maxIterations) {
+        final double b = imaginaryOffset + y * resolution;
+
+        if (isInteriorChecking()) {
+            checkedBound(x, b, realOffset, resolution, maxIterations, counts);
+        } else {
+            bound(x, b, realOffset, resolution, maxIterations, counts);
+        }
+
+        for (int lane = 0; lane < counts.length; lane++) {
+            buffer[index + lane] = (int) counts[lane];
+        }
+    }
+
+    @Override
+    protected int boundAt(final int x,
+                          final int y,
+                          final double realOffset,
+                          final double imaginaryOffset,
+                          final double resolution,
+                          final int maxIterations) {
+        final double a = realOffset + x * resolution;
+        final double b = imaginaryOffset + y * resolution;
+
+        return isInteriorChecking() ? checkedBound(a, b, maxIterations) : bound(a, b, maxIterations);
+    }
+
+    /**
+     * Stores the escape times of the pixels x..x + lanes of a row into the result array.
+     * Vectors are created here rather than passed in, so that they never cross a call boundary
+     * (which would box them when the call is not inlined).
+     */
+    private static void bound(final int x,
+                              final double b,
+                              final double realOffset,
+                              final double resolution,
+                              final int maxIterations,
+                              final double[] result) {
+        final DoubleVector aSeed = LANE_INDICES.add(x).mul(resolution).add(realOffset);
+        final DoubleVector bSeed = DoubleVector.broadcast(SPECIES, b);
+
+        DoubleVector aValue = aSeed;
+        DoubleVector bValue = bSeed;
+
+        DoubleVector counts = ZERO;
+
+        VectorMask<Double> active = SPECIES.maskAll(true);
+        VectorMask<Double> escaped = SPECIES.maskAll(false);
+
+        int i = 1;
+
+        DoubleVector aSqr;
+        DoubleVector bSqr;
+
+        while (i < maxIterations && active.anyTrue()) {
+            counts = counts.add(ONE, active);
+
+            aSqr = aValue.mul(aValue);
+            bSqr = bValue.mul(bValue);
+
+            bValue = aValue.mul(2.0D).mul(bValue).add(bSeed);
+            aValue = aSqr.sub(bSqr).add(aSeed);
+
+            final VectorMask<Double> escaping = aSqr.add(bSqr).compare(VectorOperators.GE, FOUR).and(active);
+            escaped = escaped.or(escaping);
+            active = active.andNot(escaping);
+
+            i++;
+        }
+
+        ZERO.blend(counts, escaped).intoArray(result, 0);
+    }
+
+    /**
+     * Vector counterpart of CPURenderer.checkedBound. The saved value is replaced with a blend
+     * rather than in a branch, which keeps the vectors out of conditional code (and unboxed).
+     */
+    private static void checkedBound(final int x,
+                                     final double b,
+                                     final double realOffset,
+                                     final double resolution,
+                                     final int maxIterations,
+                                     final double[] result) {
+        final DoubleVector aSeed = LANE_INDICES.add(x).mul(resolution).add(realOffset);
+        final DoubleVector bSeed = DoubleVector.broadcast(SPECIES, b);
+
+        DoubleVector aValue = aSeed;
+        DoubleVector bValue = bSeed;
+
+        DoubleVector aSaved = ZERO;
+        DoubleVector bSaved = ZERO;
+
+        DoubleVector counts = ZERO;
+
+        VectorMask<Double> active = SPECIES.maskAll(true).andNot(isInterior(aSeed, bSeed));
+        VectorMask<Double> escaped = SPECIES.maskAll(false);
+
+        int i = 1;
+        int period = 0;
+        int window = 8;
+
+        DoubleVector aSqr;
+        DoubleVector bSqr;
+
+        while (i < maxIterations && active.anyTrue()) {
+            counts = counts.add(ONE, active);
+
+            aSqr = aValue.mul(aValue);
+            bSqr = bValue.mul(bValue);
+
+            bValue = aValue.mul(2.0D).mul(bValue).add(bSeed);
+            aValue = aSqr.sub(bSqr).add(aSeed);
+
+            final VectorMask<Double> escaping = aSqr.add(bSqr).compare(VectorOperators.GE, FOUR).and(active);
+            escaped = escaped.or(escaping);
+            active = active.andNot(escaping)
+                    .andNot(aValue.compare(VectorOperators.EQ, aSaved).and(bValue.compare(VectorOperators.EQ, bSaved)));
+
+            period++;
+
+            final VectorMask<Double> saving = SPECIES.maskAll(period == window);
+            aSaved = aSaved.blend(aValue, saving);
+            bSaved = bSaved.blend(bValue, saving);
+
+            if (period == window) {
+                period = 0;
+                window *= 2;
+            }
+
+            i++;
+        }
+
+        ZERO.blend(counts, escaped).intoArray(result, 0);
+    }
+
+    private static VectorMask<Double> isInterior(final DoubleVector a, final DoubleVector b) {
+        final DoubleVector bSqr = b.mul(b);
+
+        final DoubleVector aShifted = a.sub(0.25D);
+        final DoubleVector q = aShifted.mul(aShifted).add(bSqr);
+
+        final VectorMask<Double> cardioid = q.mul(q.add(aShifted)).compare(VectorOperators.LT, bSqr.mul(0.25D));
+
+        final DoubleVector aBulb = a.add(1.0D);
+
+        final VectorMask<Double> bulb = aBulb.mul(aBulb).add(bSqr).compare(VectorOperators.LT, 0.0625D);
+
+        return cardioid.or(bulb);
+    }
+
+    private static DoubleVector laneIndices() {
+        final double[] indices = new double[SPECIES.length()];
+
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+
+        return DoubleVector.fromArray(SPECIES, indices, 0);
+    }
+}
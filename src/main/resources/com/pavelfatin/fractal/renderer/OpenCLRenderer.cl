@@ -15,12 +15,12 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-inline unsigned int bound(const float2 seed) {
+inline unsigned int bound(const float2 seed, const unsigned int maxIterations) {
     float2 value = seed;
 
     unsigned int i = 1;
 
-    while (i < 256) {
+    while (i < maxIterations) {
         const float2 sqr = value * value;
 
         value = (float2) (sqr.x - sqr.y, 2.0F * value.x * value.y) + seed;
@@ -33,14 +33,120 @@ inline unsigned int bound(const float2 seed) {
     return 0;
 }
 
+/*
+ * In float the terms of the tests are rounded by up to a few ulps of 1 (the values near the boundary
+ * are below 2), so the tests are shrunk by a margin well above that: a point that passes them lies
+ * inside for sure, the points near the boundary are left to the loop.
+ */
+#define INTERIOR_MARGIN 1.0E-5F
+
+inline bool is_interior(const float2 c) {
+    const float y2 = c.y * c.y;
+
+    const float x = c.x - 0.25F;
+    const float q = x * x + y2;
+
+    if (q * (q + x) + INTERIOR_MARGIN < 0.25F * y2) return true;
+
+    const float xBulb = c.x + 1.0F;
+
+    return xBulb * xBulb + y2 + INTERIOR_MARGIN < 0.0625F;
+}
+
+inline unsigned int checked_bound(const float2 seed, const unsigned int maxIterations) {
+    if (is_interior(seed)) return 0;
+
+    float2 value = seed;
+    float2 saved = (float2) (0.0F, 0.0F);
+
+    unsigned int i = 1;
+    unsigned int period = 0;
+    unsigned int window = 8;
+
+    while (i < maxIterations) {
+        const float2 sqr = value * value;
+
+        value = (float2) (sqr.x - sqr.y, 2.0F * value.x * value.y) + seed;
+
+        if (sqr.x + sqr.y >= 4.0F) return i;
+
+        if (value.x == saved.x && value.y == saved.y) return 0;
+
+        period++;
+
+        if (period == window) {
+            period = 0;
+            window *= 2;
+            saved = value;
+        }
+
+        i++;
+    }
+
+    return 0;
+}
+
 kernel void generate(const float2 offset,
                      const float2 resolution,
                      const unsigned int width,
+                     const unsigned int maxIterations,
+                     const int interiorChecking,
+                     const unsigned int start,
                      global int* out) {
     const int2 id = (int2) (get_global_id(0), get_global_id(1));
 
     const float2 z = offset + resolution * (float2)(id.x, id.y);
 
-    out[id.y * width + id.x] = bound(z);
+    out[start + id.y * width + id.x] = interiorChecking ? checked_bound(z, maxIterations) : bound(z, maxIterations);
 }
 
+/*
+ * Perturbation: each pixel is iterated as a delta against a reference orbit computed on the host
+ * (orbit[n] = Z(n), Z(0) = 0), so the float precision is spent on the deltas only.
+ * Returns -1 for the pixels that the reference cannot represent (glitches).
+ */
+kernel void generate_perturbed(const float2 delta,
+                               const float2 resolution,
+                               const unsigned int width,
+                               const unsigned int maxIterations,
+                               global const float2* orbit,
+                               const unsigned int orbitLength,
+                               global int* out) {
+    const int2 id = (int2) (get_global_id(0), get_global_id(1));
+
+    const float2 dc = delta + resolution * (float2)(id.x, id.y);
+
+    float2 dz = dc;
+
+    unsigned int i = 1;
+
+    while (i < maxIterations) {
+        if (i >= orbitLength) {
+            out[id.y * width + id.x] = -1;
+            return;
+        }
+
+        const float2 reference = orbit[i];
+        const float2 z = reference + dz;
+
+        const float sqr = dot(z, z);
+
+        if (sqr >= 4.0F) {
+            out[id.y * width + id.x] = i;
+            return;
+        }
+
+        if (sqr < 1.0E-6F * dot(reference, reference)) {
+            out[id.y * width + id.x] = -1;
+            return;
+        }
+
+        const float2 factor = 2.0F * reference + dz;
+
+        dz = (float2) (dz.x * factor.x - dz.y * factor.y, dz.x * factor.y + dz.y * factor.x) + dc;
+
+        i++;
+    }
+
+    out[id.y * width + id.x] = 0;
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import org.junit.Test;
+
+import java.awt.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The iteration limit follows the zoom depth, and is doubled or halved to fit the rendered frames.
+ */
+public class PictureModelTest {
+    @Test
+    public void adjustMaxIterations() {
+        final PictureModel model = new PictureModel();
+        model.setViewSize(new Dimension(400, 300));
+
+        final int[] changes = new int[1];
+
+        model.addModelListener(new ModelListener() {
+            @Override
+            public void onMove(final int dx, final int dy) {
+            }
+
+            @Override
+            public void onChange() {
+                changes[0]++;
+            }
+
+            @Override
+            public void onResize(final Dimension oldSize, final Dimension newSize) {
+            }
+        });
+
+        final int limit = model.getMaxIterations();
+        assertEquals(256, limit);
+
+        model.adjustMaxIterations(limit, true);
+        assertEquals(2 * limit, model.getMaxIterations());
+        assertEquals(1, changes[0]);
+
+        // a frame of the previous limit does not adjust the current one
+        model.adjustMaxIterations(limit, true);
+        assertEquals(2 * limit, model.getMaxIterations());
+        assertEquals(1, changes[0]);
+
+        model.adjustMaxIterations(2 * limit, false);
+        model.adjustMaxIterations(limit, false);
+        model.adjustMaxIterations(limit / 2, false);
+        assertEquals(limit / 4, model.getMaxIterations());
+
+        // the limit is not lowered further
+        model.adjustMaxIterations(limit / 4, false);
+        assertEquals(limit / 4, model.getMaxIterations());
+        assertEquals(4, changes[0]);
+
+        // the adjustment carries over the zoom
+        model.zoomIn();
+        assertEquals(PictureModel.getMaxIterations(model.getResolution(), 400) / 4, model.getMaxIterations());
+
+        model.reset();
+        assertEquals(limit, model.getMaxIterations());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The image that is written band by band is decoded (by ImageIO) into the same colors.
+ */
+public class PngWriterTest {
+    private static final int WIDTH = 97;
+
+    @Test
+    public void singleBand() throws IOException {
+        assertDecoded(runsOf(WIDTH * 20), 20, 20);
+    }
+
+    @Test
+    public void multipleBands() throws IOException {
+        // more bands than may be in flight, so that some are written before the image is closed
+        assertDecoded(runsOf(WIDTH * 160), 160, 16);
+    }
+
+    @Test
+    public void shorterLastBand() throws IOException {
+        assertDecoded(runsOf(WIDTH * 150), 150, 16);
+    }
+
+    @Test
+    public void incompressibleColors() throws IOException {
+        final int[] colors = new int[WIDTH * 70];
+        final Random random = new Random(1L);
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt() & 0xFFFFFF;
+        }
+
+        assertDecoded(colors, 70, 32);
+    }
+
+    private static void assertDecoded(final int[] colors, final int height, final int bandHeight) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PngWriter writer = new PngWriter(bytes, WIDTH, height, 2);
+
+        for (int y = 0; y < height; y += bandHeight) {
+            final int rows = Math.min(bandHeight, height - y);
+            writer.write(Arrays.copyOfRange(colors, y * WIDTH, (y + rows) * WIDTH), rows);
+        }
+
+        writer.close();
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertNotNull(image);
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(height, image.getHeight());
+
+        final int[] decoded = image.getRGB(0, 0, WIDTH, height, null, 0, WIDTH);
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] &= 0xFFFFFF;
+        }
+
+        assertArrayEquals(colors, decoded);
+    }
+
+    /**
+     * Returns the runs of colors (like the ones of a rendered image) that vary from row to row.
+     */
+    private static int[] runsOf(final int length) {
+        final int[] colors = new int[length];
+        for (int i = 0; i < length; i++) {
+            final int x = i % WIDTH;
+            final int y = i / WIDTH;
+            colors[i] = ((x / 7 + y / 3) * 0x0F3A71) & 0xFFFFFF;
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A job is resumed from the completed bands, a damaged tail of the journal is truncated,
+ * and the bands of a process that is no longer running are claimed again.
+ */
+public class RenderJournalTest {
+    private static final String JOB = "job";
+    private static final int BAND_COUNT = 3;
+    private static final int LENGTH = 1000;
+
+    @Rule
+    public final TemporaryFolder myFolder = new TemporaryFolder();
+
+    @Test
+    public void resume() throws IOException {
+        final File file = new File(myFolder.getRoot(), "journal");
+
+        RenderJournal journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(0, journal.claim());
+            assertFalse(journal.complete(0, countsOf(0), LENGTH));
+            assertEquals(1, journal.claim());
+        } finally {
+            journal.close();
+        }
+
+        // the band that is claimed by this (running) process may be claimed again
+        journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(1, journal.getCompletedBandCount());
+            assertFalse(journal.isComplete());
+
+            final int[] counts = new int[LENGTH];
+            journal.read(0, counts);
+            assertArrayEquals(countsOf(0), counts);
+
+            assertEquals(1, journal.claim());
+            assertFalse(journal.complete(1, countsOf(1), LENGTH));
+            assertEquals(2, journal.claim());
+            assertTrue(journal.complete(2, countsOf(2), LENGTH));
+            assertEquals(-1, journal.claim());
+            assertTrue(journal.isComplete());
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void truncateIncompleteRecord() throws IOException {
+        final File file = new File(myFolder.getRoot(), "journal");
+
+        final long length = completeFirstBand(file);
+
+        // a record that was cut short
+        append(file, new byte[]{0, 0, 0, 3, 0, 0, 1, 0, 42});
+
+        assertResumed(file, length);
+    }
+
+    @Test
+    public void truncateCorruptRecord() throws IOException {
+        final File file = new File(myFolder.getRoot(), "journal");
+
+        final long length = completeFirstBand(file);
+
+        RenderJournal journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(1, journal.claim());
+            journal.complete(1, countsOf(1), LENGTH);
+        } finally {
+            journal.close();
+        }
+
+        // the checksum of the last record does not match
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.seek(output.length() - 1L);
+            final int value = output.read();
+            output.seek(output.length() - 1L);
+            output.write(~value);
+        } finally {
+            output.close();
+        }
+
+        // the claim of the second band remains
+        assertResumed(file, -1L);
+    }
+
+    @Test
+    public void rejectAnotherJob() throws IOException {
+        final File file = new File(myFolder.getRoot(), "journal");
+
+        RenderJournal.open(file, JOB, BAND_COUNT).close();
+
+        try {
+            RenderJournal.open(file, "another job", BAND_COUNT).close();
+            fail("The journal of another job is opened");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the journal is left intact
+        RenderJournal.open(file, JOB, BAND_COUNT).close();
+    }
+
+    @Test
+    public void reclaim() throws Exception {
+        final File file = new File(myFolder.getRoot(), "journal");
+
+        final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                RenderJournalTest.class.getName(), file.getPath()).start();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("0", reader.readLine());
+
+        final RenderJournal journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            // the band is claimed by a running process
+            assertEquals(1, journal.claim());
+
+            process.getOutputStream().close();
+            assertEquals(0, process.waitFor());
+
+            // the process is no longer running
+            assertEquals(0, journal.claim());
+            assertFalse(journal.complete(0, countsOf(0), LENGTH));
+            assertEquals(1, journal.getCompletedBandCount());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Claims a band of the journal, prints it, and exits when the input is closed (see {@link #reclaim()}).
+     */
+    public static void main(final String[] args) throws IOException {
+        final RenderJournal journal = RenderJournal.open(new File(args[0]), JOB, BAND_COUNT);
+        try {
+            System.out.println(journal.claim());
+            System.out.flush();
+
+            while (System.in.read() != -1) {
+                // wait for the input to be closed
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Completes the first band of a new journal, returns the length of the journal.
+     */
+    private static long completeFirstBand(final File file) throws IOException {
+        final RenderJournal journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(0, journal.claim());
+            journal.complete(0, countsOf(0), LENGTH);
+        } finally {
+            journal.close();
+        }
+        return file.length();
+    }
+
+    /**
+     * Checks that only the first band is completed, and that the journal is truncated to the length (unless -1).
+     */
+    private static void assertResumed(final File file, final long length) throws IOException {
+        final RenderJournal journal = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(1, journal.getCompletedBandCount());
+
+            if (length != -1L) {
+                assertEquals(length, file.length());
+            }
+
+            final int[] counts = new int[LENGTH];
+            journal.read(0, counts);
+            assertArrayEquals(countsOf(0), counts);
+
+            // the journal is appended after the truncation
+            assertEquals(1, journal.claim());
+            assertFalse(journal.complete(1, countsOf(1), LENGTH));
+        } finally {
+            journal.close();
+        }
+
+        final RenderJournal reopened = RenderJournal.open(file, JOB, BAND_COUNT);
+        try {
+            assertEquals(2, reopened.getCompletedBandCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void append(final File file, final byte[] bytes) throws IOException {
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.seek(output.length());
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static int[] countsOf(final int band) {
+        final int[] counts = new int[LENGTH];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = band * LENGTH + i % 97;
+        }
+        return counts;
+    }
+}
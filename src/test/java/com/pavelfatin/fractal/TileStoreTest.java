@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+
+import static com.pavelfatin.fractal.TileGrid.TILE_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The tiles survive reopening, the corrupt entries are rejected (and their slots reused),
+ * and the least recently used tiles are evicted when the store is full.
+ */
+public class TileStoreTest {
+    /** The smallest store, which holds a few dozen tiles. */
+    private static final int SIZE = 1;
+
+    @Rule
+    public final TemporaryFolder myFolder = new TemporaryFolder();
+
+    @Test
+    public void reopen() throws IOException {
+        final File directory = myFolder.getRoot();
+
+        TileStore store = TileStore.open(directory, SIZE);
+        store.store(keyOf(0), tileOf(0), 0, TILE_SIZE);
+        store.close();
+
+        store = TileStore.open(directory, SIZE);
+        try {
+            assertTrue(store.contains(keyOf(0)));
+            assertEquals(1, store.getTileCount());
+
+            final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+            assertTrue(store.load(keyOf(0), tile));
+            assertArrayEquals(tileOf(0), tile);
+            assertEquals(1L, store.getLoadCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void storeWithStride() throws IOException {
+        final TileStore store = TileStore.open(myFolder.getRoot(), SIZE);
+        try {
+            // the tile lies at (1, 1) of a wider frame
+            final int stride = TILE_SIZE + 3;
+            final int[] frame = new int[stride * (TILE_SIZE + 1)];
+            final int[] expected = tileOf(1);
+            for (int y = 0; y < TILE_SIZE; y++) {
+                System.arraycopy(expected, y * TILE_SIZE, frame, (y + 1) * stride + 1, TILE_SIZE);
+            }
+
+            store.store(keyOf(1), frame, stride + 1, stride);
+
+            final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+            assertTrue(store.load(keyOf(1), tile));
+            assertArrayEquals(expected, tile);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void corruptData() throws IOException {
+        final File directory = myFolder.getRoot();
+
+        TileStore store = TileStore.open(directory, SIZE);
+        store.store(keyOf(0), tileOf(0), 0, TILE_SIZE);
+        store.close();
+
+        // the only tile is in the first slot
+        corrupt(directory, TileStore.DATA_OFFSET + 100);
+
+        store = TileStore.open(directory, SIZE);
+        try {
+            // the key is intact, so the entry is indexed, but its checksum does not match
+            assertTrue(store.contains(keyOf(0)));
+            assertFalse(store.load(keyOf(0), new int[TILE_SIZE * TILE_SIZE]));
+            assertFalse(store.contains(keyOf(0)));
+            assertEquals(1L, store.getRejectionCount());
+            assertEquals(0L, store.getLoadCount());
+
+            assertFreed(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void corruptMarker() throws IOException {
+        final File directory = myFolder.getRoot();
+
+        TileStore store = TileStore.open(directory, SIZE);
+        store.store(keyOf(0), tileOf(0), 0, TILE_SIZE);
+        store.close();
+
+        corrupt(directory, TileStore.MARKER_OFFSET);
+
+        store = TileStore.open(directory, SIZE);
+        try {
+            assertFalse(store.contains(keyOf(0)));
+            assertEquals(0, store.getTileCount());
+
+            assertFreed(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        final TileStore store = TileStore.open(myFolder.getRoot(), SIZE);
+        try {
+            final int capacity = store.getCapacity();
+            assertTrue(capacity > 2);
+
+            for (int i = 0; i < capacity; i++) {
+                store.store(keyOf(i), tileOf(i), 0, TILE_SIZE);
+            }
+            assertEquals(0L, store.getEvictionCount());
+
+            // the first tile becomes the most recently used one, so the second one is evicted
+            assertTrue(store.load(keyOf(0), new int[TILE_SIZE * TILE_SIZE]));
+            store.store(keyOf(capacity), tileOf(capacity), 0, TILE_SIZE);
+
+            assertEquals(1L, store.getEvictionCount());
+            assertEquals(capacity, store.getTileCount());
+            assertTrue(store.contains(keyOf(0)));
+            assertFalse(store.contains(keyOf(1)));
+            assertTrue(store.contains(keyOf(2)));
+
+            final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+            assertTrue(store.load(keyOf(capacity), tile));
+            assertArrayEquals(tileOf(capacity), tile);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void lock() throws IOException {
+        final File directory = myFolder.getRoot();
+
+        final TileStore store = TileStore.open(directory, SIZE);
+        try {
+            TileStore.open(directory, SIZE).close();
+            fail("The store is opened twice");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            store.close();
+        }
+
+        // the lock is released on closing
+        TileStore.open(directory, SIZE).close();
+    }
+
+    /**
+     * Checks that all the slots are free, i.e. the store is filled without evictions.
+     */
+    private static void assertFreed(final TileStore store) {
+        for (int i = 1; i <= store.getCapacity(); i++) {
+            store.store(keyOf(i), tileOf(i), 0, TILE_SIZE);
+        }
+        assertEquals(0L, store.getEvictionCount());
+        assertEquals(store.getCapacity(), store.getTileCount());
+    }
+
+    /**
+     * Inverts the byte at the offset of the first slot.
+     */
+    private static void corrupt(final File directory, final int offset) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(new File(directory, TileStore.FILE_NAME), "rw");
+        try {
+            file.seek(offset);
+            final int value = file.read();
+            file.seek(offset);
+            file.write(~value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static TileKey keyOf(final int column) {
+        return new TileKey("Renderer", 0L, 256, 0, 0, BigInteger.valueOf(column), BigInteger.ZERO);
+    }
+
+    /**
+     * Returns the counts that differ from tile to tile.
+     */
+    private static int[] tileOf(final int seed) {
+        final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        for (int i = 0; i < tile.length; i++) {
+            tile[i] = seed * 31 + i;
+        }
+        return tile;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal;
+
+import com.pavelfatin.fractal.renderer.Renderer;
+import com.pavelfatin.fractal.renderer.RendererFactory;
+import com.pavelfatin.fractal.renderer.RendererType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The counts of a view that reuses the common samples of the previous view are the counts of a direct render.
+ * The views are centered on a point with a short binary fraction, and the resolutions are powers of two,
+ * so that the samples are the same points whichever offset they are rendered from.
+ */
+public class ZoomMappingTest {
+    private static final Dimension SIZE = new Dimension(64, 48);
+    private static final BigDecimal REAL_CENTER = new BigDecimal("-0.75");
+    private static final BigDecimal IMAGINARY_CENTER = new BigDecimal("0.125");
+    private static final double RESOLUTION = 1.0D / 64.0D;
+
+    private Renderer myRenderer;
+
+    @Before
+    public void setUp() {
+        myRenderer = new RendererFactory().createRenderer(RendererType.Singlethreaded, SIZE.width, SIZE.height, false);
+    }
+
+    @After
+    public void tearDown() {
+        myRenderer.dispose();
+    }
+
+    @Test
+    public void zoomOutToLesserLimit() {
+        final View previous = createView(RESOLUTION, 200);
+        final int[] previousCounts = render(previous);
+
+        // the lesser limit is a count of a common sample, which has not escaped within that limit
+        final int maxIterations = previousCounts[SIZE.width / 2 + SIZE.height / 2 * SIZE.width];
+        assertTrue(maxIterations > 1 && maxIterations < 200);
+
+        assertReused(previous, previousCounts, createView(2.0D * RESOLUTION, maxIterations), 1);
+    }
+
+    @Test
+    public void zoomOutToGreaterLimit() {
+        final View previous = createView(RESOLUTION, 100);
+
+        assertReused(previous, render(previous), createView(2.0D * RESOLUTION, 200), 1);
+    }
+
+    @Test
+    public void zoomInToGreaterLimit() {
+        final View previous = createView(2.0D * RESOLUTION, 100);
+
+        assertReused(previous, render(previous), createView(RESOLUTION, 200), 2);
+    }
+
+    @Test
+    public void zoomInToLesserLimit() {
+        final View previous = createView(2.0D * RESOLUTION, 200);
+
+        assertReused(previous, render(previous), createView(RESOLUTION, 50), 2);
+    }
+
+    private void assertReused(final View previous, final int[] previousCounts, final View view, final int step) {
+        final ZoomMapping mapping = ZoomMapping.between(previous, view);
+        assertEquals(step, mapping.getStep());
+
+        final int[] counts = new int[SIZE.width * SIZE.height];
+
+        mapping.reuse(previousCounts, previous.getMaxIterations(), counts, view.getMaxIterations(), new ZoomMapping.Samples() {
+            @Override
+            public void render(final int x0, final int y0, final int step, final int x1, final int y1) {
+                renderSamples(view, counts, x0, y0, step, x1, y1);
+            }
+        });
+
+        assertArrayEquals(render(view), counts);
+    }
+
+    private View createView(final double resolution, final int maxIterations) {
+        return new View(SIZE, REAL_CENTER, IMAGINARY_CENTER, resolution, maxIterations, MathContext.DECIMAL128);
+    }
+
+    private int[] render(final View view) {
+        final int[] counts = new int[SIZE.width * SIZE.height];
+        renderSamples(view, counts, 0, 0, 1, SIZE.width, SIZE.height);
+        return counts;
+    }
+
+    private void renderSamples(final View view, final int[] counts,
+                               final int x0, final int y0, final int step, final int x1, final int y1) {
+        if (x0 >= x1 || y0 >= y1) return;
+
+        final int columns = (x1 - x0 + step - 1) / step;
+        final int rows = (y1 - y0 + step - 1) / step;
+        final int[] buffer = new int[columns * rows];
+
+        myRenderer.render(buffer, columns, rows, view.getRealOffset(x0), view.getImaginaryOffset(y0),
+                view.getResolution() * step, view.getMaxIterations());
+
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                counts[(y0 + j * step) * SIZE.width + x0 + i * step] = buffer[j * columns + i];
+            }
+        }
+    }
+}
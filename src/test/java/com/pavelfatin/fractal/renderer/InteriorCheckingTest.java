@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Interior checking (cardioid / bulb rejection and cycle detection) must not change a single pixel.
+ */
+public class InteriorCheckingTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 280;
+
+    // center, span and iteration limit
+    private static final double[][] VIEWS = {
+            {-0.75D, 0.0D, 3.5D, 256},                          // the whole set
+            {-0.745D, 0.1D, 0.05D, 1024},                       // seahorse valley
+            {0.25D, 0.0D, 0.01D, 2048},                         // cardioid cusp
+            {-1.0D, 0.0D, 0.6D, 512},                           // period-2 bulb
+            {-1.76D, 0.0D, 0.05D, 1024},                        // antenna
+            {-0.1592D, 1.0317D, 0.01D, 1024},                   // period-3 bulb
+            {-0.743643887037D, 0.131825904206D, 1.0E-9D, 4096}, // deep
+    };
+
+    @Test
+    public void scalar() {
+        for (final double[] view : VIEWS) {
+            final double resolution = view[2] / WIDTH;
+            final double realOffset = view[0] - resolution * WIDTH / 2;
+            final double imaginaryOffset = view[1] - resolution * HEIGHT / 2;
+            final int maxIterations = (int) view[3];
+
+            for (int y = 0; y < HEIGHT; y++) {
+                final double b = imaginaryOffset + y * resolution;
+                for (int x = 0; x < WIDTH; x++) {
+                    final double a = realOffset + x * resolution;
+                    assertEquals("(" + a + ", " + b + ")",
+                            CPURenderer.bound(a, b, maxIterations), CPURenderer.checkedBound(a, b, maxIterations));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void vectorized() {
+        Assume.assumeTrue(RendererFactory.isVectorApiSupported());
+
+        final Renderer plain = new VectorizedRenderer(1, false);
+        final Renderer checked = new VectorizedRenderer(1, true);
+
+        try {
+            for (final double[] view : VIEWS) {
+                assertArrayEquals(render(plain, view), render(checked, view));
+            }
+        } finally {
+            plain.dispose();
+            checked.dispose();
+        }
+    }
+
+    private static int[] render(final Renderer renderer, final double[] view) {
+        final double resolution = view[2] / WIDTH;
+        final int[] buffer = new int[WIDTH * HEIGHT];
+
+        renderer.render(buffer, WIDTH, HEIGHT,
+                new BigDecimal(view[0] - resolution * WIDTH / 2), new BigDecimal(view[1] - resolution * HEIGHT / 2),
+                resolution, (int) view[3]);
+
+        return buffer;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Pavel Fatin <http://pavelfatin.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pavelfatin.fractal.renderer;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * The count of a pixel must not depend on how the frame is split into renders.
+ */
+public class TilingTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int BAND_HEIGHT = 7;
+
+    // dyadic, so that the offsets of the bands are exact (and a difference comes from the renderer only)
+    private static final double REAL_OFFSET = -0.75D;
+    private static final double IMAGINARY_OFFSET = 0.09375D;
+    private static final double RESOLUTION = Math.scalb(1.0D, -16);
+    private static final int MAX_ITERATIONS = 1024;
+
+    @Test
+    public void bands() {
+        final Renderer renderer = new MultithreadedRenderer(2, false);
+
+        try {
+            final int[] whole = new int[WIDTH * HEIGHT];
+            renderer.render(whole, WIDTH, HEIGHT, offset(REAL_OFFSET, 0), offset(IMAGINARY_OFFSET, 0),
+                    RESOLUTION, MAX_ITERATIONS);
+
+            final int[] banded = new int[WIDTH * HEIGHT];
+            final int[] band = new int[WIDTH * BAND_HEIGHT];
+
+            for (int y = 0; y < HEIGHT; y += BAND_HEIGHT) {
+                final int height = Math.min(BAND_HEIGHT, HEIGHT - y);
+                renderer.render(band, WIDTH, height, offset(REAL_OFFSET, 0), offset(IMAGINARY_OFFSET, y),
+                        RESOLUTION, MAX_ITERATIONS);
+                System.arraycopy(band, 0, banded, y * WIDTH, WIDTH * height);
+            }
+
+            assertArrayEquals(whole, banded);
+
+            final int[] scalar = new int[WIDTH * HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    scalar[y * WIDTH + x] = CPURenderer.bound(REAL_OFFSET + x * RESOLUTION,
+                            IMAGINARY_OFFSET + y * RESOLUTION, MAX_ITERATIONS);
+                }
+            }
+
+            assertArrayEquals(scalar, whole);
+        } finally {
+            renderer.dispose();
+        }
+    }
+
+    private static BigDecimal offset(final double offset, final int position) {
+        return new BigDecimal(offset + position * RESOLUTION);
+    }
+}